@@ -9,15 +9,19 @@ class AdditionalInfo {
     Map<String, Set<String>> useEdges;
     Map<String, Set<Tuple2<String, String>>> switchEdges;
     Map<String, Set<Tuple2<String, String>>> threadEdges;
+    // cg algo actually used, may differ from the requested one (fallback)
+    String cgAlgo;
 
     public AdditionalInfo(Map<String, Set<String>> fe,
                           Map<String, Set<String>> ue,
                           Map<String, Set<Tuple2<String, String>>> se,
-                          Map<String, Set<Tuple2<String, String>>> te) {
+                          Map<String, Set<Tuple2<String, String>>> te,
+                          String algo) {
         this.findEdges = fe;
         this.useEdges = ue;
         this.switchEdges = se;
         this.threadEdges = te;
+        this.cgAlgo = algo;
     }
 
     // all the getter and setters are required to print json
@@ -53,4 +57,12 @@ class AdditionalInfo {
     public void setThreadEdges(Map<String, Set<Tuple2<String, String>>> threadEdges) {
         this.threadEdges = threadEdges;
     }
+
+    public String getCgAlgo() {
+        return cgAlgo;
+    }
+
+    public void setCgAlgo(String cgAlgo) {
+        this.cgAlgo = cgAlgo;
+    }
 }
\ No newline at end of file
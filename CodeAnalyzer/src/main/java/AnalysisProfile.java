@@ -0,0 +1,70 @@
+import soot.jimple.infoflow.InfoflowConfiguration;
+import soot.jimple.infoflow.android.InfoflowAndroidConfiguration;
+
+/**
+ * Named presets for the flowdroid settings used in cg construction.
+ * Taint analysis is disabled, so access paths, static fields and aliasing
+ * barely matter, while callback settings decide the entry points of the cg.
+ * See Scripts/driver/profile_bench.py for the cost/precision comparison
+ */
+public enum AnalysisProfile {
+    // settings used before the presets exist
+    PRECISE(500, 500, 500, InfoflowAndroidConfiguration.CallbackAnalyzer.Default,
+            InfoflowConfiguration.StaticFieldTrackingMode.ContextFlowSensitive,
+            InfoflowConfiguration.AliasingAlgorithm.FlowSensitive, true),
+    // flowdroid defaults for the settings that do not change the cg
+    BALANCED(5, 100, 5, InfoflowAndroidConfiguration.CallbackAnalyzer.Default,
+            InfoflowConfiguration.StaticFieldTrackingMode.ContextFlowInsensitive,
+            InfoflowConfiguration.AliasingAlgorithm.FlowSensitive, true),
+    // single pass callback discovery, no reflection
+    FAST(3, 50, 1, InfoflowAndroidConfiguration.CallbackAnalyzer.Fast,
+            InfoflowConfiguration.StaticFieldTrackingMode.None,
+            InfoflowConfiguration.AliasingAlgorithm.None, false);
+
+    final int accessPathLength;
+    final int maxCallbacksPerComponent;
+    final int maxCallbackDepth;
+    final InfoflowAndroidConfiguration.CallbackAnalyzer callbackAnalyzer;
+    final InfoflowConfiguration.StaticFieldTrackingMode staticFieldMode;
+    final InfoflowConfiguration.AliasingAlgorithm aliasing;
+    final boolean reflection;
+
+    AnalysisProfile(int accessPathLength, int maxCallbacksPerComponent, int maxCallbackDepth,
+                    InfoflowAndroidConfiguration.CallbackAnalyzer callbackAnalyzer,
+                    InfoflowConfiguration.StaticFieldTrackingMode staticFieldMode,
+                    InfoflowConfiguration.AliasingAlgorithm aliasing,
+                    boolean reflection) {
+        this.accessPathLength = accessPathLength;
+        this.maxCallbacksPerComponent = maxCallbacksPerComponent;
+        this.maxCallbackDepth = maxCallbackDepth;
+        this.callbackAnalyzer = callbackAnalyzer;
+        this.staticFieldMode = staticFieldMode;
+        this.aliasing = aliasing;
+        this.reflection = reflection;
+    }
+
+    public void apply(InfoflowAndroidConfiguration config) {
+        config.setStaticFieldTrackingMode(staticFieldMode);
+        config.setEnableReflection(reflection);
+        config.getAccessPathConfiguration().setAccessPathLength(accessPathLength);
+        config.setAliasingAlgorithm(aliasing);
+        config.setFlowSensitiveAliasing(aliasing == InfoflowConfiguration.AliasingAlgorithm.FlowSensitive);
+
+        config.getCallbackConfig().setCallbackAnalyzer(callbackAnalyzer);
+        config.getCallbackConfig().setMaxCallbacksPerComponent(maxCallbacksPerComponent);
+        config.getCallbackConfig().setMaxAnalysisCallbackDepth(maxCallbackDepth);
+    }
+
+    /**
+     * @param name preset name (fast | balanced | precise), case-insensitive
+     * @return the preset, or null if unknown
+     */
+    public static AnalysisProfile parse(String name) {
+        for (AnalysisProfile profile : values()) {
+            if (profile.name().equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+}
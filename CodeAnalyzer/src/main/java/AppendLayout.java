@@ -26,14 +26,19 @@ public class AppendLayout {
     ArrayList<String> cypherList;
     private String currentFile;
 
-    private final Set<GNode> layoutNodeSet;
-    private final Set<GEdge> layoutEdgeSet;
+    private final GraphBuilder graph;
+    // view id (upper case, without "android:") -> uuid of the last view with it
+    private final Map<String, Long> viewUuids;
 
     private final Map<String, String> idToText;
     private final Map<String, String> nameToText;
     private final Map<String, Integer> control2Num;
 
-    public AppendLayout(String rootPath, Object[] arsc) throws IOException {
+    /**
+     * @param graph builder the layout nodes and edges are added to
+     */
+    public AppendLayout(String rootPath, Object[] arsc, GraphBuilder graph) throws IOException {
+        this.graph = graph;
         this.rootPath = rootPath;
         this.layoutPath = Paths.get(rootPath, "layout").toAbsolutePath().toString();
 
@@ -41,8 +46,7 @@ public class AppendLayout {
             layoutFiles = pathStream.filter((s) -> s.toString().endsWith(".xml")).collect(Collectors.toList());
         }
         cypherList = new ArrayList<>();
-        layoutEdgeSet = new HashSet<>();
-        layoutNodeSet = new HashSet<>();
+        viewUuids = new HashMap<>();
         idToText = new HashMap<>();
         nameToText = new HashMap<>();
         control2Num = new HashMap<>();
@@ -93,19 +97,18 @@ public class AppendLayout {
         }
     }
 
-    private void walkXMLNodes(Element element, int parentUUId) {
+    private void walkXMLNodes(Element element, long parentUUId) {
         String name = element.getName();
-        String type;
+        GNode.ApkNodeLabels type;
         String id = null;
-        String text;
+        String text = null;
+        String layout = null;
         String xmlName = currentFile.replace(this.layoutPath, "").
                 substring(1).replace(File.separator, ":");
-        if (name.toLowerCase().endsWith("layout") ||
-            name.toLowerCase().endsWith("container")) {
-            type = GNode.ApkNodeLabels.CONTAINER.toString();
+        type = GNode.getUiType(name);
+        if (type == GNode.ApkNodeLabels.CONTAINER) {
             containerNum ++;
         } else {
-            type = GNode.ApkNodeLabels.CONTROL.toString();
             controlNum ++;
         }
 
@@ -122,34 +125,29 @@ public class AppendLayout {
         // to avoid same uuid values for controls without id in one xml
         // note that the same id can occur >1 times in one xml
         String salt = control2Num.get(name) + id;
-        GNode gNode = new GNode(name, type, xmlName + salt);
-        gNode.addAttribute("id", id);
-        gNode.addAttribute("xml", xmlName);
+        long uuid = GNode.uiUuid(name, xmlName + salt);
 
         Attribute attrText = element.attribute("text");
         if (attrText != null) {
             text = getText(attrText.getValue());
             text = text.replace("\"","\\\"");
             text = text.replace("\n","\\n");
-            gNode.addAttribute("text", text);
             textNum++;
         }
         if (name.equalsIgnoreCase("include")) {
             Attribute attrLayout = element.attribute("layout");
             if (attrLayout != null) {
-                String layout = attrLayout.getValue();
-                gNode.addAttribute("layout", layout);
+                layout = attrLayout.getValue();
             }
         }
+        graph.addNode(uuid, name, type, null, xmlName, id, text, layout);
+        if (id != null) {
+            viewUuids.put(id.replace("android:", "").toUpperCase(), uuid);
+        }
 
-        layoutNodeSet.add(gNode);
-
-        int uuid = gNode.getUuid();
         // add an edge between current element and its parent
         if (parentUUId != 0) {
-            layoutEdgeSet.add(new GEdge(
-                    new GNode(parentUUId), new GNode(uuid),
-                    GEdge.ApkRelationships.HOLD.toString()));
+            graph.addEdge(parentUUId, uuid, GEdge.ApkRelationships.HOLD);
             edgeNum ++;
         }
 
@@ -201,11 +199,7 @@ public class AppendLayout {
         return containerNum + controlNum;
     }
 
-    public Set<GNode> getLayoutNodeSet() {
-        return layoutNodeSet;
-    }
-
-    public Set<GEdge> getLayoutEdgeSet() {
-        return layoutEdgeSet;
+    public Map<String, Long> getViewUuids() {
+        return viewUuids;
     }
 }
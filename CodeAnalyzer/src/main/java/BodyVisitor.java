@@ -0,0 +1,114 @@
+import soot.Body;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.Stmt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Walk the body of each method once, and hand each statement to all the
+ * analyzers registered, in the order they were registered. An analyzer keeps
+ * what it finds in a method in its own visit, which is closed when the walk
+ * leaves the method. Methods are walked in parallel: visits add to shared
+ * state only through concurrent maps, and what depends on the order of the
+ * methods is merged in commit(), which is called in the order of the methods
+ */
+public class BodyVisitor {
+    interface Analyzer {
+        /**
+         * @return the visit of the method, null to skip it
+         */
+        MethodVisit enter(SootMethod method);
+    }
+
+    interface MethodVisit {
+        void visit(Stmt stmt);
+
+        /**
+         * Called after the last statement, in the order of the analyzers.
+         * Visits of other methods may run at the same time
+         */
+        default void exit() {
+        }
+
+        /**
+         * Called once all methods are visited, one visit at a time, in the
+         * order a single thread would have visited them
+         */
+        default void commit() {
+        }
+    }
+
+    private final Logger log;
+    private final int threadNum;
+    private final List<Analyzer> analyzers = new ArrayList<>();
+
+    public BodyVisitor(Logger logger, int threadNum) {
+        log = logger;
+        this.threadNum = threadNum;
+    }
+
+    public void register(Analyzer analyzer) {
+        analyzers.add(analyzer);
+    }
+
+    public void run(Iterable<SootClass> classes) {
+        long start = System.currentTimeMillis();
+        List<SootMethod> methods = new ArrayList<>();
+        for (SootClass klass : classes) {
+            for (SootMethod method : new ArrayList<>(klass.getMethods())) {
+                if (method.hasActiveBody()) methods.add(method);
+            }
+        }
+        if (threadNum > 1) {
+            // resolving a method or field ref may add a phantom member to its
+            // class, which soot does not guard, so the refs are resolved here
+            for (SootMethod method : methods) resolveRefs(method.getActiveBody());
+        }
+        MethodVisit[][] visits = new MethodVisit[methods.size()][];
+        Util.forEachParallel(methods.size(), threadNum, i -> visits[i] = visit(methods.get(i)));
+        int methodNum = 0;
+        for (int i = 0; i < visits.length; i++) {
+            if (visits[i] == null) continue;
+            methodNum++;
+            for (MethodVisit visit : visits[i]) visit.commit();
+            visits[i] = null;
+        }
+        log.info(String.format("%d methods visited by %d analyzers in %d ms", methodNum,
+                analyzers.size(), System.currentTimeMillis() - start));
+    }
+
+    private static void resolveRefs(Body body) {
+        for (Unit unit : body.getUnits()) {
+            Stmt s = (Stmt) unit;
+            try {
+                if (s.containsInvokeExpr()) s.getInvokeExpr().getMethod();
+                if (s.containsFieldRef()) s.getFieldRef().getField();
+            } catch (RuntimeException ignored) {
+                // thrown again to the analyzer resolving it, as on one thread
+            }
+        }
+    }
+
+    /**
+     * @return the visits of the method, null if all analyzers skip it
+     */
+    private MethodVisit[] visit(SootMethod method) {
+        List<MethodVisit> visits = new ArrayList<>(analyzers.size());
+        for (Analyzer analyzer : analyzers) {
+            MethodVisit visit = analyzer.enter(method);
+            if (visit != null) visits.add(visit);
+        }
+        if (visits.isEmpty()) return null;
+        Body body = method.getActiveBody();
+        for (Unit unit : body.getUnits()) {
+            Stmt s = (Stmt) unit;
+            for (MethodVisit visit : visits) visit.visit(s);
+        }
+        for (MethodVisit visit : visits) visit.exit();
+        return visits.toArray(new MethodVisit[0]);
+    }
+}
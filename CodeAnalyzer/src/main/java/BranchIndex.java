@@ -0,0 +1,76 @@
+import soot.Body;
+import soot.Unit;
+import soot.UnitPatchingChain;
+import soot.Value;
+import soot.jimple.ConditionExpr;
+import soot.jimple.IfStmt;
+import soot.jimple.IntConstant;
+import soot.jimple.LookupSwitchStmt;
+
+import java.util.*;
+
+/**
+ * The branch blocks of a method by the int constant leading to them, to
+ * tell the units run for a view id (e.g., onClick switching on v.getId()).
+ * A switch case block runs from the case target to the target of another
+ * case (or the default) of the switch; an if block runs from the if target
+ * to the target of any if. Blocks of the same constant are merged, as a
+ * method may have several switches on the same ids. Built once per method,
+ * then each view id is a lookup
+ */
+public class BranchIndex {
+    private final Map<Integer, Set<Unit>> blocks = new HashMap<>();
+
+    public BranchIndex(Body body) {
+        UnitPatchingChain units = body.getUnits();
+        Set<Unit> ifTargets = new HashSet<>();
+        List<IfStmt> ifs = new ArrayList<>();
+        for (Unit unit : units) {
+            // id is usually not continuous, so we do not consider table switch
+            if (unit instanceof LookupSwitchStmt) {
+                LookupSwitchStmt s = (LookupSwitchStmt) unit;
+                Set<Unit> caseTargets = new HashSet<>(s.getTargets());
+                // or the last case runs on into the default one
+                caseTargets.add(s.getDefaultTarget());
+                List<IntConstant> lookupValues = s.getLookupValues();
+                for (int i = 0; i < lookupValues.size(); i++) {
+                    addBlock(lookupValues.get(i).value, s.getTarget(i), units, caseTargets);
+                }
+            } else if (unit instanceof IfStmt) {
+                ifs.add((IfStmt) unit);
+                ifTargets.add(((IfStmt) unit).getTarget());
+            }
+        }
+        for (IfStmt s : ifs) {
+            Value condition = s.getCondition();
+            if (!(condition instanceof ConditionExpr)) continue;
+            for (Value op : Arrays.asList(((ConditionExpr) condition).getOp1(), ((ConditionExpr) condition).getOp2())) {
+                if (op instanceof IntConstant) {
+                    addBlock(((IntConstant) op).value, s.getTarget(), units, ifTargets);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param uid view id in decimal
+     * @return units of the blocks the id leads to, empty if none
+     */
+    public Set<Unit> getBlock(String uid) {
+        try {
+            return blocks.getOrDefault(Integer.parseInt(uid), Collections.emptySet());
+        } catch (NumberFormatException e) {
+            return Collections.emptySet();
+        }
+    }
+
+    private void addBlock(int value, Unit target, UnitPatchingChain units, Set<Unit> stops) {
+        Set<Unit> block = blocks.computeIfAbsent(value, k -> new LinkedHashSet<>());
+        block.add(target);
+        // exit when no succeed unit or enter other blocks
+        for (Unit next = units.getSuccOf(target); next != null && !stops.contains(next);
+             next = units.getSuccOf(next)) {
+            block.add(next);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+import soot.util.queue.QueueReader;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A compact copy of what the linking stages need from cg construction:
+ * the cg edges, the application classes, and the methods that have bodies.
+ * Bodies are not stored, they are rebuilt from the dex on reuse, which
+ * gives the same jimple and is much cheaper than rebuilding the cg
+ */
+public class CGSnapshot {
+    static final String FILE_NAME = "cg.snap";
+    private static final int MAGIC = 0x55434347;
+    private static final int VERSION = 2;
+
+    String dexHash;
+    // options of the cg stage, used to decide whether the snapshot fits a run
+    final Map<String, String> options = new TreeMap<>();
+    String algoUsed;
+    // method signatures, edges refer to their index
+    final List<String> methods = new ArrayList<>();
+    int edgeNum;
+    int[] edgeSrc;
+    int[] edgeTgt;
+    final List<String> appClasses = new ArrayList<>();
+    final List<String> bodyMethods = new ArrayList<>();
+
+    public static CGSnapshot fromScene(CallGraph cg, String dexHash, Map<String, String> options,
+                                       String algoUsed) {
+        CGSnapshot snapshot = new CGSnapshot();
+        snapshot.dexHash = dexHash;
+        snapshot.options.putAll(options);
+        snapshot.algoUsed = algoUsed;
+        snapshot.edgeSrc = new int[Math.max(cg.size(), 16)];
+        snapshot.edgeTgt = new int[snapshot.edgeSrc.length];
+        // soot methods are unique objects, so they are interned by identity
+        Map<SootMethod, Integer> methodIds = new IdentityHashMap<>();
+        QueueReader<Edge> edges = cg.listener();
+        while (edges.hasNext()) {
+            Edge edge = edges.next();
+            snapshot.addEdge(snapshot.intern(edge.src(), methodIds),
+                    snapshot.intern(edge.tgt(), methodIds));
+        }
+        for (SootClass klass : Scene.v().getApplicationClasses()) {
+            snapshot.appClasses.add(klass.getName());
+            for (SootMethod method : klass.getMethods()) {
+                if (method.hasActiveBody()) {
+                    snapshot.bodyMethods.add(method.getSignature());
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * The signature is only rendered the first time a method is seen
+     */
+    private int intern(SootMethod method, Map<SootMethod, Integer> methodIds) {
+        Integer id = methodIds.get(method);
+        if (id == null) {
+            id = methods.size();
+            methods.add(method.getSignature());
+            methodIds.put(method, id);
+        }
+        return id;
+    }
+
+    private void addEdge(int src, int tgt) {
+        if (edgeNum == edgeSrc.length) {
+            edgeSrc = Arrays.copyOf(edgeSrc, edgeNum * 2);
+            edgeTgt = Arrays.copyOf(edgeTgt, edgeNum * 2);
+        }
+        edgeSrc[edgeNum] = src;
+        edgeTgt[edgeNum] = tgt;
+        edgeNum++;
+    }
+
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(dexHash);
+            out.writeInt(options.size());
+            for (Map.Entry<String, String> option : options.entrySet()) {
+                out.writeUTF(option.getKey());
+                out.writeUTF(option.getValue());
+            }
+            out.writeUTF(algoUsed);
+            writeStrings(out, methods);
+            out.writeInt(edgeNum);
+            for (int i = 0; i < edgeNum; i++) {
+                out.writeInt(edgeSrc[i]);
+                out.writeInt(edgeTgt[i]);
+            }
+            writeStrings(out, appClasses);
+            writeStrings(out, bodyMethods);
+        }
+        // never leave a half-written snapshot behind
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("cannot move snapshot to " + file);
+        }
+    }
+
+    /**
+     * @return the snapshot, or null if the file is missing or not readable
+     */
+    public static CGSnapshot load(File file) {
+        if (!file.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            CGSnapshot snapshot = new CGSnapshot();
+            snapshot.dexHash = in.readUTF();
+            int optionNum = in.readInt();
+            for (int i = 0; i < optionNum; i++) {
+                snapshot.options.put(in.readUTF(), in.readUTF());
+            }
+            snapshot.algoUsed = in.readUTF();
+            readStrings(in, snapshot.methods);
+            snapshot.edgeNum = in.readInt();
+            snapshot.edgeSrc = new int[snapshot.edgeNum];
+            snapshot.edgeTgt = new int[snapshot.edgeNum];
+            for (int i = 0; i < snapshot.edgeNum; i++) {
+                snapshot.edgeSrc[i] = in.readInt();
+                snapshot.edgeTgt[i] = in.readInt();
+            }
+            readStrings(in, snapshot.appClasses);
+            readStrings(in, snapshot.bodyMethods);
+            return snapshot;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param options options of the cg stage of the run
+     */
+    public boolean fits(String dexHash, Map<String, String> options) {
+        return Objects.equals(this.dexHash, dexHash) && this.options.equals(options);
+    }
+
+    /**
+     * Restore the application classes, and rebuild the bodies the linking
+     * stages read. Soot must be configured for the same apk before
+     * @param threadNum threads to rebuild the bodies
+     * @return number of bodies that cannot be rebuilt
+     */
+    public int restoreScene(int threadNum) {
+        Set<String> appClassSet = new HashSet<>(appClasses);
+        for (SootClass klass : new ArrayList<>(Scene.v().getApplicationClasses())) {
+            if (!appClassSet.contains(klass.getName())) {
+                klass.setLibraryClass();
+            }
+        }
+        for (String name : appClasses) {
+            SootClass klass = Scene.v().getSootClassUnsafe(name, false);
+            if (klass != null && !klass.isApplicationClass() && !klass.isPhantom()) {
+                klass.setApplicationClass();
+            }
+        }
+        int missing = 0;
+        List<SootMethod> methods = new ArrayList<>();
+        for (String signature : bodyMethods) {
+            SootMethod method = Scene.v().grabMethod(signature);
+            if (method == null || !method.isConcrete()) {
+                missing++;
+            } else {
+                methods.add(method);
+            }
+        }
+        return missing + Util.retrieveBodies(methods, threadNum);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static void readStrings(DataInputStream in, List<String> strings) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            strings.add(in.readUTF());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Run call graph construction under a wall-clock and heap budget.
+ * Soot (spark in particular) does not check for interrupts, and flowdroid
+ * runs threads of its own, so the cg is built by a child jvm, which is
+ * killed with all its threads when over time. The heap budget is the max
+ * heap of the child, which exits when it runs out of memory. It is always
+ * given, or a worker and its child could use twice the heap of the worker
+ */
+public class CallGraphBudget {
+    // exit code of a jvm with -XX:+ExitOnOutOfMemoryError
+    private static final int EXIT_OUT_OF_MEMORY = 3;
+    private final Logger log;
+    private final long timeLimit;
+    private final long heapLimit;
+    private String reason;
+
+    /**
+     * @param timeLimitMin wall-clock budget in minutes, 0 for no limit
+     * @param heapLimitMB heap budget in MB, 0 to build the cg in this jvm
+     */
+    public CallGraphBudget(Logger log, int timeLimitMin, int heapLimitMB) {
+        this.log = log;
+        this.timeLimit = timeLimitMin * 60_000L;
+        this.heapLimit = heapLimitMB * 1024L * 1024L;
+    }
+
+    public boolean isEnabled() {
+        return heapLimit > 0;
+    }
+
+    /**
+     * Run the main class in a child jvm with the class path of this one,
+     * and watch it. Its output goes to the output of this jvm
+     * @param args arguments of the main class
+     * @return true if the child exits normally within the budget
+     */
+    public boolean run(String mainClass, List<String> args) {
+        reason = null;
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add(String.format("-Xmx%dm", heapLimit >> 20));
+        command.add("-XX:+ExitOnOutOfMemoryError");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        command.addAll(args);
+        Process child;
+        try {
+            child = new ProcessBuilder(command).inheritIO().start();
+        } catch (IOException e) {
+            reason = "cannot start the child jvm: " + e.getMessage();
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            if (timeLimit > 0 && !child.waitFor(timeLimit, TimeUnit.MILLISECONDS)) {
+                reason = String.format("time %d s > %d s",
+                        (System.currentTimeMillis() - start) / 1000, timeLimit / 1000);
+                log.warning("cancel cg construction: " + reason);
+                return false;
+            }
+            int code = child.waitFor();
+            if (code == EXIT_OUT_OF_MEMORY) {
+                reason = String.format("heap > %d MB", heapLimit >> 20);
+            } else if (code != 0) {
+                reason = "child jvm exits with " + code;
+            }
+            return reason == null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            if (child.isAlive()) {
+                child.destroyForcibly();
+                try {
+                    child.waitFor();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    public String getReason() {
+        return reason;
+    }
+}
@@ -1,29 +1,35 @@
 import com.alibaba.fastjson2.JSON;
 import scala.Tuple2;
+import scala.Tuple3;
 import scala.Tuple4;
 import soot.*;
 import soot.jimple.*;
 import soot.jimple.internal.JAssignStmt;
-import soot.jimple.internal.JLookupSwitchStmt;
 import soot.util.Chain;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
-public class CodeParser {
+public class CodeParser implements BodyVisitor.Analyzer {
     static Logger log;
-    private HashMap<String, Set<String>> findEdges;
-    private HashMap<String, Set<String>> useEdges;
+    // methods are parsed in parallel, so links are added to concurrent maps
+    private final ConcurrentMultimap<String, String> findEdges;
+    private final ConcurrentMultimap<String, String> useEdges;
     // ui_id@xml: class, method, type, value
-    private Map<String, Tuple4<String, String, String, String>> hardcodeStrings;
-    private Map<String, Set<Tuple2<String, String>>> switchEdges;
-    private Map<String, Set<Tuple2<String, String>>> threadEdges;
+    private final Map<String, Tuple4<String, String, String, String>> hardcodeStrings;
+    private ConcurrentMultimap<String, Tuple2<String, String>> switchEdges;
+    private ConcurrentMultimap<String, Tuple2<String, String>> threadEdges;
+    // handler method -> its branch blocks, while parsing handlers
+    private Map<SootMethod, BranchIndex> branchIndexes;
+    // handler method -> its def-use index, while parsing handlers
+    private Map<SootMethod, DefUseIndex> defUses;
     private final Chain<SootClass> appClasses;
     // Class: Set(idHex, fieldName)
-    private Map<String, Set<Tuple2<String, String>>> class2IdName;
+    private final ConcurrentMultimap<String, Tuple2<String, String>> class2IdName;
     private List<UIContext.ArscObj> arscArray;
     private final String arscJsonPath;
 
@@ -32,6 +38,10 @@ public class CodeParser {
         log = logger;
         this.appClasses = appClasses;
         this.arscJsonPath = arscJsonPath;
+        findEdges = new ConcurrentMultimap<>();
+        useEdges = new ConcurrentMultimap<>();
+        hardcodeStrings = new HashMap<>();
+        class2IdName = new ConcurrentMultimap<>();
     }
 
     private static final String LINK_FIELD = "field";
@@ -40,23 +50,46 @@ public class CodeParser {
     static final String THREAD_INIT_PREFIX = "<java.lang.Thread: void <init>(";
     static final String CLASS_RUNNABLE = "java.lang.Runnable";
     static final String CLASS_THREAD = "java.lang.Thread";
+    private static final String SET_TITLE_API = "setTitle";
+    private static final String SET_TEXT_API = "setText";
+    private static final String SET_HINT_API = "setHint";
 
     /**
-     * Identify UI id in a soot method, then search for the name
-     * of the corresponding local field, helping to build use edges
-     * @param method Soot method
+     * Read the ui-code links of a method in a BodyVisitor walk: the view ids
+     * found and the fields holding them, then the strings set on views
      */
-    @SuppressWarnings("SpellCheckingInspection")
-    public void getIdNameInMethod(SootMethod method) {
-        List<Tuple4<String, String, String, String>> mapIdNameClass = new ArrayList<>();
-        Body body = method.getActiveBody();
-        if (body == null) {
-            return;
+    @Override
+    public BodyVisitor.MethodVisit enter(SootMethod method) {
+        // filter out native API
+        // isJavaLibraryMethod: java, javax, sun
+        if (method.isJavaLibraryMethod()) return null;
+        // we do not dive into android api calls either
+        String className = method.getDeclaringClass().getName();
+        if (className.startsWith("android.") || className.startsWith("androidx.")) return null;
+        log.finest(String.format("method class: %s", className));
+        return new MethodLinks(method);
+    }
+
+    private class MethodLinks implements BodyVisitor.MethodVisit {
+        private final SootMethod method;
+        private final List<Tuple4<String, String, String, String>> mapIdNameClass = new ArrayList<>();
+        private Value currentVarName;
+        private String idDeg;
+        // set text calls, and the strings read from them
+        private final List<Unit> textUnits = new ArrayList<>();
+        private final List<TextSet> texts = new ArrayList<>();
+
+        MethodLinks(SootMethod method) {
+            this.method = method;
         }
-        Value currentVarName = null;
-        String idDeg = null;
-        for (Unit unit : body.getUnits()) {
-            Stmt s = (Stmt) unit;
+
+        /**
+         * Identify UI id in a soot method, then search for the name
+         * of the corresponding local field, helping to build use edges
+         */
+        @Override
+        @SuppressWarnings("SpellCheckingInspection")
+        public void visit(Stmt s) {
             if (s.containsInvokeExpr()) {
                 InvokeExpr invokeExpr = s.getInvokeExpr();
                 String methodName = invokeExpr.getMethod().getName();
@@ -91,12 +124,15 @@ public class CodeParser {
                     } else {
                         log.fine("no def box in: " + s);
                     }
+                } else if (methodName.equals(SET_TEXT_API) || methodName.equals(SET_TITLE_API)
+                        || methodName.equals(SET_HINT_API)) {
+                    textUnits.add(s);
                 }
             } else {
                 if (currentVarName != null) {
                     if (!(s instanceof JAssignStmt)) {
                         log.fine("not assign statement!");
-                        continue;
+                        return;
                     }
                     List<ValueBox> useBoxes = ((JAssignStmt) s).getUseBoxes();
                     // we get the last box considering the type cast case like
@@ -133,143 +169,153 @@ public class CodeParser {
             }
         }
 
-        for (Tuple4<String, String, String, String> item: mapIdNameClass) {
-            String idHex = item._1();
-            String varName = item._2();
-            String jimpleClass = item._3();
-            String type = item._4();
-
-            if (type.equals(LINK_FIELD)) {
-                /* TODO: complex field ref like
-                   String trim = MainActivity.AnonymousClass100000027.
-                     access$0(r22).edit1.getText().toString().trim() */
-                Tuple2<String, String> tuple = new Tuple2<>(idHex, varName);
-                if (!class2IdName.containsKey(jimpleClass)) {
-                    class2IdName.put(jimpleClass, Collections.singleton(tuple));
-                } else {
-                    Set<Tuple2<String, String>> tmp = new HashSet<>(class2IdName.get(jimpleClass));
-                    tmp.add(tuple);
-                    class2IdName.remove(jimpleClass);
-                    class2IdName.put(jimpleClass, tmp);
+        @Override
+        public void exit() {
+            // the fields are added in commit()
+            for (Tuple4<String, String, String, String> item: mapIdNameClass) {
+                // save find edge
+                if (item._4().equals(LINK_FIND)) {
+                    findEdges.put(item._1(), method.toString());
                 }
             }
 
-            // save find edge
-            else if (type.equals(LINK_FIND)) {
-                if (!findEdges.containsKey(idHex)) {
-                    findEdges.put(idHex, Collections.singleton(method.toString()));
-                } else {
-                    Set<String> tmp = new HashSet<>(findEdges.get(idHex));
-                    tmp.add(method.toString());
-                    findEdges.remove(idHex);
-                    findEdges.put(idHex, tmp);
+            if (!mapIdNameClass.isEmpty()) {
+                log.fine(String.format("T in %s (size: %d): %s",
+                        method.getName(), mapIdNameClass.size(),
+                        Arrays.toString(mapIdNameClass.toArray())));
+            }
+
+            // and extract string values for UIs
+            if (textUnits.isEmpty()) return;
+            MethodHelper methodHelper = new MethodHelper(log, method);
+            for (Unit unit : textUnits) {
+                TextSet text = extractString(methodHelper, method, unit);
+                if (text != null) texts.add(text);
+            }
+            textUnits.clear();
+        }
+
+        /**
+         * Add the fields of the method, then turn field names into view ids
+         * with the fields of this method and the ones before, as a single
+         * thread would have them
+         */
+        @Override
+        public void commit() {
+            for (Tuple4<String, String, String, String> item: mapIdNameClass) {
+                if (item._4().equals(LINK_FIELD)) {
+                    /* TODO: complex field ref like
+                       String trim = MainActivity.AnonymousClass100000027.
+                         access$0(r22).edit1.getText().toString().trim() */
+                    class2IdName.put(item._3(), new Tuple2<>(item._1(), item._2()));
+                }
+            }
+            String className = method.getDeclaringClass().toString();
+            for (TextSet text : texts) {
+                String ui = text.ui;
+                if (!ui.chars().allMatch(Character::isDigit)) {
+                    // if is a field name, we should turn it to numeric id
+                    Set<Tuple2<String, String>> tuple2s = class2IdName.get(className);
+                    if (tuple2s == null) {
+                        log.fine("tuple is null");
+                        continue;
+                    }
+                    for (Tuple2<String, String> tuple2 : tuple2s) {
+                        String id = tuple2._1();
+                        String name = tuple2._2();
+                        if (ui.equals(name)) {
+                            ui = id;
+                            break;
+                        }
+                    }
                 }
+                // ui_id@xml: class, method, type, value
+                hardcodeStrings.put(String.format("%s@%s", ui, text.xml), new Tuple4<>(
+                        className, method.getName(), text.api, text.text));
             }
         }
+    }
 
-        if (!mapIdNameClass.isEmpty()) {
-            log.fine(String.format("T in %s (size: %d): %s",
-                    method.getName(), mapIdNameClass.size(),
-                    Arrays.toString(mapIdNameClass.toArray())));
+    /**
+     * A string set on a view, the view may be a field name
+     */
+    private static class TextSet {
+        final String ui;
+        final String xml;
+        final String api;
+        final String text;
+
+        TextSet(String ui, String xml, String api, String text) {
+            this.ui = ui;
+            this.xml = xml;
+            this.api = api;
+            this.text = text;
         }
     }
 
+    /**
+     * @return the string set by a set text call, null if unresolved
+     */
     @SuppressWarnings("SpellCheckingInspection")
-    public void extractStrings(SootMethod method) {
+    private TextSet extractString(MethodHelper methodHelper, SootMethod method, Unit unit) {
         /* we need to go backwards to match a string to UI
         * $r11 = staticinvoke <android.text.Html: android.text.Spanned fromHtml(java.lang.String)>
         ("something.");
         *
         virtualinvoke $r8.<android.widget.TextView: void setText(java.lang.CharSequence)>($r11);
         * */
-        MethodHelper methodHelper = new MethodHelper(log, method);
         // unlike flowcog, we identify strings in each method instead of taking a
         // complete cfg as input (which increases the search space significantly)
-        if (methodHelper.isEmpty()) return;
-        for (Unit unit : methodHelper.getUnits()) {
-            Stmt s = (Stmt) unit;
-            if (s.containsInvokeExpr()) {
-                InvokeExpr invokeExpr = s.getInvokeExpr();
-                String methodName = invokeExpr.getMethod().getName();
-                String SET_TITLE_API = "setTitle";
-                String SET_TEXT_API = "setText";
-                String SET_HINT_API = "setHint";
-                if (methodName.equals(SET_TEXT_API) || methodName.equals(SET_TITLE_API)
-                    || methodName.equals(SET_HINT_API)) {
-                    log.finer(String.format("get string from: %s (class: %s, method: %s)",
-                            s, method.getDeclaringClass(), method.getName()));
-                    String ui = methodHelper.getUIIdFromUnit(unit);
-                    String xml = methodHelper.getXmlIdFromUnit(unit);
-                    if (ui == null) {
-                        log.fine("connot get the ui");
-                        continue;
-                    }
-                    if (xml == null) {
-                        log.fine("connot get the xml");
-                        continue;
-                    }
-                    if (!ui.chars().allMatch(Character::isDigit)) {
-                        // if is a field name, we should turn it to numeric id
-                        Set<Tuple2<String, String>> tuple2s =
-                                class2IdName.get(methodHelper.getClassName());
-                        if (tuple2s == null) {
-                            log.fine("tuple is null");
-                            continue;
-                        }
-                        for (Tuple2<String, String> tuple2 : tuple2s) {
-                            String id = tuple2._1();
-                            String name = tuple2._2();
-                            if (ui.equals(name)) {
-                                ui = id;
-                                break;
-                            }
-                        }
-                    }
+        Stmt s = (Stmt) unit;
+        InvokeExpr invokeExpr = s.getInvokeExpr();
+        String methodName = invokeExpr.getMethod().getName();
+        log.finer(String.format("get string from: %s (class: %s, method: %s)",
+                s, method.getDeclaringClass(), method.getName()));
+        String ui = methodHelper.getUIIdFromUnit(unit);
+        String xml = methodHelper.getXmlIdFromUnit(unit);
+        if (ui == null) {
+            log.fine("connot get the ui");
+            return null;
+        }
+        if (xml == null) {
+            log.fine("connot get the xml");
+            return null;
+        }
 
-                    if (invokeExpr.getMethod().getParameterCount() < 1) {
-                        log.fine("no parameter for set text APIs");
-                        continue;
-                    }
-                    // get the string value
-                    String text = null;
-                    String type = invokeExpr.getMethod().getParameterType(0).toString();
-                    Value arg = invokeExpr.getArg(0);
-                    if (type.equals("int")) {
-                        // string is given by an id
-                        String id;
-                        if (arg instanceof IntConstant) {
-                            id = String.valueOf(((IntConstant) arg).value);
-                        } else if (arg instanceof Local) {
-                            id = methodHelper.getIdFromUnit(unit, (Local) arg);
-                        } else {
-                            log.fine("arg is neither an int nor a local var");
-                            continue;
-                        }
-                        text = getStringFromId(id);
-                        if (text == null) {
-                            log.fine(String.format("unresolved text id: %s", id));
-                        }
-                    } else if (type.contains("String") || type.contains("Char")) {
-                        // string is directly given
-                        if (arg instanceof StringConstant) {
-                            text = ((StringConstant) arg).value;
-                        } else if (arg instanceof Local) {
-                            text = methodHelper.getStringFromUnit(unit, (Local) arg);
-                        }
-                    } else {
-                        log.fine(String.format("unknown arg type: %s", type));
-                    }
-                    if (text != null) {
-                        // ui_id@xml: class, method, type, value
-                        hardcodeStrings.put(String.format("%s@%s", ui, xml), new Tuple4<>(
-                                methodHelper.getClassName(),
-                                method.getName(),
-                                methodName,
-                                text));
-                    }
-                }
+        if (invokeExpr.getMethod().getParameterCount() < 1) {
+            log.fine("no parameter for set text APIs");
+            return null;
+        }
+        // get the string value
+        String text = null;
+        String type = invokeExpr.getMethod().getParameterType(0).toString();
+        Value arg = invokeExpr.getArg(0);
+        if (type.equals("int")) {
+            // string is given by an id
+            String id;
+            if (arg instanceof IntConstant) {
+                id = String.valueOf(((IntConstant) arg).value);
+            } else if (arg instanceof Local) {
+                id = methodHelper.getIdFromUnit(unit, (Local) arg);
+            } else {
+                log.fine("arg is neither an int nor a local var");
+                return null;
+            }
+            text = getStringFromId(id);
+            if (text == null) {
+                log.fine(String.format("unresolved text id: %s", id));
             }
+        } else if (type.contains("String") || type.contains("Char")) {
+            // string is directly given
+            if (arg instanceof StringConstant) {
+                text = ((StringConstant) arg).value;
+            } else if (arg instanceof Local) {
+                text = methodHelper.getStringFromUnit(unit, (Local) arg);
+            }
+        } else {
+            log.fine(String.format("unknown arg type: %s", type));
         }
+        return text == null ? null : new TextSet(ui, xml, methodName, text);
     }
 
     private String getStringFromId(String id) {
@@ -281,7 +327,7 @@ public class CodeParser {
         return null;
     }
 
-    private List<UIContext.ArscObj> getArscArray() {
+    private synchronized List<UIContext.ArscObj> getArscArray() {
         if (arscArray != null) {
             return arscArray;
         }
@@ -300,274 +346,148 @@ public class CodeParser {
         return arscArray;
     }
 
-    public void run() {
-        findEdges = new HashMap<>();
-        useEdges = new HashMap<>();
-        hardcodeStrings = new HashMap<>();
-        class2IdName = new HashMap<>();
+    /**
+     * Searching UI-code links in the app classes, for this parser alone. To
+     * share the walk with other analyzers, register it to a BodyVisitor instead
+     */
+    public void run(int threadNum) {
+        BodyVisitor visitor = new BodyVisitor(log, threadNum);
+        visitor.register(this);
+        visitor.run(appClasses);
+    }
 
-        // Searching UI-code links
-        for (SootClass sootClass: appClasses) {
-            List<SootMethod> sootMethods = sootClass.getMethods();
-            List<SootMethod> methods = new ArrayList<>(sootMethods);
-            for (SootMethod sootMethod : methods) {
-                log.finest(String.format(String.format("method class: %s (%s)",
-                        sootMethod.getDeclaringClass().getName(), sootMethod.hasActiveBody())));
-                // filter out native API
-                if (sootMethod.hasActiveBody() && !sootMethod.isJavaLibraryMethod()) {
-                    // isJavaLibraryMethod: java, javax, sun
-                    // we do not dive into android api calls either
-                    String className = sootMethod.getDeclaringClass().getName();
-                    if (className.startsWith("android.") ||
-                            className.startsWith("androidx.")) {
-                        continue;
+    /**
+     * Methods that read or write a field holding a view found in run()
+     */
+    public Set<SootMethod> getUiFieldMethods() {
+        Set<SootMethod> methods = new HashSet<>();
+        if (class2IdName.isEmpty()) return methods;
+        for (SootClass sootClass : appClasses) {
+            for (SootMethod sootMethod : sootClass.getMethods()) {
+                if (!sootMethod.hasActiveBody()) continue;
+                for (Unit unit : sootMethod.getActiveBody().getUnits()) {
+                    Stmt s = (Stmt) unit;
+                    if (!s.containsFieldRef()) continue;
+                    SootFieldRef ref = s.getFieldRef().getFieldRef();
+                    Set<Tuple2<String, String>> idNames = class2IdName.get(ref.declaringClass().getName());
+                    if (idNames == null) continue;
+                    for (Tuple2<String, String> idName : idNames) {
+                        if (idName._2().equals(ref.name())) {
+                            methods.add(sootMethod);
+                            break;
+                        }
                     }
-                    // extract R.id and name of UI object
-                    getIdNameInMethod(sootMethod);
-                    // and extract string values for UIs
-                    extractStrings(sootMethod);
                 }
             }
         }
+        return methods;
     }
 
-    public HashMap<String, Set<String>> getFindEdges() {
-        return findEdges;
+    /**
+     * The getters of links return sorted copies, taken after the passes
+     */
+    public Map<String, Set<String>> getFindEdges() {
+        return findEdges.toMap();
     }
 
-    public HashMap<String, Set<String>> getUseEdges() {
-        return useEdges;
+    public Map<String, Set<String>> getUseEdges() {
+        return useEdges.toMap();
     }
 
     public Map<String, Set<Tuple2<String, String>>> getThreadEdges() {
-        return threadEdges;
+        return threadEdges == null ? null : threadEdges.toMap();
     }
 
     public Map<String, Set<Tuple2<String, String>>> getSwitchEdges() {
-        return switchEdges;
+        return switchEdges == null ? null : switchEdges.toMap();
     }
 
+    /**
+     * Find the switch, thread and use links of event handlers, one handler
+     * at a time on each thread
+     * @param handlers xml -> view id -> event handlers, see EventAnalyzer.getHandlers()
+     */
     public void parseMethods(
-            Map<String, HashMap<String, HashSet<String>>> events) {
-        switchEdges = new HashMap<>();
-        threadEdges = new HashMap<>();
-        for (String xml : events.keySet()) {
-            HashMap<String, HashSet<String>> id2Handlers = events.get(xml);
+            Map<String, HashMap<String, HashSet<SootMethod>>> handlers, int threadNum) {
+        switchEdges = new ConcurrentMultimap<>();
+        threadEdges = new ConcurrentMultimap<>();
+        branchIndexes = new ConcurrentHashMap<>();
+        defUses = new ConcurrentHashMap<>();
+        List<Tuple3<String, String, SootMethod>> tasks = new ArrayList<>();
+        for (String xml : handlers.keySet()) {
+            HashMap<String, HashSet<SootMethod>> id2Handlers = handlers.get(xml);
             for (String uid : id2Handlers.keySet()) {
-                HashSet<String> handlers = id2Handlers.get(uid);
-                for (String handler : handlers) {
-                    handler = handler.substring(4, handler.length() - 4);
-                    String[] splits = handler.split(": ");
-                    String className = splits[0];
-                    String methodName = splits[1];
-                    SootClass klass = Scene.v().getSootClass(className);
-                    if (klass == null) {
-                        log.warning(String.format("cannot find soot class: %s", className));
-                        continue;
-                    }
-                    SootMethod method = klass.getMethodUnsafe(methodName);
-                    if (method == null) continue;
-                    if (!method.hasActiveBody()) continue;
-                    Set<Tuple2<String, String>> targetIdNames = class2IdName.get(className);
-                    if (targetIdNames == null) {
-                        targetIdNames = new HashSet<>();
-                    }
-                    Set<String> targetIds = new HashSet<>();
-                    for (Tuple2<String, String> tin : targetIdNames) {
-                        targetIds.add(tin._1());
-                    }
-                    Body body = method.getActiveBody();
-                    UnitPatchingChain units = body.getUnits();
-                    List<Unit> caseUnits = new ArrayList<>();
-                    Set<String> caseCalls = new HashSet<>();
-
-                    // identify ui-related switch blocks
-                    identifySwitch(uid, units, caseUnits);
-
-                    // identify ui-related if blocks
-                    identifyIf(uid, units, caseUnits);
-
-                    // add a use edge between a UI and the method which uses the UI
-                    if (caseUnits.isEmpty()) {
-                        // case 1: the method does not contain switch branches, or contains but no matters with UI
-                        for (Unit unit: units) {
-                            // handle thread
-                            String thread = threadParser(method, unit);
-                            if (thread != null) {
-                                String uidXml = uid + "$" + xml;
-                                Tuple2<String, String> threadEdge = new Tuple2<>(method.getSignature(), thread);
-                                if (!threadEdges.containsKey(uidXml)) {
-                                    threadEdges.put(uidXml, new HashSet<>(Collections.singleton(threadEdge)));
-                                } else {
-                                    Set<Tuple2<String, String>> tmp = threadEdges.get(uidXml);
-                                    tmp.add(threadEdge);
-                                    threadEdges.remove(uidXml);
-                                    threadEdges.put(uidXml, tmp);
-                                }
-                            }
-                            // the ui object may appear in both left op (e.g., set attributes)
-                            // and right op (e.g., get the object), so we simply detect ui name in string
-                            for (Tuple2<String, String> tuple: targetIdNames) {
-                                if (unit.toString().contains(String.format(" %s>", tuple._2()))) {
-                                    String id = tuple._1();
-                                    if (!useEdges.containsKey(id)) {
-                                        useEdges.put(id, new HashSet<>(Collections.singleton(method.getSignature())));
-                                    } else {
-                                        Set<String> tmp = useEdges.get(id);
-                                        tmp.add(method.getSignature());
-                                        useEdges.remove(id);
-                                        useEdges.put(id, tmp);
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        // case 2: the method contains switch branches, and the branches is related to UI
-                        for (Unit u : caseUnits) {
-                            // fill in case-call dict
-                            Set<String> calls = new HashSet<>();
-                            if (!((Stmt) u).containsInvokeExpr()) continue;
-                            calls.add(((Stmt) u).getInvokeExpr().toString());
-                            String thread = threadParser(method, u);
-                            if (thread != null) {
-                                String uidXml = uid + "$" + xml;
-                                Tuple2<String, String> threadEdge = new Tuple2<>(method.getSignature(), thread);
-                                if (!threadEdges.containsKey(uidXml)) {
-                                    threadEdges.put(uidXml, new HashSet<>(Collections.singleton(threadEdge)));
-                                } else {
-                                    Set<Tuple2<String, String>> tmp = threadEdges.get(uidXml);
-                                    tmp.add(threadEdge);
-                                    threadEdges.remove(uidXml);
-                                    threadEdges.put(uidXml, tmp);
-                                }
-                            }
-                            caseCalls.addAll(calls);
-                            // add use edges
-                            if (targetIds.contains(uid)) {
-                                if (!useEdges.containsKey(uid)) {
-                                    useEdges.put(uid, new HashSet<>(Collections.singleton(method.getSignature())));
-                                } else {
-                                    Set<String> tmp = useEdges.get(uid);
-                                    tmp.add(method.getSignature());
-                                    useEdges.remove(uid);
-                                    useEdges.put(uid, tmp);
-                                }
-                            }
-                        }
-                        // second, note down all the calls in each branches
-                        for (String call : caseCalls) {
-                            String uidXml = uid + "$" + xml;
-                            Tuple2<String, String> callEdge = new Tuple2<>(method.getSignature(), call);
-                            if (!switchEdges.containsKey(uidXml)) {
-                                switchEdges.put(uidXml, new HashSet<>(Collections.singleton(callEdge)));
-                            } else {
-                                Set<Tuple2<String, String>> tmp = switchEdges.get(uidXml);
-                                tmp.add(callEdge);
-                                switchEdges.remove(uidXml);
-                                switchEdges.put(uidXml, tmp);
-                            }
-                        }
-                    }
+                for (SootMethod method : id2Handlers.get(uid)) {
+                    if (method.hasActiveBody()) tasks.add(new Tuple3<>(xml, uid, method));
                 }
             }
         }
+        Util.forEachParallel(tasks.size(), threadNum,
+                i -> parseHandler(tasks.get(i)._1(), tasks.get(i)._2(), tasks.get(i)._3()));
+        branchIndexes = null;
+        defUses = null;
     }
 
-    private static void identifyIf(String uid, UnitPatchingChain units, List<Unit> caseUnits) {
-        ArrayList<Unit> targets = new ArrayList<>();
-        // first, identify all targets
-        for (Unit unit : units) {
-            Stmt s = (Stmt) unit;
-            if (!(s instanceof IfStmt)) continue;
-            targets.add(((IfStmt) s).getTarget());
+    private void parseHandler(String xml, String uid, SootMethod method) {
+        String className = method.getDeclaringClass().getName();
+        Set<Tuple2<String, String>> targetIdNames = class2IdName.get(className);
+        if (targetIdNames == null) {
+            targetIdNames = new HashSet<>();
         }
-
-        for (Unit unit : units) {
-            Stmt s = (Stmt) unit;
-            if (!(s instanceof IfStmt)) continue;
-            if(!(s.toString().contains(uid))) continue;
-            IfStmt ifs = (IfStmt) s;
-            Unit target = ifs.getTarget();
-            List<Unit> ifBlock = new ArrayList<>();
-            ifBlock.add(target);
-            log.finest("start target: " + target.toString());
-            Unit next = units.getSuccOf(target);
-            if (next != null) {
-                target = next;
-            }
-
-            // exit when no succeed call or enter other cases
-            while (!targets.contains(target)) {
-                if (target == null) {
-                    break;
-                }
-                log.finer(target.toString());
-                ifBlock.add(target);
-                target = units.getSuccOf(target);
-            }
-
-            // fill in the cases with units.
-            // note: there may be many switches with same lookup values (case ids) in one method
-            // hence we merge them together, make them indexed via case id
-            caseUnits.addAll(ifBlock);
+        Set<String> targetIds = new HashSet<>();
+        for (Tuple2<String, String> tin : targetIdNames) {
+            targetIds.add(tin._1());
         }
-    }
-
-    private static void identifySwitch(String uid, UnitPatchingChain units, List<Unit> caseUnits) {
-        for (Unit unit : units) {
-            Stmt s = (Stmt) unit;
-            // id is usually not continuous, so we do not consider table switch
-            if (s instanceof JLookupSwitchStmt) {
-                List<IntConstant> lookupValues = ((JLookupSwitchStmt) s).getLookupValues();
-                boolean hasUId = false;
-                for (IntConstant vh: lookupValues) {
-                    if (vh.toString().equals(uid)) {
-                        hasUId = true;
-                        break;
-                    }
+        // links are keyed by hex ids, while handlers by decimal ones
+        String uidHex = null;
+        try {
+            uidHex = String.format("%08x", Integer.parseInt(uid));
+        } catch (NumberFormatException ignored) {
+        }
+        Body body = method.getActiveBody();
+        UnitPatchingChain units = body.getUnits();
+        Set<String> caseCalls = new HashSet<>();
+        String uidXml = uid + "$" + xml;
+
+        // ui-related switch and if blocks, the index is shared by the ids of the method
+        Set<Unit> caseUnits = branchIndexes.computeIfAbsent(method, m -> new BranchIndex(body)).getBlock(uid);
+
+        // add a use edge between a UI and the method which uses the UI
+        if (caseUnits.isEmpty()) {
+            // case 1: the method does not contain switch branches, or contains but no matters with UI
+            for (Unit unit: units) {
+                // handle thread
+                String thread = threadParser(method, unit);
+                if (thread != null) {
+                    threadEdges.put(uidXml, new Tuple2<>(method.getSignature(), thread));
                 }
-
-                if (!hasUId) {
-                    // normal switch cases, not related to specific UIs (e.g., 0, 1, 2...)
-                    return;
+                // the ui object may appear in both left op (e.g., set attributes)
+                // and right op (e.g., get the object), so we simply detect ui name in string
+                for (Tuple2<String, String> tuple: targetIdNames) {
+                    if (unit.toString().contains(String.format(" %s>", tuple._2()))) {
+                        useEdges.put(tuple._1(), method.getSignature());
+                    }
                 }
-
-                ArrayList<Unit> targets = new ArrayList<>();
-
-                // we include all the calls in the case block
-                // hence, first note down the start stats of other cases
-                for (int i = 0; i < lookupValues.size(); i++) {
-                    targets.add(((JLookupSwitchStmt) s).getTarget(i));
+            }
+        } else {
+            // case 2: the method contains switch branches, and the branches is related to UI
+            for (Unit u : caseUnits) {
+                // fill in case-call dict
+                if (!((Stmt) u).containsInvokeExpr()) continue;
+                caseCalls.add(((Stmt) u).getInvokeExpr().toString());
+                String thread = threadParser(method, u);
+                if (thread != null) {
+                    threadEdges.put(uidXml, new Tuple2<>(method.getSignature(), thread));
                 }
-
-                for (int i = 0; i < lookupValues.size(); i++) {
-                    IntConstant lookupValue = lookupValues.get(i);
-                    if (!(lookupValue.toString().equals(uid))) continue;
-                    Unit target = ((JLookupSwitchStmt) s).getTarget(i);
-                    List<Unit> switchBlock = new ArrayList<>();
-                    switchBlock.add(target);
-                    log.finest("start target: " + target.toString());
-                    Unit next = units.getSuccOf(target);
-                    if (next != null) {
-                        target = next;
-                    }
-
-                    // exit when no succeed call or enter other cases
-                    while (!targets.contains(target)) {
-                        if (target == null) {
-                            break;
-                        }
-                        log.finer(target.toString());
-                        switchBlock.add(target);
-                        target = units.getSuccOf(target);
-                    }
-
-                    // fill in the cases with units.
-                    // note: there may be many switches with same lookup values (case ids) in one method
-                    // hence we merge them together, make them indexed via case id
-                    caseUnits.addAll(switchBlock);
+                // add use edges
+                if (uidHex != null && targetIds.contains(uidHex)) {
+                    useEdges.put(uidHex, method.getSignature());
                 }
             }
+            // second, note down all the calls in each branches
+            for (String call : caseCalls) {
+                switchEdges.put(uidXml, new Tuple2<>(method.getSignature(), call));
+            }
         }
     }
 
@@ -575,7 +495,7 @@ public class CodeParser {
         return hardcodeStrings;
     }
 
-    public String threadParser(SootMethod method, Unit unit) {
+    private String threadParser(SootMethod method, Unit unit) {
         Stmt s = (Stmt) unit;
         if (!(s.containsInvokeExpr())) return null;
         InvokeExpr ie = s.getInvokeExpr();
@@ -583,33 +503,26 @@ public class CodeParser {
         String subSig = callee.getSubSignature();
         if (!(subSig.startsWith(METHOD_START_PREFIX))) return null;
         Value thread = ie.getUseBoxes().get(0).getValue();
-        UnitPatchingChain units = method.getActiveBody().getUnits();
+        if (!(thread instanceof Local)) return null;
+        DefUseIndex index = defUses.computeIfAbsent(method, m -> new DefUseIndex(m.getActiveBody()));
         // case 1: <class xx: start()>
-        Unit last = units.getPredOf(unit);
-        while (last != null) {
-            Stmt ss = (Stmt) last;
-            if (ss instanceof AssignStmt) {
-                AssignStmt as = (AssignStmt) ss;
-                if (as.getLeftOp() == thread) {
-                    Value rightOp = as.getRightOp();
-                    if (rightOp instanceof NewExpr) {
-                        NewExpr newExpr = (NewExpr) rightOp;
-                        String className = newExpr.getBaseType().toString();
-                        if (!Objects.equals(className, CLASS_THREAD)) {
-                            String result = String.format("&lt;%s: void run()&gt;", className);
-                            log.fine(String.format("[thread] %s", result));
-                            return result;
-                        }
-                        break;
-                    }
+        for (Unit def : index.getDefs((Local) thread, unit)) {
+            if (!(def instanceof AssignStmt)) continue;
+            Value rightOp = ((AssignStmt) def).getRightOp();
+            if (rightOp instanceof NewExpr) {
+                NewExpr newExpr = (NewExpr) rightOp;
+                String className = newExpr.getBaseType().toString();
+                if (!Objects.equals(className, CLASS_THREAD)) {
+                    String result = String.format("&lt;%s: void run()&gt;", className);
+                    log.fine(String.format("[thread] %s", result));
+                    return result;
                 }
+                break;
             }
-            last = units.getPredOf(last);
         }
         // case 2: <Thread: start()> followed by <Thread: void <init>(java.lang.Runnable)>(xx)
-        last = units.getPredOf(unit);
-        while (last != null) {
-            Stmt ss = (Stmt) last;
+        for (Unit use : index.getUsesBefore((Local) thread, unit)) {
+            Stmt ss = (Stmt) use;
             if (ss.containsInvokeExpr()) {
                 InvokeExpr as = ss.getInvokeExpr();
                 if (as.getUseBoxes().get(0).getValue() == thread) {
@@ -621,6 +534,7 @@ public class CodeParser {
                             }
                             i += 1;
                         }
+                        if (i >= as.getArgCount()) return null;
                         Value arg = as.getArgs().get(i);
                         String className = arg.getType().toString();
                         String result = String.format("&lt;%s: void run()&gt;", className);
@@ -629,7 +543,6 @@ public class CodeParser {
                     }
                 }
             }
-            last = units.getPredOf(last);
         }
         return null;
     }
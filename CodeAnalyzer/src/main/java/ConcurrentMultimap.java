@@ -0,0 +1,54 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A map from keys to sets of values, which threads add to at the same time.
+ * Adding merges into the set of the key, so the content does not depend on
+ * the order of the threads. toMap() gives a sorted copy for output
+ */
+public class ConcurrentMultimap<K, V> {
+    private final ConcurrentHashMap<K, Set<V>> map = new ConcurrentHashMap<>();
+
+    public void put(K key, V value) {
+        map.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(value);
+    }
+
+    /**
+     * @return the values of the key, null if none
+     */
+    public Set<V> get(K key) {
+        return map.get(key);
+    }
+
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public Set<K> keySet() {
+        return map.keySet();
+    }
+
+    /**
+     * @return a copy with keys and values in the order of their strings, so
+     * that files written from it are the same across runs
+     */
+    public Map<K, Set<V>> toMap() {
+        List<K> keys = new ArrayList<>(map.keySet());
+        keys.sort(Comparator.comparing(String::valueOf));
+        Map<K, Set<V>> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            List<V> values = new ArrayList<>(map.get(key));
+            values.sort(Comparator.comparing(String::valueOf));
+            result.put(key, new LinkedHashSet<>(values));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.BitSet;
+
+/**
+ * An immutable graph in compressed sparse rows. The out edges of node n
+ * are [outBegin(n), outEnd(n)) in the forward arrays, and its in edges are
+ * [inBegin(n), inEnd(n)) in the reverse arrays. Nodes are the rows of the
+ * node table, edges are numbered by their position in the forward arrays
+ */
+public class CsrGraph {
+    private static final GEdge.ApkRelationships[] TYPES = GEdge.ApkRelationships.values();
+    private final NodeTable nodes;
+    private final int[] outOffsets;
+    private final int[] targets;
+    private final byte[] outTypes;
+    private final int[] inOffsets;
+    private final int[] sources;
+    private final byte[] inTypes;
+
+    /**
+     * @param src source row of each edge, only the first num are used
+     */
+    CsrGraph(NodeTable nodes, int[] src, int[] tgt, byte[] types, int num) {
+        this.nodes = nodes;
+        int n = nodes.size();
+        outOffsets = new int[n + 1];
+        inOffsets = new int[n + 1];
+        for (int e = 0; e < num; e++) {
+            outOffsets[src[e] + 1]++;
+            inOffsets[tgt[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            outOffsets[i + 1] += outOffsets[i];
+            inOffsets[i + 1] += inOffsets[i];
+        }
+        targets = new int[num];
+        outTypes = new byte[num];
+        sources = new int[num];
+        inTypes = new byte[num];
+        int[] outPos = outOffsets.clone();
+        int[] inPos = inOffsets.clone();
+        // stable, so the edges of a node keep the order they were added in
+        for (int e = 0; e < num; e++) {
+            int o = outPos[src[e]]++;
+            targets[o] = tgt[e];
+            outTypes[o] = types[e];
+            int r = inPos[tgt[e]]++;
+            sources[r] = src[e];
+            inTypes[r] = types[e];
+        }
+    }
+
+    /**
+     * @return the graph of the kept nodes and the edges between them, the
+     * nodes keep their order
+     */
+    public CsrGraph subgraph(BitSet keep) {
+        NodeTable kept = new NodeTable(keep.cardinality());
+        int[] newId = new int[getNodeNum()];
+        for (int node = 0; node < getNodeNum(); node++) {
+            newId[node] = keep.get(node) ? kept.addRow(nodes, node) : -1;
+        }
+        int[] src = new int[getEdgeNum()];
+        int[] tgt = new int[getEdgeNum()];
+        byte[] types = new byte[getEdgeNum()];
+        int num = 0;
+        for (int node = 0; node < getNodeNum(); node++) {
+            if (newId[node] < 0) continue;
+            for (int e = outBegin(node); e < outEnd(node); e++) {
+                if (newId[targets[e]] < 0) continue;
+                src[num] = newId[node];
+                tgt[num] = newId[targets[e]];
+                types[num] = outTypes[e];
+                num++;
+            }
+        }
+        return new CsrGraph(kept, src, tgt, types, num);
+    }
+
+    public NodeTable getNodes() {
+        return nodes;
+    }
+
+    public int getNodeNum() {
+        return nodes.size();
+    }
+
+    public int getEdgeNum() {
+        return targets.length;
+    }
+
+    public int outBegin(int node) {
+        return outOffsets[node];
+    }
+
+    public int outEnd(int node) {
+        return outOffsets[node + 1];
+    }
+
+    /**
+     * @param edge index in [outBegin(n), outEnd(n))
+     */
+    public int getTarget(int edge) {
+        return targets[edge];
+    }
+
+    public GEdge.ApkRelationships getType(int edge) {
+        return TYPES[outTypes[edge]];
+    }
+
+    public int inBegin(int node) {
+        return inOffsets[node];
+    }
+
+    public int inEnd(int node) {
+        return inOffsets[node + 1];
+    }
+
+    /**
+     * @param edge index in [inBegin(n), inEnd(n))
+     */
+    public int getSource(int edge) {
+        return sources[edge];
+    }
+
+    public GEdge.ApkRelationships getInType(int edge) {
+        return TYPES[inTypes[edge]];
+    }
+}
@@ -0,0 +1,121 @@
+import soot.Body;
+import soot.Local;
+import soot.Unit;
+import soot.ValueBox;
+import soot.jimple.AssignStmt;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+import soot.toolkits.scalar.LocalDefs;
+import soot.toolkits.scalar.SimpleLocalDefs;
+
+import java.util.*;
+
+/**
+ * Where the locals of a body are defined and used, to look up the value of
+ * a local at a unit without walking the units back to the start of the
+ * method. The definitions are the ones reaching the unit on the unit graph
+ * (soot's local defs), so a definition in another branch is not taken.
+ * An index is owned by the pass reading the body, and dropped with it, so
+ * it never outlives the body it was built on
+ */
+public class DefUseIndex {
+    // bound on the definitions followed for one value, as they can form cycles in loops
+    static final int MAX_HOPS = 64;
+    private final Body body;
+    private final Map<Unit, Integer> positions = new IdentityHashMap<>();
+    private final Unit[] units;
+    private LocalDefs defs;
+    // local -> positions of the units using it, in order
+    private Map<Local, int[]> uses;
+
+    public DefUseIndex(Body body) {
+        this.body = body;
+        units = body.getUnits().toArray(new Unit[0]);
+        for (int i = 0; i < units.length; i++) positions.put(units[i], i);
+    }
+
+    /**
+     * @return the definitions of the local reaching the unit, the nearest
+     * one before it first (definitions after it reach it through loops)
+     */
+    public List<Unit> getDefs(Local local, Unit at) {
+        List<Unit> result = new ArrayList<>(getLocalDefs().getDefsOfAt(local, at));
+        int position = positionOf(at);
+        result.sort(Comparator.comparingInt(def -> {
+            int p = positionOf(def);
+            return p < position ? position - p : p;
+        }));
+        return result;
+    }
+
+    /**
+     * @return the nearest assignment to the local reaching the unit, null if
+     * none (e.g., a parameter)
+     */
+    public AssignStmt getAssign(Local local, Unit at) {
+        for (Unit def : getDefs(local, at)) {
+            if (def instanceof AssignStmt) return (AssignStmt) def;
+        }
+        return null;
+    }
+
+    /**
+     * @return the units before the given one that use the local, the nearest first
+     */
+    public List<Unit> getUsesBefore(Local local, Unit at) {
+        int[] list = getUses().get(local);
+        if (list == null) return Collections.emptyList();
+        int end = insertionPoint(list, positionOf(at));
+        List<Unit> result = new ArrayList<>(end);
+        for (int i = end - 1; i >= 0; i--) result.add(units[list[i]]);
+        return result;
+    }
+
+    /**
+     * @return the units after the given one that use the local, the nearest first
+     */
+    public List<Unit> getUsesAfter(Local local, Unit at) {
+        int[] list = getUses().get(local);
+        if (list == null) return Collections.emptyList();
+        int begin = insertionPoint(list, positionOf(at) + 1);
+        List<Unit> result = new ArrayList<>(list.length - begin);
+        for (int i = begin; i < list.length; i++) result.add(units[list[i]]);
+        return result;
+    }
+
+    private int positionOf(Unit unit) {
+        Integer position = positions.get(unit);
+        if (position == null) throw new IllegalArgumentException("unit not in body: " + unit);
+        return position;
+    }
+
+    /**
+     * @return index of the first element not less than the key
+     */
+    private static int insertionPoint(int[] list, int key) {
+        int i = Arrays.binarySearch(list, key);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private synchronized LocalDefs getLocalDefs() {
+        if (defs == null) defs = new SimpleLocalDefs(new ExceptionalUnitGraph(body));
+        return defs;
+    }
+
+    private synchronized Map<Local, int[]> getUses() {
+        if (uses != null) return uses;
+        Map<Local, List<Integer>> lists = new HashMap<>();
+        for (int i = 0; i < units.length; i++) {
+            for (ValueBox box : units[i].getUseBoxes()) {
+                if (!(box.getValue() instanceof Local)) continue;
+                List<Integer> list = lists.computeIfAbsent((Local) box.getValue(), k -> new ArrayList<>());
+                // a unit using the local twice is listed once
+                if (list.isEmpty() || list.get(list.size() - 1) != i) list.add(i);
+            }
+        }
+        uses = new HashMap<>();
+        for (Map.Entry<Local, List<Integer>> entry : lists.entrySet()) {
+            uses.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return uses;
+    }
+}
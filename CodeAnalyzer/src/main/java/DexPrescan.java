@@ -0,0 +1,273 @@
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.ReferenceType;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Scan the dex code for ui wiring before soot is started. EventAnalyzer only
+ * finds events at listener registrations (see EventAnalyzer.reg2handler), so an
+ * app without any registration in its own classes has no event, and the cg
+ * built for it is wasted.
+ * On request, it also indexes the classes to find the ui-relevant ones
+ */
+public class DexPrescan {
+    private final String apk;
+    private final boolean buildIndex;
+    private final boolean hashClasses;
+    private int classNum;
+    private int registerNum;
+    private int layoutNum;
+    // all dex classes (including sdk ui ones) -> super class, interfaces
+    private final Map<String, List<String>> superTypes = new HashMap<>();
+    // dex classes referred by the code of a class (call, new, field, cast)
+    private final Map<String, Set<String>> classRefs = new HashMap<>();
+    // dex class -> number of instructions
+    private final Map<String, Integer> classSizes = new HashMap<>();
+    private final Set<String> uiSeeds = new HashSet<>();
+    // dex class -> hash of its code, for JimpleCache
+    private final Map<String, String> classHashes = new HashMap<>();
+
+    public DexPrescan(String apk) {
+        this(apk, false, false);
+    }
+
+    /**
+     * @param buildIndex index the classes for getUiClosure
+     * @param hashClasses hash the classes for JimpleCache
+     */
+    public DexPrescan(String apk, boolean buildIndex, boolean hashClasses) {
+        this.apk = apk;
+        this.buildIndex = buildIndex;
+        this.hashClasses = hashClasses;
+    }
+
+    public void run() throws IOException {
+        MultiDexContainer<? extends DexBackedDexFile> container =
+                DexFileFactory.loadDexContainer(new File(apk), Opcodes.getDefault());
+        for (String entry : container.getDexEntryNames()) {
+            for (ClassDef classDef : container.getEntry(entry).getDexFile().getClasses()) {
+                String className = toJavaType(classDef.getType());
+                Set<String> refs = null;
+                if (buildIndex) {
+                    List<String> supers = new ArrayList<>();
+                    if (classDef.getSuperclass() != null) supers.add(toJavaType(classDef.getSuperclass()));
+                    for (String type : classDef.getInterfaces()) supers.add(toJavaType(type));
+                    superTypes.put(className, supers);
+                    refs = new HashSet<>();
+                    classRefs.put(className, refs);
+                }
+                // same classes as EventAnalyzer.enter
+                boolean sdkUi = EventAnalyzer.isSdkUiClass(className);
+                if (!sdkUi) classNum++;
+                int size = 0;
+                for (Method method : classDef.getMethods()) {
+                    MethodImplementation impl = method.getImplementation();
+                    if (impl == null) continue;
+                    for (Instruction instruction : impl.getInstructions()) {
+                        size++;
+                        if (!(instruction instanceof ReferenceInstruction)) continue;
+                        int referenceType = instruction.getOpcode().referenceType;
+                        Object reference = ((ReferenceInstruction) instruction).getReference();
+                        if (referenceType == ReferenceType.METHOD) {
+                            MethodReference callee = (MethodReference) reference;
+                            if (refs != null) refs.add(toJavaType(callee.getDefiningClass()));
+                            if (!sdkUi && visitInvoke(callee)) uiSeeds.add(className);
+                        } else if (refs != null && referenceType == ReferenceType.TYPE) {
+                            refs.add(toJavaType(((TypeReference) reference).getType()));
+                        } else if (refs != null && referenceType == ReferenceType.FIELD) {
+                            refs.add(toJavaType(((FieldReference) reference).getDefiningClass()));
+                        }
+                    }
+                }
+                if (buildIndex) classSizes.put(className, size);
+                // the first dex wins, as in soot
+                if (hashClasses && !classHashes.containsKey(className)) {
+                    classHashes.put(className, JimpleCache.hashClass(classDef));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the callee is read by EventAnalyzer or CodeParser
+     */
+    private boolean visitInvoke(MethodReference callee) {
+        String subSig = toSubSignature(callee);
+        if (EventAnalyzer.reg2handler.containsKey(subSig)) {
+            registerNum++;
+            return true;
+        } else if (Objects.equals(subSig, EventAnalyzer.CALL_SET_CONTENT_VIEW)
+                || Objects.equals(subSig, EventAnalyzer.CALL_INFLATE_1)
+                || Objects.equals(subSig, EventAnalyzer.CALL_INFLATE_2)) {
+            layoutNum++;
+            return true;
+        }
+        return Objects.equals(subSig, EventAnalyzer.CALL_FIND_VIEW_BY_ID);
+    }
+
+    /**
+     * The classes the ui analysis reads: activities and dialogs, classes that
+     * register listeners or find views, the listener classes, their dex super
+     * classes, and the dex classes they refer to within k hops
+     */
+    public Set<String> getUiClosure(int hops) {
+        Set<String> listeners = new HashSet<>();
+        for (String reg : EventAnalyzer.reg2handler.keySet()) {
+            listeners.add(reg.substring(reg.indexOf('(') + 1, reg.indexOf(')')));
+        }
+        Set<String> closure = new HashSet<>(uiSeeds);
+        for (String className : superTypes.keySet()) {
+            if (EventAnalyzer.isSdkUiClass(className)) continue;
+            if (isUiComponent(className) || isSubTypeOf(className, listeners)) closure.add(className);
+        }
+        Set<String> frontier = new HashSet<>(closure);
+        for (int i = 0; i < hops && !frontier.isEmpty(); i++) {
+            Set<String> next = new HashSet<>();
+            for (String className : frontier) {
+                for (String ref : classRefs.getOrDefault(className, Collections.emptySet())) {
+                    if (classRefs.containsKey(ref) && closure.add(ref)) next.add(ref);
+                }
+            }
+            frontier = next;
+        }
+        // inherited code and fields are read through the sub classes
+        for (String className : new ArrayList<>(closure)) {
+            List<String> supers = superTypes.get(className);
+            while (supers != null && !supers.isEmpty() && superTypes.containsKey(supers.get(0))) {
+                if (!closure.add(supers.get(0))) break;
+                supers = superTypes.get(supers.get(0));
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * Packages to exclude from soot so that only the closure gets bodies.
+     * Packages shared with the platform (java.*, android.* but the support
+     * libraries) are kept, excluding them would drop the platform classes too
+     */
+    public List<String> getExcludedPackages(Set<String> closure) {
+        Set<String> packages = new TreeSet<>();
+        for (String className : superTypes.keySet()) {
+            if (closure.contains(className)) continue;
+            int dot = className.lastIndexOf('.');
+            String pkg = dot < 0 ? className : className.substring(0, dot) + ".*";
+            if (isPlatformPackage(pkg)) continue;
+            packages.add(pkg);
+        }
+        return new ArrayList<>(packages);
+    }
+
+    static boolean isPlatformPackage(String pkg) {
+        return pkg.startsWith("java.") || pkg.startsWith("javax.") ||
+                (pkg.startsWith("android.") && !pkg.startsWith("android.support."));
+    }
+
+    /**
+     * @return dex class -> number of instructions, only with the index
+     */
+    public Map<String, Integer> getClassSizes() {
+        return classSizes;
+    }
+
+    /**
+     * @return dex class -> hash of its code, only with hashClasses
+     */
+    public Map<String, String> getClassHashes() {
+        return classHashes;
+    }
+
+    public int getIndexedClassNum() {
+        return superTypes.size();
+    }
+
+    private boolean isUiComponent(String className) {
+        String type = className;
+        // the dex hierarchy ends at a platform class
+        while (superTypes.containsKey(type)) {
+            List<String> supers = superTypes.get(type);
+            if (supers.isEmpty()) return false;
+            type = supers.get(0);
+        }
+        return type.startsWith("android.") && (type.endsWith("Activity") || type.endsWith("Dialog"));
+    }
+
+    private boolean isSubTypeOf(String className, Set<String> types) {
+        Deque<String> queue = new ArrayDeque<>(Collections.singletonList(className));
+        Set<String> visited = new HashSet<>();
+        while (!queue.isEmpty()) {
+            String type = queue.poll();
+            if (!visited.add(type)) continue;
+            if (types.contains(type)) return true;
+            queue.addAll(superTypes.getOrDefault(type, Collections.emptyList()));
+        }
+        return false;
+    }
+
+    /**
+     * Without a registration, EventAnalyzer yields no event. A missing layout
+     * binding alone is not enough to skip, since such events are kept as NO_ID
+     */
+    public boolean hasUiWiring() {
+        return registerNum > 0;
+    }
+
+    public String getSummary() {
+        return String.format("%d classes, %d listener registrations, %d layout bindings",
+                classNum, registerNum, layoutNum);
+    }
+
+    /**
+     * @return the soot sub-signature of a dex method reference
+     */
+    static String toSubSignature(MethodReference method) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(toJavaType(method.getReturnType())).append(' ')
+                .append(method.getName()).append('(');
+        boolean first = true;
+        for (CharSequence param : method.getParameterTypes()) {
+            if (!first) builder.append(',');
+            builder.append(toJavaType(param.toString()));
+            first = false;
+        }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * @param type type descriptor in dex, e.g., Landroid/view/View;
+     * @return type name in soot, e.g., android.view.View
+     */
+    static String toJavaType(String type) {
+        int dim = 0;
+        while (type.charAt(dim) == '[') dim++;
+        String name;
+        switch (type.charAt(dim)) {
+            case 'V': name = "void"; break;
+            case 'Z': name = "boolean"; break;
+            case 'B': name = "byte"; break;
+            case 'S': name = "short"; break;
+            case 'C': name = "char"; break;
+            case 'I': name = "int"; break;
+            case 'J': name = "long"; break;
+            case 'F': name = "float"; break;
+            case 'D': name = "double"; break;
+            default: name = type.substring(dim + 1, type.length() - 1).replace('/', '.');
+        }
+        StringBuilder builder = new StringBuilder(name);
+        for (int i = 0; i < dim; i++) builder.append("[]");
+        return builder.toString();
+    }
+}
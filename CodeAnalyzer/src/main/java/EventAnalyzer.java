@@ -5,9 +5,15 @@ import soot.tagkit.Tag;
 import soot.toolkits.scalar.Pair;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
-public class EventAnalyzer {
+/**
+ * Find the event handlers of ui controls. The listener registrations, layouts
+ * and view fields are read in a BodyVisitor walk (shared with other analyzers),
+ * then the registrations are resolved in finish()
+ */
+public class EventAnalyzer implements BodyVisitor.Analyzer {
     // event register and callback, add more if needed
     static Map<String, String> reg2handler;
     static {
@@ -31,6 +37,7 @@ public class EventAnalyzer {
     static String CLASS_DIALOG = "android.app.Dialog";
     static String CLASS_ACTIVITY = "android.app.Activity";
     static String CALL_FIND_VIEW_BY_ID = "android.view.View findViewById(int)";
+    private static final String NULL_LISTENER = "null";
 
     Logger logger;
     /* ------------------
@@ -38,6 +45,8 @@ public class EventAnalyzer {
        xml_2: { uid_3: [e3, e4, ...], uid_4: ...},
     ------------------- */
     Map<String, HashMap<String, HashSet<String>>> results;
+    // same as results, with the handlers as methods (only the ones in the scene)
+    Map<String, HashMap<String, HashSet<SootMethod>>> handlers;
     Map<SootClass, String> classToXML;
     Set<SootClass> activityClasses;
     Set<SootClass> dialogClasses;
@@ -45,30 +54,50 @@ public class EventAnalyzer {
     // we save <field, layoutId> for inflate, and <field, viewID> for view
     Map<SootClass, HashMap<SootField, String>> classFieldsView;
     Map<SootClass, HashMap<SootField, String>> classFieldsInflate;
-    Map<SootMethod, HashSet<Unit>> allEvents;
+    // registrations by method, added by parallel visits
+    ConcurrentMultimap<SootMethod, Unit> allEvents;
     String apk;
     Map<String, Set<String>> layoutToViews;
+    // def-use indexes of the bodies read, until the events are resolved
+    private final Map<Body, DefUseIndex> defUses = new ConcurrentHashMap<>();
 
     public EventAnalyzer(String apk, Logger logger, Map<String, Set<String>> layoutViewMap) {
         this.logger = logger;
         this.apk = apk;
         layoutToViews = layoutViewMap;
         results = new HashMap<>();
+        handlers = new HashMap<>();
         classToXML = new HashMap<>();
         activityClasses = new HashSet<>();
         dialogClasses = new HashSet<>();
         classFieldsView = new HashMap<>();
         classFieldsInflate = new HashMap<>();
-        allEvents  = new HashMap<>();
+        allEvents = new ConcurrentMultimap<>();
     }
 
-    public void run() {
+    /**
+     * Walk the application classes for this analyzer alone, and resolve
+     */
+    public void run(int threadNum) {
+        BodyVisitor visitor = new BodyVisitor(logger, threadNum);
+        visitor.register(this);
+        visitor.run(Scene.v().getApplicationClasses());
+        finish();
+    }
+
+    /**
+     * Resolve the events, after the walk
+     */
+    public void finish() {
         // find all subclasses of activity
         getLayoutClasses();
-        // round 1, search event invoke, layout xml, and field (view/inflate)
-        identifyInfo();
         // round 2, deal with set event listeners
         resolveEvents();
+        defUses.clear();
+    }
+
+    private DefUseIndex getDefUses(SootMethod method) {
+        return defUses.computeIfAbsent(method.getActiveBody(), DefUseIndex::new);
     }
 
     private void resolveEvents() {
@@ -79,15 +108,16 @@ public class EventAnalyzer {
         int success = 0;
 
         // method contains a set listener register
-        for (Map.Entry<SootMethod, HashSet<Unit>> entry : allEvents.entrySet()) {
-            SootMethod method = entry.getKey();
-            HashSet<Unit> regUnits = entry.getValue();
+        for (SootMethod method : allEvents.keySet()) {
+            Set<Unit> regUnits = allEvents.get(method);
             regCount += regUnits.size();
             for (Unit regUnit : regUnits) {
                 // 1. get event callback name
-                String event = getEvent(method, regUnit);
-                if (Objects.equals(event, "null")) continue;
-                if (event == null) continue;
+                String listenerClass = getListenerClass(method, regUnit);
+                if (listenerClass == null || listenerClass.equals(NULL_LISTENER)) continue;
+                String handlerSubSig = reg2handler.get(
+                        ((Stmt) regUnit).getInvokeExpr().getMethod().getSubSignature());
+                String event = String.format("&lt;%s: %s&gt;", listenerClass, handlerSubSig);
                 e ++;
                 // 2. get id and layout of the view
                 Pair<String, String> view = getView(method, regUnit);
@@ -114,6 +144,12 @@ public class EventAnalyzer {
                     events.add(event);
                     map.put(uid, events);
                     results.put(xml, map);
+                    SootClass handlerClass = Scene.v().getSootClassUnsafe(listenerClass, false);
+                    SootMethod handler = handlerClass == null ? null : handlerClass.getMethodUnsafe(handlerSubSig);
+                    if (handler != null) {
+                        handlers.computeIfAbsent(xml, k -> new HashMap<>())
+                                .computeIfAbsent(uid, k -> new HashSet<>()).add(handler);
+                    }
                     success ++;
                 }
                 else {
@@ -127,53 +163,44 @@ public class EventAnalyzer {
         logger.info(String.format("get %d events (ui: %.2f, event: %.2f)", success, u / regCount, e / regCount));
     }
 
-    private String getEvent(SootMethod method, Unit eventUnit) {
-        UnitPatchingChain units = method.getActiveBody().getUnits();
+    /**
+     * @return class of the listener registered, NULL_LISTENER for
+     * setListener(null), or null if unknown
+     */
+    private String getListenerClass(SootMethod method, Unit eventUnit) {
         InvokeExpr invoke = ((Stmt) eventUnit).getInvokeExpr();
         Value listener = invoke.getArg(0);
-        String subSig = invoke.getMethod().getSubSignature();
         if (listener instanceof NullConstant) {
-            return "null";
+            return NULL_LISTENER;
         } else {
             // setListener(this)
             String className = listener.getType().toString();
             SootClass klass = Scene.v().getSootClass(className);
             if (klass == method.getDeclaringClass()) {
-                String handler = reg2handler.get(subSig);
-                return String.format("&lt;%s: %s&gt;", className, handler);
+                return className;
             }
         }
-        Unit last = units.getPredOf(eventUnit);
-        while (last != null) {
-            Stmt s = (Stmt) last;
-            if (s instanceof AssignStmt) {
-                AssignStmt as = (AssignStmt) s;
-                if (as.getLeftOp() == listener) {
-                    Value rightOp = as.getRightOp();
-                    if (rightOp instanceof NewExpr) {
-                        NewExpr newExpr = (NewExpr) rightOp;
-                        String className = newExpr.getBaseType().toString();
-                        String handler = reg2handler.get(subSig);
-                        return String.format("&lt;%s: %s&gt;", className, handler);
-                    }
-                }
+        if (!(listener instanceof Local)) return null;
+        DefUseIndex index = getDefUses(method);
+        for (Unit def : index.getDefs((Local) listener, eventUnit)) {
+            if (!(def instanceof AssignStmt)) continue;
+            Value rightOp = ((AssignStmt) def).getRightOp();
+            if (rightOp instanceof NewExpr) {
+                return ((NewExpr) rightOp).getBaseType().toString();
             }
-            last = units.getPredOf(last);
         }
         return null;
     }
 
     private String getXML(SootMethod method, Unit unit) {
-        UnitPatchingChain units = method.getActiveBody().getUnits();
+        DefUseIndex index = getDefUses(method);
         Stmt stmt = (Stmt) unit;
         Value xml = stmt.getInvokeExpr().getUseBoxes().get(0).getValue();
-        Unit last = units.getPredOf(unit);
-        while (last != null) {
-            Stmt s = (Stmt) last;
-            last = units.getPredOf(last);
-            if (!(s instanceof AssignStmt)) continue;
-            AssignStmt as = (AssignStmt) s;
-            if (as.getLeftOp() != xml) continue;
+        Unit at = unit;
+        for (int hop = 0; hop < DefUseIndex.MAX_HOPS && xml instanceof Local; hop++) {
+            AssignStmt as = index.getAssign((Local) xml, at);
+            if (as == null) return null;
+            at = as;
             // two cases, one is ui is a field, the other is a local
             xml = as.getRightOp();
             if (xml instanceof FieldRef) {
@@ -201,55 +228,70 @@ public class EventAnalyzer {
                 SootMethod callee = ie.getMethod();
                 String subSig = callee.getSubSignature();
                 if (Objects.equals(subSig, CALL_INFLATE_1) || Objects.equals(subSig, CALL_INFLATE_2)) {
-                    return getIdFromInvokeUnit(s, units);
+                    return getIdFromInvokeUnit(method, as);
                 }
+                return null;
+            } else if (xml instanceof CastExpr) {
+                xml = ((CastExpr) xml).getOp();
             }
         }
         return null;
     }
 
-    private void identifyInfo() {
-        for (SootClass klass : Scene.v().getApplicationClasses()) {
-            // we do not analysis android sdk uis
-            if (klass.getName().startsWith("androidx.")) continue;
-            if (klass.getName().startsWith("android.support.")) continue;
-            if (klass.getName().startsWith("com.google.")) continue;
-            List<SootMethod> methods = klass.getMethods();
-            for (SootMethod method : methods) {
-                if (!(method.hasActiveBody())) continue;
-                Body body = method.getActiveBody();
-                for (Unit unit: body.getUnits()) {
-                    Stmt s = (Stmt) unit;
-                    if (!(s.containsInvokeExpr())) continue;
-                    InvokeExpr ie = s.getInvokeExpr();
-                    SootMethod callee = ie.getMethod();
-                    String subSig = callee.getSubSignature();
-                    if (reg2handler.containsKey(subSig)) {
-                        HashSet<Unit> events;
-                        if (allEvents.containsKey(method)) {
-                            events = allEvents.get(method);
-                        } else {
-                            events = new HashSet<>();
-                        }
-                        events.add(unit);
-                        allEvents.put(method, events);
-                    } else if (Objects.equals(subSig, CALL_SET_CONTENT_VIEW)) {
-                        String xml = handleSetContentView(method, unit);
-                        classToXML.put(klass, xml);
-                        logger.fine(String.format("[setContentView] %s - %s", xml, klass.getName()));
-                    } else if (Objects.equals(subSig, CALL_FIND_VIEW_BY_ID)) {
-                        handleFindViewByID(method, unit);
-                    } else if (Objects.equals(subSig, CALL_INFLATE_1)
-                            || Objects.equals(subSig, CALL_INFLATE_2)) {
-                        handleInflate(method, unit);
-                    }
+    /**
+     * Round 1, search event invoke, layout xml, and field (view/inflate). A
+     * layout or field may be set in several methods, the last one wins, so
+     * they are saved in the order of the methods
+     */
+    @Override
+    public BodyVisitor.MethodVisit enter(SootMethod method) {
+        SootClass klass = method.getDeclaringClass();
+        if (isSdkUiClass(klass.getName())) return null;
+        List<Runnable> updates = new ArrayList<>();
+        return new BodyVisitor.MethodVisit() {
+            @Override
+            public void visit(Stmt s) {
+                if (!(s.containsInvokeExpr())) return;
+                InvokeExpr ie = s.getInvokeExpr();
+                SootMethod callee = ie.getMethod();
+                String subSig = callee.getSubSignature();
+                if (reg2handler.containsKey(subSig)) {
+                    allEvents.put(method, s);
+                } else if (Objects.equals(subSig, CALL_SET_CONTENT_VIEW)) {
+                    String xml = handleSetContentView(method, s);
+                    updates.add(() -> classToXML.put(klass, xml));
+                    logger.fine(String.format("[setContentView] %s - %s", xml, klass.getName()));
+                } else if (Objects.equals(subSig, CALL_FIND_VIEW_BY_ID)) {
+                    Pair<SootField, String> view = handleFindViewByID(method, s);
+                    if (view != null) updates.add(() -> classFieldsView
+                            .computeIfAbsent(klass, k -> new HashMap<>()).put(view.getO1(), view.getO2()));
+                } else if (Objects.equals(subSig, CALL_INFLATE_1)
+                        || Objects.equals(subSig, CALL_INFLATE_2)) {
+                    Pair<SootField, String> inflate = handleInflate(method, s);
+                    if (inflate != null) updates.add(() -> classFieldsInflate
+                            .computeIfAbsent(klass, k -> new HashMap<>()).put(inflate.getO1(), inflate.getO2()));
                 }
             }
-        }
+
+            @Override
+            public void commit() {
+                for (Runnable update : updates) update.run();
+            }
+        };
     }
 
-    private void handleInflate(SootMethod method, Unit unit) {
-        if (!(unit instanceof AssignStmt)) return;
+    static boolean isSdkUiClass(String className) {
+        // we do not analysis android sdk uis
+        return className.startsWith("androidx.") ||
+                className.startsWith("android.support.") ||
+                className.startsWith("com.google.");
+    }
+
+    /**
+     * @return the field holding the inflated view and the layout id, or null
+     */
+    private Pair<SootField, String> handleInflate(SootMethod method, Unit unit) {
+        if (!(unit instanceof AssignStmt)) return null;
         AssignStmt assignStmt = (AssignStmt) unit;
         /*
          $r3 = virtualinvoke $r2.<android.view.LayoutInflater:
@@ -257,123 +299,105 @@ public class EventAnalyzer {
          r0.<com.example.myapp.ActivityX: android.view.View b> = $r3;
         */
         Value inflation = assignStmt.getLeftOp();
-        UnitPatchingChain units = method.getActiveBody().getUnits();
+        if (!(inflation instanceof Local)) return null;
         // get layout id
-        String layoutIdLiteral = getIdFromInvokeUnit(unit, units);
+        String layoutIdLiteral = getIdFromInvokeUnit(method, unit);
         // get inflate field
         if (layoutIdLiteral != null) {
-            Unit next = units.getSuccOf(unit);
-            while (next != null) {
-                Stmt s = (Stmt) next;
-                if (s instanceof AssignStmt) {
-                    AssignStmt s1 = (AssignStmt) s;
-                    if (s1.getRightOp() == inflation) {
-                        Value leftOp = s1.getLeftOp();
-                        if (leftOp instanceof FieldRef) {
-                            SootField field = ((FieldRef) leftOp).getField();
-                            SootClass klass = method.getDeclaringClass();
-                            HashMap<SootField, String> map = classFieldsInflate.get(klass);
-                            if (map == null) {
-                                map = new HashMap<>();
-                            }
-                            map.put(field, layoutIdLiteral);
-                            classFieldsInflate.put(klass, map);
-                            logger.fine(String.format("[handle inf] %s: %s", field, layoutIdLiteral));
-                            break;
-                        }
+            DefUseIndex index = getDefUses(method);
+            for (Unit use : index.getUsesAfter((Local) inflation, unit)) {
+                if (!(use instanceof AssignStmt)) continue;
+                AssignStmt s1 = (AssignStmt) use;
+                if (s1.getRightOp() == inflation) {
+                    Value leftOp = s1.getLeftOp();
+                    if (leftOp instanceof FieldRef) {
+                        SootField field = ((FieldRef) leftOp).getField();
+                        logger.fine(String.format("[handle inf] %s: %s", field, layoutIdLiteral));
+                        return new Pair<>(field, layoutIdLiteral);
                     }
                 }
-                next = units.getSuccOf(next);
             }
         }
+        return null;
     }
 
-    private String getIdFromInvokeUnit(Unit unit, UnitPatchingChain units) {
+    private String getIdFromInvokeUnit(SootMethod method, Unit unit) {
         InvokeExpr invokeExpr = ((Stmt) unit).getInvokeExpr();
         String idLiteral = null;
         Value layoutId = invokeExpr.getArg(0);
         if (layoutId instanceof IntConstant) {
             idLiteral = String.valueOf(((IntConstant) layoutId).value);
         } else if (layoutId instanceof Local) {
-            // backward search
-            Unit last = units.getPredOf(unit);
-            while (last != null) {
-                Stmt s = (Stmt) last;
-                if (s instanceof AssignStmt) {
-                    AssignStmt as = (AssignStmt) s;
-                    if (as.getLeftOp() == layoutId) {
-                        Value rightOp = as.getRightOp();
-                        if (rightOp instanceof FieldRef) {
-                            SootField field = ((FieldRef) rightOp).getField();
-                            // try to get the literal value from soot field object
-                            for (Tag tag : field.getTags()) {
-                                if (tag instanceof ConstantValueTag) {
-                                    idLiteral = ((ConstantValueTag) tag).getConstant().toString();
-                                    break;
-                                }
-                            }
-                            if (idLiteral != null) break;
-                            // is assigned at runtime (e.g., an arg of <clinit> -> local)
-                            logger.fine(String.format("cannot locate constant value for field: %s", field));
-                            break;
-                        } else if (rightOp instanceof IntConstant) {
-                            idLiteral = String.valueOf(((IntConstant) rightOp).value);
-                            break;
-                        } else {
-                            printError(units, String.format("unknown right op type: %s", rightOp.getClass()));
+            // the assignment reaching the call
+            AssignStmt as = getDefUses(method).getAssign((Local) layoutId, unit);
+            if (as != null) {
+                Value rightOp = as.getRightOp();
+                if (rightOp instanceof FieldRef) {
+                    SootField field = ((FieldRef) rightOp).getField();
+                    // try to get the literal value from soot field object
+                    for (Tag tag : field.getTags()) {
+                        if (tag instanceof ConstantValueTag) {
+                            idLiteral = ((ConstantValueTag) tag).getConstant().toString();
                             break;
                         }
                     }
+                    // is assigned at runtime (e.g., an arg of <clinit> -> local)
+                    if (idLiteral == null) {
+                        logger.fine(String.format("cannot locate constant value for field: %s", field));
+                    }
+                } else if (rightOp instanceof IntConstant) {
+                    idLiteral = String.valueOf(((IntConstant) rightOp).value);
+                } else {
+                    printError(method.getActiveBody().getUnits(),
+                            String.format("unknown right op type: %s", rightOp.getClass()));
                 }
-                last = units.getPredOf(last);
             }
         }
         if (idLiteral == null) {
-            printError(units, String.format("uid is null (in: %s)", unit));
+            printError(method.getActiveBody().getUnits(), String.format("uid is null (in: %s)", unit));
         }
         return idLiteral;
     }
 
-    private void handleFindViewByID(SootMethod method, Unit unit) {
+    /**
+     * @return the field holding the view found and the view id, or null
+     */
+    private Pair<SootField, String> handleFindViewByID(SootMethod method, Unit unit) {
         Stmt stmt = (Stmt) unit;
-        if (!(stmt instanceof AssignStmt)) return;
+        if (!(stmt instanceof AssignStmt)) return null;
         Value var = ((AssignStmt) stmt).getLeftOp();
-        UnitPatchingChain units = method.getActiveBody().getUnits();
+        DefUseIndex index = getDefUses(method);
         // first, get uid
-        String viewIdLiteral = getIdFromInvokeUnit(unit, units);
-        // then, get field
-        Unit next = units.getSuccOf(unit);
-        while (next != null) {
-            Stmt s = (Stmt) next;
-            if (s instanceof AssignStmt) {
-                AssignStmt as = (AssignStmt) s;
+        String viewIdLiteral = getIdFromInvokeUnit(method, unit);
+        // then, get field, following the casts and copies of the view
+        Unit at = unit;
+        for (int hop = 0; hop < DefUseIndex.MAX_HOPS && var instanceof Local; hop++) {
+            Value next = null;
+            for (Unit use : index.getUsesAfter((Local) var, at)) {
+                if (!(use instanceof AssignStmt)) continue;
+                AssignStmt as = (AssignStmt) use;
                 Value rightOp = as.getRightOp();
                 Value leftOp = as.getLeftOp();
-                if (rightOp instanceof CastExpr) {
-                    if (((CastExpr) rightOp).getOp() == var) {
-                        var = leftOp;
-                    }
-                } else if (rightOp instanceof Local) {
-                    if (rightOp == var) {
-                        if (leftOp instanceof FieldRef) {
-                            SootField field = ((FieldRef) leftOp).getField();
-                            SootClass klass = method.getDeclaringClass();
-                            HashMap<SootField, String> map = classFieldsView.get(klass);
-                            if (map == null) {
-                                map = new HashMap<>();
-                            }
-                            map.put(field, viewIdLiteral);
-                            classFieldsView.put(klass, map);
-                            logger.fine(String.format("[handle find] %s: %s", field, viewIdLiteral));
-                            break;
-                        } else if (leftOp instanceof Local) {
-                            var = leftOp;
-                        }
+                if (rightOp instanceof CastExpr && ((CastExpr) rightOp).getOp() == var) {
+                    next = leftOp;
+                } else if (rightOp == var) {
+                    if (leftOp instanceof FieldRef) {
+                        SootField field = ((FieldRef) leftOp).getField();
+                        logger.fine(String.format("[handle find] %s: %s", field, viewIdLiteral));
+                        return new Pair<>(field, viewIdLiteral);
+                    } else if (leftOp instanceof Local) {
+                        next = leftOp;
                     }
                 }
+                if (next != null) {
+                    at = use;
+                    break;
+                }
             }
-            next = units.getSuccOf(next);
+            if (next == null) break;
+            var = next;
         }
+        return null;
     }
 
     private Pair<String, String> getView(SootMethod method, Unit unit) {
@@ -383,60 +407,56 @@ public class EventAnalyzer {
         InvokeExpr invokeExpr = stmt.getInvokeExpr();
         Value ui = invokeExpr.getUseBoxes().get(0).getValue();
         UnitPatchingChain units = method.getActiveBody().getUnits();
+        DefUseIndex index = getDefUses(method);
         Unit callSite = null;
-        Unit last = units.getPredOf(unit);
-        while (last != null) {
-            Stmt s = (Stmt) last;
-            if (s instanceof AssignStmt) {
-                AssignStmt as = (AssignStmt) s;
-                if (as.getLeftOp() == ui) {
-                    Value rightOp = as.getRightOp();
-                    if (rightOp instanceof CastExpr) {
-                        ui = ((CastExpr) rightOp).getOp();
-                    } else if (rightOp instanceof FieldRef) {
-                        SootField field = ((FieldRef) rightOp).getField();
-                        SootClass klass = method.getDeclaringClass();
-                        HashMap<SootField, String> map = classFieldsView.get(klass);
-                        if (map != null) {
-                            String str = map.get(field);
-                            if (str != null) {
-                                viewLiteral = str;
-                                break;
-                            }
-                        }
-                        for (Tag tag : field.getTags()) {
-                            if (tag instanceof ConstantValueTag) {
-                                viewLiteral = ((ConstantValueTag) tag).getConstant().toString();
-                                break;
-                            }
-                        }
-                    } else if (rightOp instanceof IntConstant) {
-                        viewLiteral = String.valueOf(((IntConstant) rightOp).value);
-                        break;
-                    } else if (rightOp instanceof InvokeExpr) {
-                        InvokeExpr expr = ((InvokeExpr) rightOp);
-                        String subSignature = expr.getMethod().getSubSignature();
-                        if (!Objects.equals(subSignature, CALL_FIND_VIEW_BY_ID)) {
-                            logger.fine(String.format("[get view] unknown call: %s (in %s)",
-                                    rightOp.getClass(), s));
-                            return null;
-                        }
-                        ui = expr.getArg(0);
-                        callSite = last;
-                        if (ui instanceof IntConstant) {
-                            viewLiteral = String.valueOf(((IntConstant) ui).value);
+        Unit at = unit;
+        for (int hop = 0; hop < DefUseIndex.MAX_HOPS && ui instanceof Local; hop++) {
+            AssignStmt as = index.getAssign((Local) ui, at);
+            if (as == null) break;
+            at = as;
+            Value rightOp = as.getRightOp();
+            if (rightOp instanceof CastExpr) {
+                ui = ((CastExpr) rightOp).getOp();
+            } else if (rightOp instanceof FieldRef) {
+                SootField field = ((FieldRef) rightOp).getField();
+                SootClass klass = method.getDeclaringClass();
+                HashMap<SootField, String> map = classFieldsView.get(klass);
+                if (map != null) {
+                    viewLiteral = map.get(field);
+                }
+                if (viewLiteral == null) {
+                    for (Tag tag : field.getTags()) {
+                        if (tag instanceof ConstantValueTag) {
+                            viewLiteral = ((ConstantValueTag) tag).getConstant().toString();
                             break;
                         }
-                    } else if (rightOp instanceof Local) {
-                        ui = rightOp;
-                    } else {
-                        printError(units, String.format("[get view] unknown right op type %s (in %s)",
-                                rightOp.getClass(), s));
-                        break;
                     }
                 }
+                break;
+            } else if (rightOp instanceof IntConstant) {
+                viewLiteral = String.valueOf(((IntConstant) rightOp).value);
+                break;
+            } else if (rightOp instanceof InvokeExpr) {
+                InvokeExpr expr = ((InvokeExpr) rightOp);
+                String subSignature = expr.getMethod().getSubSignature();
+                if (!Objects.equals(subSignature, CALL_FIND_VIEW_BY_ID)) {
+                    logger.fine(String.format("[get view] unknown call: %s (in %s)",
+                            rightOp.getClass(), as));
+                    return null;
+                }
+                ui = expr.getArg(0);
+                callSite = as;
+                if (ui instanceof IntConstant) {
+                    viewLiteral = String.valueOf(((IntConstant) ui).value);
+                    break;
+                }
+            } else if (rightOp instanceof Local) {
+                ui = rightOp;
+            } else {
+                printError(units, String.format("[get view] unknown right op type %s (in %s)",
+                        rightOp.getClass(), as));
+                break;
             }
-            last = units.getPredOf(last);
         }
         if (callSite != null) {
             layoutLiteral = getXML(method, callSite);
@@ -502,7 +522,16 @@ public class EventAnalyzer {
         return results;
     }
 
-    private void printError(UnitPatchingChain units, String msg) {
+    /**
+     * @return xml -> view id -> handler methods, the events of getResults()
+     * whose handler is in the scene
+     */
+    public Map<String, HashMap<String, HashSet<SootMethod>>> getHandlers() {
+        return handlers;
+    }
+
+    // one dump at a time, as methods are visited in parallel
+    private synchronized void printError(UnitPatchingChain units, String msg) {
         String bar = "-------------------------";
         System.out.println(bar);
         System.out.println(msg);
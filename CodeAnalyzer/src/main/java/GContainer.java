@@ -1,18 +1,252 @@
-import soot.util.IterableSet;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.IntConsumer;
 
-import java.util.Set;
-
-@SuppressWarnings("unused declaration")
+/**
+ * Read-only queries on the graph of an app, either the one just built
+ * (Main.graph) or loaded from encoding/node.csv and edge.csv. Nodes are
+ * referred to by their id in node.csv
+ */
 public class GContainer {
-    static Set<GNode> gNodes;
-    static Set<GEdge> gEdges;
+    private final CsrGraph graph;
+    private final NodeTable nodes;
+
+    public GContainer(CsrGraph graph) {
+        this.graph = graph;
+        this.nodes = graph.getNodes();
+    }
+
+    /**
+     * @param outPath output folder of an app
+     */
+    public static GContainer load(String outPath) throws IOException {
+        Path encoding = Paths.get(outPath, Util.sEncoding);
+        GraphBuilder builder = new GraphBuilder();
+        List<Long> uuids = new ArrayList<>();
+        // null if node.csv has no noise column
+        BitSet noise = null;
+        int noiseColumn = -1;
+        try (BufferedReader reader = Files.newBufferedReader(
+                encoding.resolve(Util.sNode + ".csv"), StandardCharsets.UTF_8)) {
+            // ,Name,Hash,Java,Android,UI,Class,XML,UId[,Noise], merge_info.py appends Package
+            String line = reader.readLine();
+            if (line != null) noiseColumn = splitCsv(line).indexOf(Util.COLUMN_NOISE);
+            if (noiseColumn >= 0) noise = new BitSet();
+            while ((line = reader.readLine()) != null) {
+                List<String> row = splitCsv(line);
+                if (row.size() < 9) throw new IOException("bad node row: " + line);
+                String name = row.get(1);
+                long uuid = Long.parseLong(row.get(2));
+                GNode.ApkNodeLabels type;
+                if ("1".equals(row.get(3))) type = GNode.ApkNodeLabels.JAVA;
+                else if ("1".equals(row.get(4))) type = GNode.ApkNodeLabels.ANDROID;
+                else if ("1".equals(row.get(5))) type = GNode.getUiType(name);
+                else type = GNode.ApkNodeLabels.METHOD;
+                builder.addNode(uuid, name, type, orNull(row.get(6)), orNull(row.get(7)),
+                        orNull(row.get(8)), null, null);
+                if (noise != null && row.size() > noiseColumn && "1".equals(row.get(noiseColumn))) {
+                    noise.set(uuids.size());
+                }
+                uuids.add(uuid);
+            }
+        }
+        GEdge.ApkRelationships[] types = GEdge.ApkRelationships.values();
+        try (BufferedReader reader = Files.newBufferedReader(
+                encoding.resolve(Util.sEdge + ".csv"), StandardCharsets.UTF_8)) {
+            // ,From,To,Type
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String[] row = line.split(",");
+                if (row.length < 4) throw new IOException("bad edge row: " + line);
+                builder.addEdge(uuids.get(Integer.parseInt(row[1])), uuids.get(Integer.parseInt(row[2])),
+                        types[Integer.parseInt(row[3])]);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("bad edge file: " + e.getMessage(), e);
+        }
+        CsrGraph graph = builder.freeze();
+        if (noise != null) {
+            NodeTable nodes = graph.getNodes();
+            nodes.enableNoise();
+            for (int i = noise.nextSetBit(0); i >= 0; i = noise.nextSetBit(i + 1)) {
+                nodes.setNoise(nodes.indexOf(uuids.get(i)), true);
+            }
+        }
+        return new GContainer(graph);
+    }
+
+    public int getNodeNum() {
+        return graph.getNodeNum();
+    }
+
+    public int getEdgeNum() {
+        return graph.getEdgeNum();
+    }
+
+    public NodeTable getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return id of the node, -1 if unknown
+     */
+    public int findNodeByID(long uuid) {
+        return nodes.indexOf(uuid);
+    }
+
+    /**
+     * @return false if the graph was built without mundane lists
+     */
+    public boolean isNoise(int node) {
+        return nodes.isNoise(node);
+    }
+
+    public boolean isUi(int node) {
+        return nodes.getTypeID(node) >= GNode.ApkNodeLabels.CONTROL.ordinal();
+    }
+
+    /**
+     * @return ids of the layout nodes
+     */
+    public int[] getUiNodes() {
+        int num = 0;
+        int[] ui = new int[nodes.size()];
+        for (int node = 0; node < nodes.size(); node++) {
+            if (isUi(node)) ui[num++] = node;
+        }
+        return Arrays.copyOf(ui, num);
+    }
+
+    /**
+     * @param type edge type, or null for all
+     */
+    public void forEachSuccessor(int node, GEdge.ApkRelationships type, IntConsumer consumer) {
+        for (int e = graph.outBegin(node); e < graph.outEnd(node); e++) {
+            if (type == null || graph.getType(e) == type) consumer.accept(graph.getTarget(e));
+        }
+    }
+
+    /**
+     * @param type edge type, or null for all
+     */
+    public void forEachPredecessor(int node, GEdge.ApkRelationships type, IntConsumer consumer) {
+        for (int e = graph.inBegin(node); e < graph.inEnd(node); e++) {
+            if (type == null || graph.getInType(e) == type) consumer.accept(graph.getSource(e));
+        }
+    }
+
+    public int[] getSuccessors(int node, GEdge.ApkRelationships type) {
+        int[] result = new int[graph.outEnd(node) - graph.outBegin(node)];
+        int[] num = {0};
+        forEachSuccessor(node, type, n -> result[num[0]++] = n);
+        return Arrays.copyOf(result, num[0]);
+    }
+
+    public int[] getPredecessors(int node, GEdge.ApkRelationships type) {
+        int[] result = new int[graph.inEnd(node) - graph.inBegin(node)];
+        int[] num = {0};
+        forEachPredecessor(node, type, n -> result[num[0]++] = n);
+        return Arrays.copyOf(result, num[0]);
+    }
+
+    /**
+     * Breadth-first search from all sources at once
+     * @param types edge types to follow
+     * @param maxDepth -1 for no limit
+     * @param reverse follow edges backwards
+     * @return hops from the nearest source per node, -1 if not reached
+     */
+    public int[] bfs(int[] sources, Set<GEdge.ApkRelationships> types, int maxDepth, boolean reverse) {
+        int[] depth = new int[nodes.size()];
+        Arrays.fill(depth, -1);
+        int[] queue = new int[nodes.size()];
+        int head = 0, tail = 0;
+        for (int source : sources) {
+            if (depth[source] < 0) {
+                depth[source] = 0;
+                queue[tail++] = source;
+            }
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            if (maxDepth >= 0 && depth[node] >= maxDepth) continue;
+            int begin = reverse ? graph.inBegin(node) : graph.outBegin(node);
+            int end = reverse ? graph.inEnd(node) : graph.outEnd(node);
+            for (int e = begin; e < end; e++) {
+                if (!types.contains(reverse ? graph.getInType(e) : graph.getType(e))) continue;
+                int next = reverse ? graph.getSource(e) : graph.getTarget(e);
+                if (depth[next] < 0) {
+                    depth[next] = depth[node] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Depth-first search from each source on its own, e.g., the code reached
+     * from each ui node
+     * @param types edge types to follow
+     * @return source -> nodes reached (with the source), in the order visited
+     */
+    public Map<Integer, int[]> dfsEach(int[] sources, Set<GEdge.ApkRelationships> types) {
+        Map<Integer, int[]> result = new LinkedHashMap<>();
+        // visited marks are stamped with the search number, so they are not cleared
+        int[] stamp = new int[nodes.size()];
+        int[] stack = new int[nodes.size()];
+        int[] reached = new int[nodes.size()];
+        int search = 0;
+        for (int source : sources) {
+            search++;
+            int top = 0, num = 0;
+            stack[top++] = source;
+            stamp[source] = search;
+            while (top > 0) {
+                int node = stack[--top];
+                reached[num++] = node;
+                // push in reverse, so the first successor is visited first
+                for (int e = graph.outEnd(node) - 1; e >= graph.outBegin(node); e--) {
+                    int next = graph.getTarget(e);
+                    if (stamp[next] != search && types.contains(graph.getType(e))) {
+                        stamp[next] = search;
+                        stack[top++] = next;
+                    }
+                }
+            }
+            result.put(source, Arrays.copyOf(reached, num));
+        }
+        return result;
+    }
 
-    public GContainer() {
-        gNodes = new IterableSet<>();
-        gEdges = new IterableSet<>();
+    private static String orNull(String value) {
+        return "-1".equals(value) ? null : value;
     }
 
-    public GNode findNodeByID(int uuid) {
-        return null;
+    /**
+     * Split a csv line, names are quoted and can have commas
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
     }
 }
@@ -1,49 +1,23 @@
-public class GEdge implements Comparable<GEdge>{
-    public int uuid;
-    public GNode src;
-    public GNode tgt;
-    public String relation;
+/**
+ * Edge types, the edges are kept in a GraphBuilder, then a CsrGraph
+ */
+public class GEdge {
+    // node indexes in a key take 30 bits each
+    static final int MAX_NODE_NUM = 1 << 30;
 
     public enum ApkRelationships {
         CALL, FIND, HOLD, USE, EVENT
     }
 
-    public GNode getSrc() {
-        return src;
-    }
-
-    public GNode getTgt() {
-        return tgt;
-    }
-
-    public GEdge(GNode src, GNode tgt, String relation) {
-        this.src = src;
-        this.tgt = tgt;
-        String str = src.getUuid() + tgt.getUuid() + relation;
-        this.uuid = str.hashCode();
-        this.relation = relation;
-    }
-
-    public int getId() {
-        return uuid;
-    }
-
-    @Override
-    public int compareTo(GEdge o) {
-        int anotherId = o.getId();
-        return Integer.compare(uuid, anotherId);
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        GEdge edge = (GEdge) o;
-        return uuid == edge.uuid;
-    }
-
-    @Override
-    public int hashCode() {
-        return uuid;
+    /**
+     * Pack an edge between two node indexes into one long, for dedup without
+     * objects. Supports up to 2^30 nodes
+     * @throws IllegalArgumentException if an index does not fit in 30 bits
+     */
+    public static long key(int src, int tgt, ApkRelationships relation) {
+        if (src < 0 || src >= MAX_NODE_NUM || tgt < 0 || tgt >= MAX_NODE_NUM) {
+            throw new IllegalArgumentException(String.format("node index out of range: %d -> %d", src, tgt));
+        }
+        return (long) src << 33 | (long) tgt << 3 | relation.ordinal();
     }
 }
@@ -1,110 +1,60 @@
-import java.util.*;
-
-public class GNode implements Comparable<GNode>{
-    private final int uuid;
-
+/**
+ * Node types and uuids, the node data is kept in a NodeTable
+ */
+public class GNode {
     public enum ApkNodeLabels {
         METHOD, ANDROID, JAVA, CONTROL, CONTAINER
     }
 
-    public String name;
-
-    private Map<String, String> attributes;
-
-    public String type;
-
-    public Set<GNode> outNodes;
-
-    public GNode(String name, String type){
-        this.name = name;
-        this.type = type;
-        String s = name + type;
-        this.uuid = s.hashCode();
-    }
-
-    public GNode(String name, String type, String salt){
-        this.name = name;
-        this.type = type;
-        String s = name + salt;
-        this.uuid = s.hashCode();
-    }
-
-    public GNode(int uuid) {
-        this.uuid = uuid;
-    }
-
-    public GNode(int uuid, String name) {
-        this.uuid = uuid;
-        this.name = name;
-    }
-
-    public int getUuid() { return uuid; }
-
-    @Override
-    public int compareTo(GNode o) {
-        int anotherId = o.getUuid();
-        return Integer.compare(uuid, anotherId);
+    public static long methodUuid(String signature) {
+        return hash(signature + ApkNodeLabels.METHOD);
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        GNode node = (GNode) o;
-        return uuid == node.uuid;
+    /**
+     * @param salt to tell apart the controls of the same name in layouts
+     */
+    public static long uiUuid(String name, String salt) {
+        return hash(name + salt);
     }
 
-    @Override
-    public int hashCode() {
-        return uuid;
-    }
-
-    @SuppressWarnings("unused declaration")
-    public void addOutEdge(GNode node) {
-        outNodes.add(node);
-    }
-
-    @SuppressWarnings("unused declaration")
-    public Set<GNode> getOutNodes() {
-        return outNodes;
-    }
-
-    public int getTypeID() {
-        return GNode.ApkNodeLabels.valueOf(this.type.toUpperCase()).ordinal();
-    }
-
-    public void addAttribute(String key, String value) {
-        if (attributes == null) {
-            attributes = new HashMap<>();
+    /**
+     * 64-bit FNV-1a with a final mix, so that distinct names (practically)
+     * never share an id, as they did with the 32-bit string hash
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
         }
-        attributes.put(key, value);
-    }
-
-    public String getAttribute(String key) {
-        return attributes.getOrDefault(key, null);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
     }
 
-    public void setType(ApkNodeLabels label) {
-        this.type = label.toString();
-    }
-
-    public static void updateNodeType(GNode n) {
-        String prefix = n.name.split("\\.")[0];
+    public static ApkNodeLabels getMethodType(String signature) {
+        String prefix = signature.split("\\.")[0];
         if (prefix.replace("<android", "").length() < 2 ||
-            n.name.startsWith("<com.android.")) {
+            signature.startsWith("<com.android.")) {
             // android. and androidx.
-            n.setType(GNode.ApkNodeLabels.ANDROID);
+            return ApkNodeLabels.ANDROID;
         } else if (prefix.replace("<java", "").length() < 2 ||
-            n.name.startsWith("<com.sun.")) {
+            signature.startsWith("<com.sun.")) {
             // java. and javax.
-            n.setType(GNode.ApkNodeLabels.JAVA);
+            return ApkNodeLabels.JAVA;
         } else {
-            n.setType(GNode.ApkNodeLabels.METHOD);
+            return ApkNodeLabels.METHOD;
         }
     }
 
-    public static void addNodeClass(GNode n) {
-        String clazz = n.name.substring(1, n.name.indexOf(":"));
-        n.addAttribute("class", clazz);
+    public static ApkNodeLabels getUiType(String name) {
+        name = name.toLowerCase();
+        return name.endsWith("layout") || name.endsWith("container") ?
+                ApkNodeLabels.CONTAINER : ApkNodeLabels.CONTROL;
+    }
+
+    public static String getMethodClass(String signature) {
+        return signature.substring(1, signature.indexOf(":"));
     }
 }
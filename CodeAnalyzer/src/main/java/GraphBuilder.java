@@ -0,0 +1,173 @@
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Collect the nodes and typed edges of a graph from several threads, then
+ * freeze them into a CsrGraph. Nodes are interned by uuid in lock stripes,
+ * and edges are appended to shared chunks without locks. Repeated nodes and
+ * edges are dropped (the first node wins), as are edges to unknown nodes.
+ * A uuid repeated with another name is a hash collision, and fails.
+ * With a MundaneMatcher, method nodes are marked as noise when added.
+ * freeze() must be called after all adding threads are done
+ */
+public class GraphBuilder {
+    private static final GEdge.ApkRelationships[] TYPES = GEdge.ApkRelationships.values();
+    private static final int STRIPES = 16;
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << 15;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    // the order nodes are added in, kept in the frozen graph
+    private final AtomicInteger nodeSeq = new AtomicInteger();
+    // src uuid, tgt uuid, type per edge
+    private final AtomicReferenceArray<long[]> edgeChunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final AtomicLong edgeNum = new AtomicLong();
+    private volatile boolean frozen;
+    private volatile MundaneMatcher noiseMatcher;
+
+    private static class Stripe {
+        final NodeTable nodes = new NodeTable(256);
+        int[] seq = new int[256];
+    }
+
+    public GraphBuilder() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+    }
+
+    /**
+     * Mark the noise of nodes added after, set it before adding
+     */
+    public void setNoiseMatcher(MundaneMatcher matcher) {
+        checkNotFrozen();
+        noiseMatcher = matcher;
+    }
+
+    /**
+     * @return true if the node is new
+     */
+    public boolean addNode(long uuid, String name, GNode.ApkNodeLabels type) {
+        return addNode(uuid, name, type, null, null, null, null, null);
+    }
+
+    /**
+     * @param className class of a method node, or null
+     * @param xml layout file of a ui node, or null
+     * @param id resource id of a ui node, or null
+     * @param text text of a ui node, or null
+     * @param layout layout included by a ui node, or null
+     * @return true if the node is new
+     * @throws IllegalStateException if the uuid is taken by a node of another name
+     */
+    public boolean addNode(long uuid, String name, GNode.ApkNodeLabels type, String className,
+                           String xml, String id, String text, String layout) {
+        checkNotFrozen();
+        Stripe stripe = stripes[stripeOf(uuid)];
+        synchronized (stripe) {
+            NodeTable nodes = stripe.nodes;
+            int known = nodes.indexOf(uuid);
+            if (known >= 0) {
+                if (!Objects.equals(nodes.getName(known), name)) {
+                    throw new IllegalStateException(String.format("uuid %d of %s is taken by %s",
+                            uuid, name, nodes.getName(known)));
+                }
+                return false;
+            }
+            int row = nodes.add(uuid, name, type);
+            if (className != null) nodes.setClassName(row, className);
+            if (xml != null) nodes.setXml(row, xml);
+            if (id != null) nodes.setId(row, id);
+            if (text != null) nodes.setText(row, text);
+            if (layout != null) nodes.setLayout(row, layout);
+            MundaneMatcher matcher = noiseMatcher;
+            if (matcher != null && name != null && matcher.isNoise(name)) nodes.setNoise(row, true);
+            if (row == stripe.seq.length) stripe.seq = Arrays.copyOf(stripe.seq, row * 2);
+            stripe.seq[row] = nodeSeq.getAndIncrement();
+            return true;
+        }
+    }
+
+    public void addEdge(long src, long tgt, GEdge.ApkRelationships type) {
+        checkNotFrozen();
+        long i = edgeNum.getAndIncrement();
+        int c = (int) (i >>> CHUNK_BITS);
+        if (c >= MAX_CHUNKS) throw new IllegalStateException("too many edges");
+        long[] chunk = edgeChunks.get(c);
+        if (chunk == null) {
+            edgeChunks.compareAndSet(c, null, new long[CHUNK_SIZE * 3]);
+            chunk = edgeChunks.get(c);
+        }
+        int offset = (int) (i & (CHUNK_SIZE - 1)) * 3;
+        chunk[offset] = src;
+        chunk[offset + 1] = tgt;
+        chunk[offset + 2] = type.ordinal();
+    }
+
+    public int getNodeNum() {
+        return nodeSeq.get();
+    }
+
+    /**
+     * @return number of edges added, with the repeated ones
+     */
+    public long getEdgeNum() {
+        return edgeNum.get();
+    }
+
+    /**
+     * Build the graph, the builder cannot be used after
+     */
+    public CsrGraph freeze() {
+        checkNotFrozen();
+        frozen = true;
+        // nodes in the order they were added
+        int nodeNum = nodeSeq.get();
+        int[] stripeOfSeq = new int[nodeNum];
+        int[] rowOfSeq = new int[nodeNum];
+        for (int s = 0; s < STRIPES; s++) {
+            for (int row = 0; row < stripes[s].nodes.size(); row++) {
+                stripeOfSeq[stripes[s].seq[row]] = s;
+                rowOfSeq[stripes[s].seq[row]] = row;
+            }
+        }
+        NodeTable nodes = new NodeTable(nodeNum);
+        // the column is written even if no node is noise
+        if (noiseMatcher != null) nodes.enableNoise();
+        for (int i = 0; i < nodeNum; i++) {
+            nodes.addRow(stripes[stripeOfSeq[i]].nodes, rowOfSeq[i]);
+        }
+        long total = edgeNum.get();
+        LongHashSet seen = new LongHashSet((int) Math.min(total, 1 << 28));
+        int[] src = new int[(int) Math.min(total, Integer.MAX_VALUE - 8)];
+        int[] tgt = new int[src.length];
+        byte[] types = new byte[src.length];
+        int num = 0;
+        for (long i = 0; i < total; i++) {
+            long[] chunk = edgeChunks.get((int) (i >>> CHUNK_BITS));
+            int offset = (int) (i & (CHUNK_SIZE - 1)) * 3;
+            int s = nodes.indexOf(chunk[offset]);
+            int t = nodes.indexOf(chunk[offset + 1]);
+            if (s < 0 || t < 0) continue;
+            GEdge.ApkRelationships type = TYPES[(int) chunk[offset + 2]];
+            if (!seen.add(GEdge.key(s, t, type))) continue;
+            src[num] = s;
+            tgt[num] = t;
+            types[num] = (byte) type.ordinal();
+            num++;
+        }
+        for (int i = 0; i < MAX_CHUNKS && edgeChunks.get(i) != null; i++) edgeChunks.set(i, null);
+        return new CsrGraph(nodes, src, tgt, types, num);
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) throw new IllegalStateException("graph is frozen");
+    }
+
+    private static int stripeOf(long uuid) {
+        // the low bits are used by the node index in a stripe
+        return (int) (uuid >>> 60);
+    }
+}
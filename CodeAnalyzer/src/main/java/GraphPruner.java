@@ -0,0 +1,79 @@
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keep only the part of the graph that downstream code explores: the ui
+ * nodes, the methods linked to them (find, use and event links, and the
+ * methods of ui-related switch and thread links), and all they reach
+ */
+public class GraphPruner {
+    // e.g., <a.b.C: void <init>(int)>
+    private static final Pattern SIGNATURE = Pattern.compile("<[^\\s:<>]+: [^()]*\\([^()]*\\)>");
+    private final CsrGraph graph;
+    private final BitSet seeds = new BitSet();
+    private int uiNum;
+    private int methodNum;
+    private final Map<String, Object> stats = new LinkedHashMap<>();
+
+    public GraphPruner(CsrGraph graph) {
+        this.graph = graph;
+        NodeTable nodes = graph.getNodes();
+        for (int node = 0; node < nodes.size(); node++) {
+            if (nodes.getTypeID(node) >= GNode.ApkNodeLabels.CONTROL.ordinal()) {
+                seeds.set(node);
+                uiNum++;
+            }
+        }
+    }
+
+    /**
+     * Keep the methods whose signatures are in the text (e.g., an event
+     * handler, or a statement in a switch branch), if they are in the graph
+     */
+    public void addMethods(String text) {
+        Matcher matcher = SIGNATURE.matcher(text.replace("&lt;", "<").replace("&gt;", ">"));
+        while (matcher.find()) {
+            int node = graph.getNodes().indexOf(GNode.methodUuid(matcher.group()));
+            if (node >= 0 && !seeds.get(node)) {
+                seeds.set(node);
+                methodNum++;
+            }
+        }
+    }
+
+    public CsrGraph prune() {
+        long start = System.currentTimeMillis();
+        BitSet keep = (BitSet) seeds.clone();
+        int[] queue = new int[graph.getNodeNum()];
+        int head = 0, tail = 0;
+        for (int node = keep.nextSetBit(0); node >= 0; node = keep.nextSetBit(node + 1)) {
+            queue[tail++] = node;
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int e = graph.outBegin(node); e < graph.outEnd(node); e++) {
+                int next = graph.getTarget(e);
+                if (!keep.get(next)) {
+                    keep.set(next);
+                    queue[tail++] = next;
+                }
+            }
+        }
+        CsrGraph pruned = graph.subgraph(keep);
+        stats.put("uiNodes", uiNum);
+        stats.put("seedMethods", methodNum);
+        stats.put("nodesBefore", graph.getNodeNum());
+        stats.put("nodesAfter", pruned.getNodeNum());
+        stats.put("edgesBefore", graph.getEdgeNum());
+        stats.put("edgesAfter", pruned.getEdgeNum());
+        stats.put("nodesKept", graph.getNodeNum() == 0 ? 1 : (double) pruned.getNodeNum() / graph.getNodeNum());
+        stats.put("edgesKept", graph.getEdgeNum() == 0 ? 1 : (double) pruned.getEdgeNum() / graph.getEdgeNum());
+        stats.put("timeMs", System.currentTimeMillis() - start);
+        return pruned;
+    }
+
+    public Map<String, Object> getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,404 @@
+import org.jf.dexlib2.formatter.DexFormatter;
+import org.jf.dexlib2.iface.*;
+import org.jf.dexlib2.iface.debug.*;
+import org.jf.dexlib2.iface.instruction.*;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.iface.reference.Reference;
+import soot.*;
+import soot.jimple.parser.JimpleAST;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of jimple bodies, shared by the apps of a run and by later runs.
+ * The same library classes are in many apps, and building their bodies from the
+ * dex is a large part of the soot time. A class is keyed by a hash of its dex
+ * code in which references are hashed by name rather than by dex index, so the
+ * same class gives the same key in any app.
+ * Only the bodies are taken from the cache, classes, fields and their tags are
+ * still loaded from the dex. Bodies are typed against the class hierarchy of the
+ * app they were built in, which is the same for the same class in nearly all cases
+ */
+public class JimpleCache {
+    // bump when the jimple of a class may change (e.g., a new soot version)
+    private static final String VERSION = "2";
+    private static final String EXTENSION = ".jimple";
+    // comment lines after the class with the order of the locals of a method,
+    // which the parser does not keep
+    private static final String LOCALS_PREFIX = "//locals\t";
+    private final File dir;
+    private final long maxBytes;
+    // bytes in the cache, -1 if not counted yet
+    private long size = -1;
+    // classes whose bodies are taken from the cache in the current app
+    private final Set<String> attached = new HashSet<>();
+    // bodies read from the cache in the current app
+    private final AtomicInteger hits = new AtomicInteger();
+
+    /**
+     * @param maxMB size bound, the least recently used classes are evicted beyond it
+     */
+    public JimpleCache(String dir, long maxMB) {
+        this.dir = new File(dir);
+        this.maxBytes = maxMB << 20;
+        if (!this.dir.isDirectory()) {
+            boolean ignored = this.dir.mkdirs();
+        }
+    }
+
+    /**
+     * Let soot build the bodies of cached classes from the cache. Must be called
+     * after the classes are loaded, and before any body is retrieved
+     * @param classHashes dex class -> hash, see hashClass
+     * @return number of classes found in the cache
+     */
+    public int attach(Map<String, String> classHashes) {
+        attached.clear();
+        hits.set(0);
+        int api = Scene.v().getAndroidAPIVersion();
+        for (SootClass klass : new ArrayList<>(Scene.v().getClasses())) {
+            String hash = classHashes.get(klass.getName());
+            if (hash == null || klass.isPhantom()) continue;
+            File file = getFile(hash, api);
+            if (!file.isFile()) continue;
+            CachedBodies bodies = new CachedBodies(file);
+            for (SootMethod method : klass.getMethods()) {
+                if (!method.isConcrete() || method.hasActiveBody() || method.getSource() == null) continue;
+                method.setSource(new CachedMethodSource(bodies, method.getSource(), hits));
+            }
+            // the cache is evicted by the time of last use
+            boolean ignored = file.setLastModified(System.currentTimeMillis());
+            attached.add(klass.getName());
+        }
+        return attached.size();
+    }
+
+    /**
+     * @return number of bodies read from the cache since attach, the others
+     * of the attached classes are built from the dex
+     */
+    public int getHitNum() {
+        return hits.get();
+    }
+
+    /**
+     * Save the classes of the current app whose bodies are all built, then
+     * evict the least recently used ones if the cache is over its size
+     * @return number of classes saved
+     */
+    public int store(Map<String, String> classHashes) {
+        int api = Scene.v().getAndroidAPIVersion();
+        int stored = 0;
+        for (SootClass klass : new ArrayList<>(Scene.v().getClasses())) {
+            String hash = classHashes.get(klass.getName());
+            if (hash == null || klass.isPhantom() || attached.contains(klass.getName())) continue;
+            File file = getFile(hash, api);
+            if (file.isFile() || !hasAllBodies(klass)) continue;
+            byte[] data;
+            try {
+                StringWriter writer = new StringWriter();
+                PrintWriter printer = new PrintWriter(writer);
+                Printer.v().printTo(klass, printer);
+                printLocalOrder(klass, printer);
+                printer.flush();
+                data = writer.toString().getBytes(StandardCharsets.UTF_8);
+                // not all printed jimple can be parsed back (e.g., odd names)
+                new JimpleAST(new ByteArrayInputStream(data));
+            } catch (Exception e) {
+                Util.log.finer(String.format("cannot cache %s: %s", klass.getName(), e.getMessage()));
+                continue;
+            }
+            if (write(file, data)) {
+                stored++;
+                if (size >= 0) size += data.length;
+            }
+        }
+        evict();
+        return stored;
+    }
+
+    private static void printLocalOrder(SootClass klass, PrintWriter printer) {
+        for (SootMethod method : klass.getMethods()) {
+            if (!method.hasActiveBody()) continue;
+            StringJoiner names = new StringJoiner(" ");
+            for (Local local : method.getActiveBody().getLocals()) names.add(local.getName());
+            printer.println(LOCALS_PREFIX + method.getSubSignature() + "\t" + names);
+        }
+    }
+
+    private static boolean hasAllBodies(SootClass klass) {
+        boolean any = false;
+        for (SootMethod method : klass.getMethods()) {
+            if (!method.isConcrete()) continue;
+            if (!method.hasActiveBody()) return false;
+            any = true;
+        }
+        return any;
+    }
+
+    private boolean write(File file, byte[] data) {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory()) {
+            boolean ignored = parent.mkdirs();
+        }
+        // other workers may share the cache, never leave a half-written file.
+        // thread ids repeat across jvms, so each write gets a temp file of its own
+        String key = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(parent.toPath(), key, ".tmp");
+            Files.write(tmp, data);
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            try {
+                if (tmp != null) Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+            }
+            return false;
+        }
+    }
+
+    private void evict() {
+        if (size < 0) size = listFiles().stream().mapToLong(File::length).sum();
+        if (size <= maxBytes) return;
+        List<File> files = listFiles();
+        Map<File, Long> lastUsed = new HashMap<>();
+        for (File file : files) lastUsed.put(file, file.lastModified());
+        files.sort(Comparator.comparingLong(lastUsed::get));
+        // evict a bit more, so that it is not done again for the next app
+        long target = maxBytes / 10 * 9;
+        int evicted = 0;
+        for (File file : files) {
+            if (size <= target) break;
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+                evicted++;
+            }
+        }
+        Util.log.info(String.format("jimple cache: %d classes evicted, %d MB left", evicted, size >> 20));
+    }
+
+    private List<File> listFiles() {
+        List<File> files = new ArrayList<>();
+        File[] shards = dir.listFiles(File::isDirectory);
+        if (shards == null) return files;
+        for (File shard : shards) {
+            File[] entries = shard.listFiles((d, name) -> name.endsWith(EXTENSION));
+            if (entries != null) files.addAll(Arrays.asList(entries));
+        }
+        return files;
+    }
+
+    private File getFile(String classHash, int api) {
+        String key = Util.toHex(sha256(VERSION + ":" + api + ":" + classHash));
+        return new File(new File(dir, key.substring(0, 2)), key + EXTENSION);
+    }
+
+    /**
+     * Hash what soot reads to build the bodies of a class: the class header,
+     * fields, and for each method its code, try blocks and debug info
+     */
+    public static String hashClass(ClassDef classDef) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(classDef.getType()).append('|').append(classDef.getAccessFlags())
+                .append('|').append(classDef.getSuperclass());
+        for (String type : classDef.getInterfaces()) builder.append('|').append(type);
+        for (Field field : classDef.getFields()) {
+            builder.append("\nF ").append(field.getAccessFlags()).append(' ')
+                    .append(field.getName()).append(' ').append(field.getType());
+        }
+        for (Method method : classDef.getMethods()) {
+            builder.append("\nM ").append(method.getAccessFlags()).append(' ')
+                    .append(DexFormatter.INSTANCE.getShortMethodDescriptor(method));
+            MethodImplementation impl = method.getImplementation();
+            if (impl == null) continue;
+            builder.append(" R").append(impl.getRegisterCount());
+            for (Instruction instruction : impl.getInstructions()) {
+                appendInstruction(builder.append('\n'), instruction);
+            }
+            for (TryBlock<? extends ExceptionHandler> tryBlock : impl.getTryBlocks()) {
+                builder.append("\nT ").append(tryBlock.getStartCodeAddress())
+                        .append(' ').append(tryBlock.getCodeUnitCount());
+                for (ExceptionHandler handler : tryBlock.getExceptionHandlers()) {
+                    builder.append(' ').append(handler.getExceptionType())
+                            .append('@').append(handler.getHandlerCodeAddress());
+                }
+            }
+            for (DebugItem item : impl.getDebugItems()) {
+                builder.append("\nD ").append(item.getDebugItemType()).append('@').append(item.getCodeAddress());
+                if (item instanceof LineNumber) builder.append(' ').append(((LineNumber) item).getLineNumber());
+                if (item instanceof StartLocal) builder.append(" v").append(((StartLocal) item).getRegister());
+                if (item instanceof EndLocal) builder.append(" v").append(((EndLocal) item).getRegister());
+                if (item instanceof RestartLocal) builder.append(" v").append(((RestartLocal) item).getRegister());
+                if (item instanceof LocalInfo) {
+                    LocalInfo local = (LocalInfo) item;
+                    builder.append(' ').append(local.getName()).append(' ').append(local.getType())
+                            .append(' ').append(local.getSignature());
+                }
+            }
+        }
+        return Util.toHex(sha256(builder.toString()));
+    }
+
+    private static void appendInstruction(StringBuilder builder, Instruction instruction) {
+        builder.append(instruction.getOpcode().name).append(' ').append(instruction.getCodeUnits());
+        if (instruction instanceof OneRegisterInstruction) {
+            builder.append(" a").append(((OneRegisterInstruction) instruction).getRegisterA());
+        }
+        if (instruction instanceof TwoRegisterInstruction) {
+            builder.append(" b").append(((TwoRegisterInstruction) instruction).getRegisterB());
+        }
+        if (instruction instanceof ThreeRegisterInstruction) {
+            builder.append(" c").append(((ThreeRegisterInstruction) instruction).getRegisterC());
+        }
+        if (instruction instanceof FiveRegisterInstruction) {
+            FiveRegisterInstruction five = (FiveRegisterInstruction) instruction;
+            builder.append(" {").append(five.getRegisterC()).append(',').append(five.getRegisterD())
+                    .append(',').append(five.getRegisterE()).append(',').append(five.getRegisterF())
+                    .append(',').append(five.getRegisterG()).append('}');
+        }
+        if (instruction instanceof RegisterRangeInstruction) {
+            builder.append(" r").append(((RegisterRangeInstruction) instruction).getStartRegister());
+        }
+        if (instruction instanceof VariableRegisterInstruction) {
+            builder.append(" n").append(((VariableRegisterInstruction) instruction).getRegisterCount());
+        }
+        if (instruction instanceof WideLiteralInstruction) {
+            builder.append(" #").append(((WideLiteralInstruction) instruction).getWideLiteral());
+        }
+        if (instruction instanceof OffsetInstruction) {
+            builder.append(" +").append(((OffsetInstruction) instruction).getCodeOffset());
+        }
+        if (instruction instanceof ReferenceInstruction) {
+            appendReference(builder, ((ReferenceInstruction) instruction).getReference());
+        }
+        if (instruction instanceof DualReferenceInstruction) {
+            appendReference(builder, ((DualReferenceInstruction) instruction).getReference2());
+        }
+        if (instruction instanceof VerificationErrorInstruction) {
+            builder.append(" e").append(((VerificationErrorInstruction) instruction).getVerificationError());
+        }
+        if (instruction instanceof SwitchPayload) {
+            for (SwitchElement element : ((SwitchPayload) instruction).getSwitchElements()) {
+                builder.append(' ').append(element.getKey()).append(':').append(element.getOffset());
+            }
+        }
+        if (instruction instanceof ArrayPayload) {
+            ArrayPayload payload = (ArrayPayload) instruction;
+            builder.append(" w").append(payload.getElementWidth()).append(payload.getArrayElements());
+        }
+    }
+
+    private static void appendReference(StringBuilder builder, Reference reference) {
+        builder.append(" '").append(DexFormatter.INSTANCE.getReference(reference)).append('\'');
+    }
+
+    private static byte[] sha256(String s) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The jimple file of a class, parsed once on the first body requested
+     */
+    private static class CachedBodies {
+        private final File file;
+        private JimpleAST ast;
+        // method sub-signature -> names of its locals in order
+        private final Map<String, String[]> localOrders = new HashMap<>();
+        private boolean broken;
+
+        CachedBodies(File file) {
+            this.file = file;
+        }
+
+        synchronized JimpleAST get() {
+            if (ast == null && !broken) {
+                try {
+                    byte[] data = Files.readAllBytes(file.toPath());
+                    ast = new JimpleAST(new ByteArrayInputStream(data));
+                    for (String line : new String(data, StandardCharsets.UTF_8).split("\n")) {
+                        if (!line.startsWith(LOCALS_PREFIX)) continue;
+                        String[] parts = line.substring(LOCALS_PREFIX.length()).split("\t", -1);
+                        if (parts.length == 2) {
+                            localOrders.put(parts[0], parts[1].isEmpty() ? new String[0] : parts[1].split(" "));
+                        }
+                    }
+                } catch (Exception e) {
+                    // e.g., evicted by another worker, the dex is used instead
+                    broken = true;
+                }
+            }
+            return ast;
+        }
+
+        synchronized String[] getLocalOrder(SootMethod method) {
+            return localOrders.get(method.getSubSignature());
+        }
+    }
+
+    private static class CachedMethodSource implements MethodSource {
+        private final CachedBodies bodies;
+        // the dex source, used if the cached body cannot be read
+        private final MethodSource fallback;
+        private final AtomicInteger hits;
+
+        CachedMethodSource(CachedBodies bodies, MethodSource fallback, AtomicInteger hits) {
+            this.bodies = bodies;
+            this.fallback = fallback;
+            this.hits = hits;
+        }
+
+        /**
+         * The cached jimple is the output of the jb pack, which is not run
+         * again (as JimpleMethodSource does): it renames the locals, and the
+         * links print units with their locals
+         */
+        @Override
+        public Body getBody(SootMethod m, String phaseName) {
+            JimpleAST ast = bodies.get();
+            if (ast != null) {
+                try {
+                    Body body = ast.getBody(m);
+                    if (body != null && restoreLocalOrder(body, bodies.getLocalOrder(m))) {
+                        hits.incrementAndGet();
+                        return body;
+                    }
+                } catch (RuntimeException ignored) {}
+            }
+            return fallback.getBody(m, phaseName);
+        }
+
+        /**
+         * @return false if the locals are not the ones saved
+         */
+        private static boolean restoreLocalOrder(Body body, String[] names) {
+            if (names == null || names.length != body.getLocalCount()) return false;
+            Map<String, Local> locals = new HashMap<>();
+            for (Local local : body.getLocals()) locals.put(local.getName(), local);
+            List<Local> ordered = new ArrayList<>(names.length);
+            for (String name : names) {
+                Local local = locals.get(name);
+                if (local == null) return false;
+                ordered.add(local);
+            }
+            body.getLocals().clear();
+            body.getLocals().addAll(ordered);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import soot.Printer;
+import soot.SootClass;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Write the jimple of classes into the output folder of an app with a pool
+ * of threads, so that it overlaps with the linking stages. The bodies must be
+ * built before: printing a class builds the bodies it misses, which the
+ * linking stages would then see
+ */
+public class JimpleWriter {
+    static final String EXTENSION = ".jimple";
+    private final File dir;
+    private final boolean compress;
+    private final ExecutorService executor;
+    private final List<Future<Boolean>> futures = new ArrayList<>();
+    private int failed = -1;
+
+    /**
+     * @param compress write gzip files (.jimple.gz)
+     */
+    public JimpleWriter(String dir, boolean compress, int threadNum) {
+        this.dir = new File(dir);
+        this.compress = compress;
+        this.executor = Executors.newFixedThreadPool(Math.max(threadNum, 1), runnable -> {
+            Thread thread = new Thread(runnable, "jimple-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void submit(SootClass klass) {
+        futures.add(executor.submit(() -> write(klass)));
+    }
+
+    private boolean write(SootClass klass) {
+        String name = klass.getName() + EXTENSION + (compress ? ".gz" : "");
+        try (OutputStream file = new FileOutputStream(new File(dir, name));
+             PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                     compress ? new GZIPOutputStream(file) : file, StandardCharsets.UTF_8)))) {
+            Printer.v().printTo(klass, writer);
+            return !writer.checkError();
+        } catch (IOException | RuntimeException e) {
+            Util.log.finer(String.format("cannot write jimple of %s: %s", klass.getName(), e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Wait for all submitted classes, can be called more than once
+     * @return number of classes that cannot be written
+     */
+    public int finish() {
+        if (failed >= 0) return failed;
+        failed = 0;
+        for (Future<Boolean> future : futures) {
+            try {
+                if (!future.get()) failed++;
+            } catch (ExecutionException e) {
+                failed++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed++;
+                break;
+            }
+        }
+        executor.shutdownNow();
+        return failed;
+    }
+
+    public int getSubmittedNum() {
+        return futures.size();
+    }
+}
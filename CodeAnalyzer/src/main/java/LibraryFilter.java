@@ -0,0 +1,158 @@
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.JSONWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Third-party library packages kept out of the analysis. Their classes are
+ * loaded as signatures only (phantom), so app calls into a library stay in
+ * the cg as one leaf node per library api, while the library code itself
+ * gets no body and no edges
+ */
+public class LibraryFilter {
+    static final String REPORT_FILE_NAME = "tpl_report.json";
+    private final List<String> packages;
+
+    private LibraryFilter(List<String> packages) {
+        this.packages = packages;
+    }
+
+    /**
+     * @param listFile package list, one per line, in the format of Scripts/lists/tpl_list.txt
+     * @param tplJson libradar output (tpl.json), ignored if missing
+     */
+    public static LibraryFilter load(String listFile, String tplJson, Logger log) throws IOException {
+        Set<String> packages = new TreeSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(listFile), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("//")) continue;
+                packages.add(line);
+            }
+        }
+        if (new File(tplJson).isFile()) {
+            JSONArray array = JSON.parseArray(new String(
+                    Files.readAllBytes(Paths.get(tplJson)), StandardCharsets.UTF_8));
+            for (int i = 0; i < array.size(); i++) {
+                // e.g., Lcom/google/gson
+                String pkg = array.getJSONObject(i).getString("Package");
+                if (pkg != null && pkg.length() > 1) packages.add(pkg.substring(1).replace('/', '.'));
+            }
+        }
+        List<String> kept = new ArrayList<>();
+        for (String pkg : packages) {
+            if (DexPrescan.isPlatformPackage(pkg + ".")) {
+                log.warning("platform package cannot be excluded: " + pkg);
+            } else {
+                kept.add(pkg);
+            }
+        }
+        return new LibraryFilter(kept);
+    }
+
+    public List<String> getPackages() {
+        return packages;
+    }
+
+    /**
+     * @return the packages in the format of soot exclusions
+     */
+    public List<String> getExcludedPackages() {
+        List<String> excluded = new ArrayList<>();
+        for (String pkg : packages) excluded.add(pkg + ".*");
+        return excluded;
+    }
+
+    public boolean isLibraryClass(String className) {
+        for (String pkg : packages) {
+            if (className.startsWith(pkg + ".")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Write the share of the excluded code in the dex, and the cg size and heap
+     * of this run. If the cg of an earlier run without exclusion is known, the
+     * saving is given against it
+     * @param classSizes dex class -> number of instructions
+     * @param baseline cg stats of a run without exclusion, or null
+     */
+    public void writeReport(String outPath, Map<String, Integer> classSizes,
+                            Map<String, Object> cgStats, Map<String, Object> baseline) {
+        Map<String, int[]> perPackage = new TreeMap<>();
+        long classes = 0, instructions = 0, tplClasses = 0, tplInstructions = 0;
+        for (Map.Entry<String, Integer> entry : classSizes.entrySet()) {
+            classes++;
+            instructions += entry.getValue();
+            for (String pkg : packages) {
+                if (entry.getKey().startsWith(pkg + ".")) {
+                    int[] sizes = perPackage.computeIfAbsent(pkg, k -> new int[2]);
+                    sizes[0]++;
+                    sizes[1] += entry.getValue();
+                    tplClasses++;
+                    tplInstructions += entry.getValue();
+                    break;
+                }
+            }
+        }
+        JSONObject report = new JSONObject();
+        JSONObject dex = new JSONObject();
+        dex.put("classes", classes);
+        dex.put("instructions", instructions);
+        dex.put("tplClasses", tplClasses);
+        dex.put("tplInstructions", tplInstructions);
+        dex.put("tplShare", instructions == 0 ? 0 : (double) tplInstructions / instructions);
+        report.put("dex", dex);
+        JSONObject libs = new JSONObject();
+        for (Map.Entry<String, int[]> entry : perPackage.entrySet()) {
+            JSONObject lib = new JSONObject();
+            lib.put("classes", entry.getValue()[0]);
+            lib.put("instructions", entry.getValue()[1]);
+            libs.put(entry.getKey(), lib);
+        }
+        report.put("packages", libs);
+        report.put("cg", cgStats);
+        if (baseline == null) {
+            // keep the baseline of the previous report
+            baseline = loadBaseline(outPath);
+        }
+        if (baseline != null) {
+            report.put("baseline", baseline);
+            JSONObject saved = new JSONObject();
+            for (String key : new String[]{"methods", "edges", "heapPeakMB", "timeMs"}) {
+                if (cgStats.get(key) instanceof Number && baseline.get(key) instanceof Number) {
+                    double base = ((Number) baseline.get(key)).doubleValue();
+                    double now = ((Number) cgStats.get(key)).doubleValue();
+                    saved.put(key, base == 0 ? 0 : 1 - now / base);
+                }
+            }
+            report.put("saved", saved);
+        }
+        String jsonData = JSON.toJSONString(report, JSONWriter.Feature.PrettyFormat);
+        try (FileWriter writer = new FileWriter(Paths.get(outPath, REPORT_FILE_NAME).toFile(), false)) {
+            writer.write(jsonData);
+        } catch (IOException e) {
+            Util.log.warning("cannot write tpl report: " + e.getMessage());
+        }
+    }
+
+    private static Map<String, Object> loadBaseline(String outPath) {
+        File file = Paths.get(outPath, REPORT_FILE_NAME).toFile();
+        if (!file.isFile()) return null;
+        try {
+            JSONObject report = JSON.parseObject(new String(
+                    Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            return report == null ? null : report.getJSONObject("baseline");
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+import com.alibaba.fastjson2.JSON;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.formatter.DexFormatter;
+import org.jf.dexlib2.iface.*;
+import org.jf.dexlib2.iface.instruction.*;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.StringReference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+import org.jf.dexlib2.iface.value.EncodedValue;
+import org.jf.dexlib2.iface.value.IntEncodedValue;
+
+import scala.Tuple4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * The ui-code links of EventAnalyzer (listener registrations) and CodeParser
+ * (findViewById ids and the strings set to views) read straight from the
+ * dalvik code, without soot and without a cg. Values are tracked per register
+ * along the instructions of a method, the way the soot passes search the
+ * units backwards, so the results are close to but not the same as theirs
+ */
+public class LiteAnalyzer {
+    private final String apk;
+    private final String arscJsonPath;
+    private final Logger log;
+    // static final int fields -> initial value, e.g., R.id.*
+    private final Map<String, Integer> constFields = new HashMap<>();
+    // class -> layout id of setContentView(int)
+    private final Map<String, String> classToXML = new HashMap<>();
+    // field -> view or inflated layout stored into it
+    private final Map<String, Value> fieldValues = new HashMap<>();
+    private Map<Integer, String> arscStrings;
+
+    private final Map<String, HashMap<String, HashSet<String>>> events = new HashMap<>();
+    private final HashMap<String, Set<String>> findEdges = new HashMap<>();
+    // ui_id@xml: class, method, type, value
+    private final Map<String, Tuple4<String, String, String, String>> hardcodeStrings = new HashMap<>();
+
+    public LiteAnalyzer(String apk, String arscJsonPath, Logger log) {
+        this.apk = apk;
+        this.arscJsonPath = arscJsonPath;
+        this.log = log;
+    }
+
+    /**
+     * Value held by a register
+     */
+    private static class Value {
+        static final int INT = 0, STRING = 1, THIS = 2, NEW = 3, VIEW = 4, LAYOUT = 5;
+        final int kind;
+        final String value;
+        // for a view: the layout set to the object it is found in
+        final String xml;
+
+        Value(int kind, String value, String xml) {
+            this.kind = kind;
+            this.value = value;
+            this.xml = xml;
+        }
+
+        Value(int kind, String value) {
+            this(kind, value, null);
+        }
+    }
+
+    public void run() throws IOException {
+        MultiDexContainer<? extends DexBackedDexFile> container =
+                DexFileFactory.loadDexContainer(new File(apk), Opcodes.getDefault());
+        // the first dex wins, as in soot
+        Map<String, ClassDef> classes = new LinkedHashMap<>();
+        for (String entry : container.getDexEntryNames()) {
+            for (ClassDef classDef : container.getEntry(entry).getDexFile().getClasses()) {
+                classes.putIfAbsent(classDef.getType(), classDef);
+            }
+        }
+        for (ClassDef classDef : classes.values()) {
+            for (Field field : classDef.getStaticFields()) {
+                EncodedValue value = field.getInitialValue();
+                if (value instanceof IntEncodedValue) {
+                    constFields.put(DexFormatter.INSTANCE.getFieldDescriptor(field), ((IntEncodedValue) value).getValue());
+                }
+            }
+        }
+        // round 1, layouts and fields that hold views, round 2, links
+        for (int round = 1; round <= 2; round++) {
+            for (ClassDef classDef : classes.values()) {
+                String className = DexPrescan.toJavaType(classDef.getType());
+                if (EventAnalyzer.isSdkUiClass(className)) continue;
+                for (Method method : classDef.getMethods()) {
+                    if (method.getImplementation() == null) continue;
+                    walk(className, method, round == 2);
+                }
+            }
+        }
+        log.info(String.format("lite: %d classes, %d layouts, %d events, %d find links, %d strings",
+                classes.size(), classToXML.size(), events.values().stream().mapToInt(Map::size).sum(),
+                findEdges.size(), hardcodeStrings.size()));
+    }
+
+    private void walk(String className, Method method, boolean link) {
+        MethodImplementation impl = method.getImplementation();
+        Map<Integer, Value> regs = new HashMap<>();
+        // objects a layout is set to, e.g., a dialog
+        Map<Integer, String> contentViews = new HashMap<>();
+        boolean isStatic = (method.getAccessFlags() & 0x8) != 0;
+        int paramRegs = isStatic ? 0 : 1;
+        for (CharSequence type : method.getParameterTypes()) {
+            paramRegs += isWide(type) ? 2 : 1;
+        }
+        if (!isStatic) regs.put(impl.getRegisterCount() - paramRegs, new Value(Value.THIS, className));
+        String signature = toSignature(method);
+        Value result = null;
+        for (Instruction instruction : impl.getInstructions()) {
+            Opcode opcode = instruction.getOpcode();
+            Object reference = instruction instanceof ReferenceInstruction ?
+                    ((ReferenceInstruction) instruction).getReference() : null;
+            int regA = instruction instanceof OneRegisterInstruction ?
+                    ((OneRegisterInstruction) instruction).getRegisterA() : -1;
+            Value moved = null;
+            boolean handled = true;
+            switch (opcode) {
+                case CONST_4: case CONST_16: case CONST: case CONST_HIGH16:
+                    moved = new Value(Value.INT, String.valueOf(
+                            ((NarrowLiteralInstruction) instruction).getNarrowLiteral()));
+                    break;
+                case CONST_STRING: case CONST_STRING_JUMBO:
+                    moved = new Value(Value.STRING, ((StringReference) reference).getString());
+                    break;
+                case MOVE: case MOVE_FROM16: case MOVE_16:
+                case MOVE_OBJECT: case MOVE_OBJECT_FROM16: case MOVE_OBJECT_16:
+                    moved = regs.get(((TwoRegisterInstruction) instruction).getRegisterB());
+                    break;
+                case CHECK_CAST:
+                    // the register keeps its value
+                    continue;
+                case NEW_INSTANCE:
+                    moved = new Value(Value.NEW, DexPrescan.toJavaType(((TypeReference) reference).getType()));
+                    break;
+                case SGET: {
+                    Integer literal = constFields.get(DexFormatter.INSTANCE.getFieldDescriptor((FieldReference) reference));
+                    if (literal != null) moved = new Value(Value.INT, String.valueOf(literal));
+                    break;
+                }
+                case SGET_OBJECT: case IGET_OBJECT:
+                    moved = fieldValues.get(DexFormatter.INSTANCE.getFieldDescriptor((FieldReference) reference));
+                    break;
+                case SPUT_OBJECT: case IPUT_OBJECT:
+                    putField(regs.get(regA), (FieldReference) reference);
+                    break;
+                case MOVE_RESULT: case MOVE_RESULT_OBJECT:
+                    moved = result;
+                    break;
+                default:
+                    handled = false;
+            }
+            if (instruction instanceof ReferenceInstruction && reference instanceof MethodReference
+                    && opcode.name.startsWith("invoke")) {
+                MethodReference callee = (MethodReference) reference;
+                boolean staticCall = opcode.name.startsWith("invoke-static");
+                List<Integer> args = getArgRegisters(instruction, callee, staticCall);
+                result = visitInvoke(className, method, signature, callee, args, staticCall ? 0 : 1,
+                        regs, contentViews, link);
+                continue;
+            }
+            if (handled && regA >= 0 && opcode.setsRegister()) {
+                if (moved == null) regs.remove(regA); else regs.put(regA, moved);
+            } else if (!handled && opcode.setsRegister() && regA >= 0) {
+                regs.remove(regA);
+                if (opcode.setsWideRegister()) regs.remove(regA + 1);
+            }
+        }
+    }
+
+    /**
+     * @param first index of the first parameter in args, 1 if there is a receiver
+     * @return the value of the call result
+     */
+    private Value visitInvoke(String className, Method method, String signature, MethodReference callee,
+                              List<Integer> args, int first, Map<Integer, Value> regs,
+                              Map<Integer, String> contentViews, boolean link) {
+        String subSig = DexPrescan.toSubSignature(callee);
+        String name = callee.getName();
+        Value arg0 = args.size() > first ? regs.get(args.get(first)) : null;
+        if (Objects.equals(subSig, EventAnalyzer.CALL_SET_CONTENT_VIEW)) {
+            if (arg0 != null && arg0.kind == Value.INT) {
+                if (first == 1 && regs.get(args.get(0)) != null && regs.get(args.get(0)).kind == Value.THIS) {
+                    classToXML.put(className, arg0.value);
+                } else if (first == 1) {
+                    contentViews.put(args.get(0), arg0.value);
+                }
+            }
+            return null;
+        }
+        if (Objects.equals(subSig, EventAnalyzer.CALL_INFLATE_1) || Objects.equals(subSig, EventAnalyzer.CALL_INFLATE_2)) {
+            return arg0 != null && arg0.kind == Value.INT ? new Value(Value.LAYOUT, arg0.value) : null;
+        }
+        if (name.equals("findViewById")) {
+            if (arg0 == null || arg0.kind != Value.INT) return null;
+            if (link) addFindEdge(arg0.value, signature);
+            String xml = null;
+            if (first == 1) {
+                Value receiver = regs.get(args.get(0));
+                if (receiver != null && receiver.kind == Value.LAYOUT) xml = receiver.value;
+                else if (contentViews.containsKey(args.get(0))) xml = contentViews.get(args.get(0));
+            }
+            // views of dialogs are not parsed, as in EventAnalyzer
+            if (callee.getDefiningClass().equals("Landroid/app/Dialog;")) xml = EventAnalyzer.CLASS_DIALOG;
+            return new Value(Value.VIEW, arg0.value, xml);
+        }
+        if (!link) return getStringResult(name, callee, args, first, regs);
+        if (EventAnalyzer.reg2handler.containsKey(subSig) && first == 1 && args.size() > 1) {
+            addEvent(className, subSig, regs.get(args.get(0)), regs.get(args.get(1)));
+        } else if (first == 1 && (name.equals("setText") || name.equals("setTitle") || name.equals("setHint"))) {
+            addString(className, method.getName(), name, callee, regs.get(args.get(0)), arg0);
+        }
+        return getStringResult(name, callee, args, first, regs);
+    }
+
+    /**
+     * Strings passed through calls, e.g., Html.fromHtml("..."), as MethodHelper.getStringFromUnit
+     */
+    private Value getStringResult(String name, MethodReference callee, List<Integer> args,
+                                  int first, Map<Integer, Value> regs) {
+        if (name.contains("getString") && callee.getParameterTypes().size() == 2 && args.size() >= first + 2) {
+            // SharedPreferences: getString("key", "default")
+            return new Value(Value.STRING, String.format("[p] %s %s",
+                    format(regs.get(args.get(first))), format(regs.get(args.get(first + 1)))));
+        }
+        Value arg0 = args.size() > first ? regs.get(args.get(first)) : null;
+        return arg0 != null && arg0.kind == Value.STRING ? arg0 : null;
+    }
+
+    private static String format(Value value) {
+        if (value == null) return "null";
+        return value.kind == Value.STRING ? "\"" + value.value + "\"" : value.value;
+    }
+
+    private void putField(Value value, FieldReference field) {
+        if (value == null || (value.kind != Value.VIEW && value.kind != Value.LAYOUT)) return;
+        // views in fields are not bound to a layout object
+        fieldValues.put(DexFormatter.INSTANCE.getFieldDescriptor(field),
+                value.kind == Value.VIEW ? new Value(Value.VIEW, value.value,
+                        Objects.equals(value.xml, EventAnalyzer.CLASS_DIALOG) ? value.xml : null) : value);
+    }
+
+    private void addFindEdge(String id, String signature) {
+        String idHex = String.format("%08x", Integer.parseInt(id));
+        findEdges.computeIfAbsent(idHex, k -> new HashSet<>()).add(signature);
+    }
+
+    private void addEvent(String className, String subSig, Value view, Value listener) {
+        if (view == null || view.kind != Value.VIEW || listener == null) return;
+        String handlerClass;
+        if (listener.kind == Value.THIS || listener.kind == Value.NEW) {
+            handlerClass = listener.value;
+        } else {
+            return;
+        }
+        String xml = view.xml;
+        if (xml == null) xml = classToXML.get(className);
+        if (xml == null) xml = "NO_ID";
+        // currently we do not parse dialogs
+        if (Objects.equals(xml, EventAnalyzer.CLASS_DIALOG)) return;
+        String event = String.format("&lt;%s: %s&gt;", handlerClass, EventAnalyzer.reg2handler.get(subSig));
+        events.computeIfAbsent(xml, k -> new HashMap<>())
+                .computeIfAbsent(view.value, k -> new HashSet<>()).add(event);
+    }
+
+    private void addString(String className, String methodName, String api, MethodReference callee,
+                           Value view, Value arg) {
+        // only views found in an object whose layout is known, as CodeParser.extractStrings
+        if (view == null || view.kind != Value.VIEW || view.xml == null || arg == null) return;
+        if (Objects.equals(view.xml, EventAnalyzer.CLASS_DIALOG) || callee.getParameterTypes().isEmpty()) return;
+        String type = DexPrescan.toJavaType(callee.getParameterTypes().get(0).toString());
+        String text = null;
+        if (type.equals("int") && arg.kind == Value.INT) {
+            text = getArscStrings().get(Integer.parseInt(arg.value));
+        } else if ((type.contains("String") || type.contains("Char")) && arg.kind == Value.STRING) {
+            text = arg.value;
+        }
+        if (text != null) {
+            hardcodeStrings.put(String.format("%s@%s", view.value, view.xml),
+                    new Tuple4<>(className, methodName, api, text));
+        }
+    }
+
+    private Map<Integer, String> getArscStrings() {
+        if (arscStrings != null) return arscStrings;
+        arscStrings = new HashMap<>();
+        try {
+            String jsonString = new String(Files.readAllBytes(Paths.get(arscJsonPath)), StandardCharsets.UTF_8);
+            for (UIContext.ArscObj arscObj : JSON.parseArray(jsonString, UIContext.ArscObj.class)) {
+                arscStrings.putIfAbsent(arscObj.resourceID, arscObj.value);
+            }
+        } catch (IOException e) {
+            log.severe("error when reading arsc json:" + e.getMessage());
+        }
+        return arscStrings;
+    }
+
+    /**
+     * @return the registers of the receiver (if any) and of each parameter
+     */
+    private static List<Integer> getArgRegisters(Instruction instruction, MethodReference callee, boolean isStatic) {
+        List<Integer> all = new ArrayList<>();
+        if (instruction instanceof FiveRegisterInstruction) {
+            FiveRegisterInstruction five = (FiveRegisterInstruction) instruction;
+            int[] registers = {five.getRegisterC(), five.getRegisterD(), five.getRegisterE(),
+                    five.getRegisterF(), five.getRegisterG()};
+            for (int i = 0; i < five.getRegisterCount(); i++) all.add(registers[i]);
+        } else if (instruction instanceof RegisterRangeInstruction) {
+            RegisterRangeInstruction range = (RegisterRangeInstruction) instruction;
+            for (int i = 0; i < range.getRegisterCount(); i++) all.add(range.getStartRegister() + i);
+        }
+        // wide parameters take two registers
+        List<Integer> args = new ArrayList<>();
+        int index = 0;
+        if (!isStatic && !all.isEmpty()) args.add(all.get(index++));
+        for (CharSequence type : callee.getParameterTypes()) {
+            if (index >= all.size()) break;
+            args.add(all.get(index));
+            index += isWide(type) ? 2 : 1;
+        }
+        return args;
+    }
+
+    private static boolean isWide(CharSequence type) {
+        return type.length() == 1 && (type.charAt(0) == 'J' || type.charAt(0) == 'D');
+    }
+
+    /**
+     * @return the soot signature of a dex method, e.g., &lt;a.B: void c(int)&gt;
+     */
+    private static String toSignature(Method method) {
+        return String.format("<%s: %s>", DexPrescan.toJavaType(method.getDefiningClass()),
+                DexPrescan.toSubSignature(method));
+    }
+
+    public Map<String, HashMap<String, HashSet<String>>> getEvents() {
+        return events;
+    }
+
+    public HashMap<String, Set<String>> getFindEdges() {
+        return findEdges;
+    }
+
+    public Map<String, Tuple4<String, String, String, String>> getHardcodeStrings() {
+        return hardcodeStrings;
+    }
+}
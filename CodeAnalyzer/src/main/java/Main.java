@@ -10,12 +10,8 @@ import soot.jimple.infoflow.android.SetupApplication;
 import soot.jimple.infoflow.android.data.CategoryDefinition;
 import soot.jimple.infoflow.methodSummary.data.provider.LazySummaryProvider;
 import soot.jimple.infoflow.methodSummary.taintWrappers.SummaryTaintWrapper;
-import soot.jimple.toolkits.callgraph.CallGraph;
-import soot.jimple.toolkits.callgraph.Edge;
 import soot.options.Options;
 import soot.util.Chain;
-import soot.util.IterableSet;
-import soot.util.queue.QueueReader;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.*;
@@ -33,6 +29,10 @@ public class Main {
     static int SOOT_CB_TIMEOUT = 3;   // callback
     static int SOOT_PR_TIMEOUT = 0;   // path rec
     static int SOOT_CG_THREAD_NUM = 16;
+    static int CG_BUDGET_TIME = 0;     // cg construction (unit: min)
+    static int CG_BUDGET_HEAP = 0;     // cg construction (unit: MB)
+    static int UI_CLOSURE_HOPS = -1;   // -1: load bodies for all classes
+    static int JIMPLE_CACHE_SIZE = 4096;   // jimple cache bound (unit: MB)
     static boolean isForceWriteMode;
     public static String ANDROID_JARS;
     static String apkPath;
@@ -42,8 +42,27 @@ public class Main {
     static Logger log;
     static boolean sootConfigReady = false;
     static boolean isSpark = false;
+    static InfoflowConfiguration.CallgraphAlgorithm cgAlgoUsed;
+    static AnalysisProfile profile = AnalysisProfile.PRECISE;
+    static String callbackCacheFile;
+    static boolean callbackCacheLoaded;
+    static ResultManifest manifest;
+    // ui-relevant classes and the packages excluded for them, null if not used
+    static Set<String> uiClosure;
+    static List<String> uiExcludedPackages;
+    // third-party packages loaded as signatures only, null if not used
+    static LibraryFilter libraryFilter;
+    static String libraryFilterHash;
+    // parser run in the same walk as the event analysis, reused by the graph stage
+    static CodeParser uiParser;
+    // cached jimple bodies, and the dex classes of the current app keyed for it
+    static JimpleCache jimpleCache;
+    static Map<String, String> classHashes;
+    // marks mundane methods as noise in node.csv, null if not used
+    static MundaneMatcher mundaneMatcher;
+    static Map<String, String> graphOptions;
+    static String graphInput;
     private static boolean writeMinJimpleFiles;
-    static boolean option_jimple;
     // static final ExecutorService exec = Executors.newFixedThreadPool(SOOT_CG_THREAD_NUM);
     static Level level;
     static CommandLine cmd;
@@ -51,22 +70,22 @@ public class Main {
     static String INFO_FILE_NAME = "add_info.json";
     static String STR_FILE_NAME = "in_code_str.json";
     static String CONT_FILE_NAME = "ui_context.json";
-    static Set<GEdge> ucEdgeSet;
-    static Set<GEdge> layoutEdgeSet;
-    static Set<GNode> layoutNodeSet;
-    static Set<GEdge> cgEdgeSet;
-    static Set<GNode> cgNodeSet;
-    static List<GNode> allNodeList;
-    static List<GEdge> allEdgeList;
+    static String PRUNE_FILE_NAME = "prune_stats.json";
+    // the graph of the current app
+    static CsrGraph graph;
     private static final String OPTION_INPUT = "i";
     private static final String OPTION_OUTPUT = "o";
     private static final String OPTION_LOGGING = "l";
     private static final String OPTION_PLATFORM = "p";
     private static final String OPTION_JIMPLE = "j";
     private static final String OPTION_ALL_JIMPLE = "jj";
+    private static final String OPTION_JIMPLE_GZIP = "jz";
     private static final String OPTION_NO_UI = "nu";
     private static final String OPTION_NO_LOG = "nl";
     private static final String OPTION_NO_CODE_STR = "ns";
+    private static final String OPTION_REACH_INDEX = "ri";
+    private static final String OPTION_PRUNE = "pr";
+    private static final String OPTION_MUNDANE_LISTS = "ml";
     private static final String OPTION_CG_ALGO = "a";
     private static final String OPTION_HELP = "h";
     private static final String OPTION_FORCE_WRITE = "f";
@@ -74,8 +93,25 @@ public class Main {
     private static final String OPTION_TIME_DF = "tdf";
     private static final String OPTION_TIME_PR = "tpr";
     private static final String OPTION_SOOT_THREAD = "t";
+    private static final String OPTION_BUDGET_CG_TIME = "bct";
+    private static final String OPTION_BUDGET_CG_HEAP = "bch";
+    private static final String OPTION_PROFILE = "pf";
+    private static final String OPTION_NO_CB_CACHE = "ncc";
+    private static final String OPTION_REUSE_CG = "rc";
+    private static final String OPTION_NO_PRESCAN = "np";
+    private static final String OPTION_UI_CLOSURE = "uc";
+    private static final String OPTION_UI_ENTRY = "ue";
+    private static final String OPTION_TPL_LIST = "tpl";
+    private static final String OPTION_JIMPLE_CACHE = "jc";
+    private static final String OPTION_LITE = "lt";
+    private static final String OPTION_JIMPLE_CACHE_SIZE = "jcs";
     private static final String OPTION_SAVE_FLOW = "sf";
     private static final String OPTION_OPCODE_PATH = "op";
+    private static final String OPTION_CG_ONLY = "cgo";
+    // options not passed to the child jvm building a budgeted cg
+    private static final Set<String> CG_CHILD_DROPPED_OPTIONS = new HashSet<>(Arrays.asList(
+            OPTION_INPUT, OPTION_OUTPUT, OPTION_OPCODE_PATH, OPTION_FORCE_WRITE, OPTION_REUSE_CG,
+            OPTION_NO_LOG, OPTION_JIMPLE, OPTION_ALL_JIMPLE, OPTION_LITE, OPTION_CG_ONLY));
     static LazySummaryProvider lazySummaryProvider;
     static Map<String, Set<String>> findEdges;
     static Map<String, Set<String>> useEdges;
@@ -88,6 +124,8 @@ public class Main {
     static List<String> apkList;
     static boolean singleApk;
     static Map<String, HashMap<String, HashSet<String>>> events;
+    // the handlers of events, as methods
+    static Map<String, HashMap<String, HashSet<SootMethod>>> eventHandlers;
 
     public static void main(String[] args) throws ParseException, IOException {
         int code = initCmdOptions(args);
@@ -151,14 +189,18 @@ public class Main {
             initLogger();
             runAnalysis(apkPath, -1);
         }
+        // the threads of soot and flowdroid keep the jvm up, and the parent
+        // waits for the child to exit
+        if (cmd.hasOption(OPTION_CG_ONLY)) System.exit(0);
     }
 
     @SuppressWarnings("SpellCheckingInspection")
     private static void runAnalysis(String apk, int i) throws IOException {
         soot.G.reset();
         sootConfigReady = false;
-        option_jimple = false;
         writeMinJimpleFiles = false;
+        callbackCacheFile = null;
+        callbackCacheLoaded = false;
 
         String path = apk;
         if (apk.endsWith(".apk")) {
@@ -184,25 +226,48 @@ public class Main {
 
         String edgeFile = Util.getTestFileName(currentOutPath);
 
-        isForceWriteMode = cmd.hasOption(OPTION_FORCE_WRITE);
-
+        // reusing the cg is only useful to rebuild the graph
+        isForceWriteMode = cmd.hasOption(OPTION_FORCE_WRITE) || cmd.hasOption(OPTION_REUSE_CG);
+
+        InfoflowConfiguration.CallgraphAlgorithm algo = getCgAlgo();
+        String dexHash = Util.getDexHash(apk);
+        loadLibraryFilter();
+        Map<String, String> cgOptions = getCgOptions(algo);
+        graphOptions = getGraphOptions(cgOptions);
+        // without a hash, the input of an earlier run cannot be compared
+        String uiHash = getUiHash();
+        graphInput = dexHash == null || uiHash == null ? null : dexHash + ":" + uiHash;
+        manifest = ResultManifest.load(currentOutPath);
+        if (cmd.hasOption(OPTION_LITE)) {
+            runLite(apk);
+            return;
+        }
+        boolean upToDate;
+        if (manifest.exists()) {
+            String reason = manifest.check(ResultManifest.STAGE_GRAPH, graphOptions, graphInput);
+            upToDate = reason == null;
+            if (!upToDate) log.info("kg is outdated: " + reason);
+        } else {
+            // results written before manifests exist
+            upToDate = new File(edgeFile).exists() && Util.noErrorInEdgeFile(edgeFile);
+        }
+        if (upToDate && !isForceWriteMode) {
+            log.info(String.format("no work to do with generating the kg (%s).",
+                    manifest.exists() ? manifest.getStatus(ResultManifest.STAGE_GRAPH) : "done"));
+            return;
+        }
         if (new File(edgeFile).exists()) {
-            if (!isForceWriteMode && Util.noErrorInEdgeFile(edgeFile)) {
-                log.info("no work to do with generating the kg.");
-                return;
-            } else {
-                // clear all the old files
-                // we might not need to do this, but it's safer to do so
-                if (!cmd.hasOption(OPTION_NO_LOG)) {
-                    log.info("remove old encoding files");
-                    Util.rmDir(Paths.get(currentOutPath, "encoding"));
-                    Path logFilePath = Paths.get(currentOutPath, "code.log");
-                    File logFile = new File(logFilePath.toString());
-                    if (logFile.exists()) {
-                        Files.delete(logFilePath);
-                    }
-                    initLogger();
+            // clear all the old files
+            // we might not need to do this, but it's safer to do so
+            if (!cmd.hasOption(OPTION_NO_LOG)) {
+                log.info("remove old encoding files");
+                Util.rmDir(Paths.get(currentOutPath, "encoding"));
+                Path logFilePath = Paths.get(currentOutPath, "code.log");
+                File logFile = new File(logFilePath.toString());
+                if (logFile.exists()) {
+                    Files.delete(logFilePath);
                 }
+                initLogger();
             }
         }
         // string map in arsc file
@@ -230,33 +295,56 @@ public class Main {
         if (layoutFiles.length == 0) {
             log.info("no layout files detected");
             Util.createErrorPlaceHolder(Util.getTestFileName(currentOutPath), "no layout file");
+            recordGraph(ResultManifest.STATUS_SKIPPED, "no layout file");
             return;
         }
 
-        InfoflowConfiguration.CallgraphAlgorithm algo;
-        if (cmd.hasOption(OPTION_CG_ALGO)) {
-            String value = cmd.getOptionValue(OPTION_CG_ALGO).toLowerCase();
-            if (value.equals("cha")) {
-                algo = InfoflowConfiguration.CallgraphAlgorithm.CHA;
-            }
-            else if (value.equals("spark")) {
-                algo = InfoflowConfiguration.CallgraphAlgorithm.SPARK;
-                isSpark = true;
-            } else {
-                log.warning(String.format("unknown cg algo %s, use CHA", value));
-                algo = InfoflowConfiguration.CallgraphAlgorithm.CHA;
+        // skip apps without ui events before soot and the cg are built
+        uiClosure = null;
+        uiExcludedPackages = null;
+        classHashes = null;
+        Map<String, Integer> classSizes = Collections.emptyMap();
+        boolean buildIndex = UI_CLOSURE_HOPS >= 0 || libraryFilter != null;
+        if (!cmd.hasOption(OPTION_NO_PRESCAN) || buildIndex || jimpleCache != null) {
+            long start = System.currentTimeMillis();
+            DexPrescan prescan = new DexPrescan(apk, buildIndex, jimpleCache != null);
+            try {
+                prescan.run();
+                log.info(String.format("prescan (%d ms): %s",
+                        System.currentTimeMillis() - start, prescan.getSummary()));
+                classSizes = prescan.getClassSizes();
+                if (jimpleCache != null) classHashes = prescan.getClassHashes();
+                if (UI_CLOSURE_HOPS >= 0) {
+                    uiClosure = prescan.getUiClosure(UI_CLOSURE_HOPS);
+                    uiExcludedPackages = prescan.getExcludedPackages(uiClosure);
+                    log.info(String.format("ui closure (%d hops): %d / %d classes, %d packages excluded",
+                            UI_CLOSURE_HOPS, uiClosure.size(), prescan.getIndexedClassNum(),
+                            uiExcludedPackages.size()));
+                }
+                if (!cmd.hasOption(OPTION_NO_PRESCAN) && !prescan.hasUiWiring()) {
+                    log.info("no listener registration found, skip");
+                    Util.saveEventFile(new HashMap<>(), currentOutPath);
+                    recordGraph(ResultManifest.STATUS_SKIPPED,
+                            "no ui event (prescan: " + prescan.getSummary() + ")", "event.xml");
+                    return;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warning("prescan fails, continue without it: " + e.getMessage());
+                uiClosure = null;
+                uiExcludedPackages = null;
+                classHashes = null;
             }
-        } else {
-            log.info("no cg algo specified, use CHA");
-            algo = InfoflowConfiguration.CallgraphAlgorithm.CHA;
         }
 
         // print jimple
         String outDirJimple = Paths.get(currentOutPath , "jimple").toAbsolutePath().toString();
         File finishMark = new File(Paths.get(outDirJimple, "done").toUri());
-        if (cmd.hasOption(OPTION_JIMPLE) || cmd.hasOption(OPTION_ALL_JIMPLE)) {
-            option_jimple = true;
-            if (finishMark.exists() && !isForceWriteMode) {
+        Map<String, String> jimpleOptions = getJimpleOptions();
+        if ((cmd.hasOption(OPTION_JIMPLE) || cmd.hasOption(OPTION_ALL_JIMPLE)) && !cmd.hasOption(OPTION_CG_ONLY)) {
+            // jimple printed before manifests exist has no record, keep it
+            String jimpleReason = manifest.has(ResultManifest.STAGE_JIMPLE) ?
+                    manifest.check(ResultManifest.STAGE_JIMPLE, jimpleOptions, dexHash) : null;
+            if (finishMark.exists() && !isForceWriteMode && jimpleReason == null) {
                 log.info("jimple exists, skip");
             } else {
                 // output jimple files
@@ -270,13 +358,12 @@ public class Main {
                     sootConfigReady = false;
 
                     try {
-                        PackManager.v().getPack("jb");
-                        PackManager.v().runPacks();
-                        PackManager.v().writeOutput();
-                        if (finishMark.mkdir())
-                            log.info("jimple code printed");
-                    } catch (RuntimeException e) {
-                        log.warning("error when getting jimple files");
+                        List<SootClass> classes = getJimpleClasses();
+                        Util.retrieveBodies(getMissingBodies(classes), SOOT_CG_THREAD_NUM);
+                        JimpleWriter writer = startJimpleWriter(outDirJimple, classes);
+                        finishJimpleWriter(writer, finishMark, jimpleOptions, dexHash);
+                    } catch (IOException | RuntimeException e) {
+                        log.warning("error when getting jimple files: " + e.getMessage());
                     }
                 } else {
                     writeMinJimpleFiles = true;
@@ -284,92 +371,132 @@ public class Main {
             }
         }
 
+        JimpleWriter jimpleWriter = null;
         try {
             // build CG
             soot.G.reset();
             sootConfigReady = false;
+            File snapshotFile = Paths.get(currentOutPath, "cache", CGSnapshot.FILE_NAME).toFile();
+            CGSnapshot snapshot = null;
+            events = null;
+            eventHandlers = null;
+            uiParser = null;
+            // with -nu, the links are not set below, so the ones of the last
+            // app must not be pruned against
+            findEdges = new HashMap<>();
+            useEdges = new HashMap<>();
+            switchEdges = new HashMap<>();
+            threadEdges = new HashMap<>();
+            // the cg is also reused when only the options of the later stages change
+            String cgReason = manifest.check(ResultManifest.STAGE_CG, cgOptions, dexHash);
+            if (cmd.hasOption(OPTION_REUSE_CG) ||
+                    (cgReason == null && !cmd.hasOption(OPTION_FORCE_WRITE))) {
+                snapshot = CGSnapshot.load(snapshotFile);
+                if (snapshot == null || !snapshot.fits(dexHash, cgOptions)) {
+                    log.info("no matching cg snapshot, build the cg");
+                    snapshot = null;
+                }
+            }
+            // a spark cg under budget is built by a child jvm, which saves it as a snapshot
+            boolean cgFallback = false;
+            CallGraphBudget budget = new CallGraphBudget(log, CG_BUDGET_TIME, CG_BUDGET_HEAP);
+            if (snapshot == null && isSpark && budget.isEnabled() && !cmd.hasOption(OPTION_CG_ONLY)
+                    && !cmd.hasOption(OPTION_UI_ENTRY)) {
+                snapshot = buildBudgetedCallgraph(apk, budget, snapshotFile, dexHash, cgOptions);
+                cgFallback = snapshot == null;
+            }
+            Util.resetPeakHeap();
+            long cgStart = System.currentTimeMillis();
             try {
-                configSoot(apk, isSpark);
+                configSoot(apk, snapshot == null && isSpark && !cgFallback);
             } catch (RuntimeException e) {
                 Util.createErrorPlaceHolder(Util.getTestFileName(currentOutPath),
                         "error: " + Arrays.toString(e.getStackTrace()));
                 log.severe("error when config soot: " + e.getMessage());
+                recordGraph(ResultManifest.STATUS_ERROR, "error when config soot: " + e);
                 return;
             }
-            SetupApplication app = configApp(apk, algo);
-
-            printInfo();
-            CallGraph cg;
 
             try {
                 // Scene.v().addBasicClass("android.app.IntentService", SootClass.BODIES);
-                app.constructCallgraph();
-                // app.runInfoflow("lib/SourcesAndSinks-ui.txt");
-                cg =  Scene.v().getCallGraph();
+                if (snapshot != null) {
+                    int missing = snapshot.restoreScene(SOOT_CG_THREAD_NUM);
+                    cgAlgoUsed = InfoflowConfiguration.CallgraphAlgorithm.valueOf(snapshot.algoUsed);
+                    log.info(String.format("cg reused from %s (%s), %d bodies not rebuilt",
+                            snapshotFile, cgAlgoUsed, missing));
+                } else {
+                    // a body built once the cg exists drops its unreachable units
+                    // through the cg, which walks all the edges for each, so build
+                    // the app bodies before. flowdroid patches built bodies as well
+                    retrieveAppBodies();
+                    if (cmd.hasOption(OPTION_UI_ENTRY)) {
+                        // the entry points are found by the ui analysis, which runs first
+                        if (!parseEvents(apk)) return;
+                        cgAlgoUsed = buildUiEntryCallgraph(algo, uiParser);
+                    } else {
+                        cgAlgoUsed = buildCallgraph(apk, cgFallback ?
+                                InfoflowConfiguration.CallgraphAlgorithm.CHA : algo);
+                    }
+                    log.info(String.format("cg built with %s", cgAlgoUsed));
+                    // app.runInfoflow("lib/SourcesAndSinks-ui.txt");
+                    snapshot = CGSnapshot.fromScene(Scene.v().getCallGraph(), dexHash,
+                            cgOptions, cgAlgoUsed.name());
+                    saveSnapshot(snapshot, snapshotFile);
+                    Map<String, Object> cgStats = new LinkedHashMap<>();
+                    cgStats.put("methods", snapshot.methods.size());
+                    cgStats.put("edges", snapshot.edgeNum);
+                    cgStats.put("timeMs", System.currentTimeMillis() - cgStart);
+                    cgStats.put("heapPeakMB", Util.getPeakHeapMB());
+                    Map<String, Object> baseline = getLibraryBaseline(cgOptions);
+                    manifest.record(ResultManifest.STAGE_CG, cgOptions, dexHash, ResultManifest.STATUS_DONE,
+                            null, "cache/" + CGSnapshot.FILE_NAME);
+                    manifest.putStats(ResultManifest.STAGE_CG, cgStats);
+                    manifest.save();
+                    if (libraryFilter != null) {
+                        libraryFilter.writeReport(currentOutPath, classSizes, cgStats, baseline);
+                    }
+                    if (cmd.hasOption(OPTION_CG_ONLY)) return;
+                }
                 appClasses = Scene.v().getApplicationClasses();
 
                 // first, get ui events. if no events, then we can skip the following steps
-                String contextFile = Paths.get(currentOutPath, CONT_FILE_NAME).toAbsolutePath().toString();
-                Map<String, Set<String>> viewListFromLayouts = Util.getViewListFromLayouts(contextFile);
-                long start = System.currentTimeMillis();
-                EventAnalyzer eventAnalyzer = new EventAnalyzer(apk, log, viewListFromLayouts);
-                eventAnalyzer.run();
-                events = eventAnalyzer.getResults();
-                long end = System.currentTimeMillis();
-                String timeSpan = String.valueOf(end - start);
-                log.info(String.format("event parse time: %s", timeSpan));
-                Util.saveEventFile(events, currentOutPath);
-                // if no event, no need to process
-                if (events.isEmpty()) {
-                    return;
+                if (events == null) {
+                    retrieveAppBodies();
+                    if (!parseEvents(apk)) return;
                 }
 
+            } catch (URISyntaxException | XMLStreamException e) {
+                log.severe("xml error: " + e.getMessage());
+                return;
             } catch (Exception e) {
+                dropCallbackCache();
                 Util.createErrorPlaceHolder(Util.getTestFileName(currentOutPath),
                         "error: " + Arrays.toString(e.getStackTrace()));
+                recordGraph(ResultManifest.STATUS_ERROR, "error when get cg: " + e);
                 log.severe("error when get cg: " + Arrays.toString(e.getStackTrace()));
                 return;
             }
 
-            QueueReader<Edge> edges = cg.listener();
-
-            cgNodeSet = new IterableSet<>();
-            cgEdgeSet = new IterableSet<>();
-
-            // add nodes and edges in the call graph
-            Dictionary<String, Integer> methodName2Uuid = new Hashtable<>();
-            Set<String> visitedSootNodes = new IterableSet<>();
-
-            while (edges.hasNext()) {
-                Edge next = edges.next();
-                MethodOrMethodContext src = next.getSrc();
-                MethodOrMethodContext tgt = next.getTgt();
-                String srcString = src.toString();
-                String tgtString = tgt.toString();
-
+            // add nodes and edges in the call graph. the snapshot already has
+            // an int id per method and the edges as id pairs
+            GraphBuilder graphBuilder = new GraphBuilder();
+            if (mundaneMatcher != null) graphBuilder.setNoiseMatcher(mundaneMatcher);
+            // method id -> node uuid
+            long[] methodUuids = new long[snapshot.methods.size()];
+            for (int m = 0; m < methodUuids.length; m++) {
                 // all method has only one hit in soot, so for methods with the
                 // same name (e.g., native apis), we only assign one node for it.
                 // besides, (1). methods in 3rd libs (2). apps with the same package
                 // names will have only one hash, even if they're in different apps
-                if (!visitedSootNodes.contains(srcString)) {
-                    GNode nodeSrc = new GNode(srcString,
-                            GNode.ApkNodeLabels.METHOD.toString());
-                    cgNodeSet.add(nodeSrc);
-                    visitedSootNodes.add(srcString);
-                    methodName2Uuid.put(srcString, nodeSrc.getUuid());
-                }
-                if (!visitedSootNodes.contains(tgtString)) {
-                    GNode nodeTgt = new GNode(tgtString,
-                            GNode.ApkNodeLabels.METHOD.toString());
-                    cgNodeSet.add(nodeTgt);
-                    visitedSootNodes.add(tgtString);
-                    methodName2Uuid.put(tgtString, nodeTgt.getUuid());
-                }
-
-                cgEdgeSet.add(new GEdge(
-                        new GNode(methodName2Uuid.get(srcString), srcString),
-                        new GNode(methodName2Uuid.get(tgtString), tgtString),
-                        GEdge.ApkRelationships.CALL.toString()));
+                String name = snapshot.methods.get(m);
+                long uuid = GNode.methodUuid(name);
+                graphBuilder.addNode(uuid, name, GNode.getMethodType(name),
+                        GNode.getMethodClass(name), null, null, null, null);
+                methodUuids[m] = uuid;
+            }
+            for (int e = 0; e < snapshot.edgeNum; e++) {
+                graphBuilder.addEdge(methodUuids[snapshot.edgeSrc[e]], methodUuids[snapshot.edgeTgt[e]],
+                        GEdge.ApkRelationships.CALL);
             }
 
             String encodingPath = Paths.get(currentOutPath, Util.sEncoding).toAbsolutePath().toString();
@@ -380,57 +507,20 @@ public class Main {
             }
 
             log.info(String.format("Call graph size (soot): %d = %d (node) + %d (edge)",
-                    cgNodeSet.size() + cgEdgeSet.size(), cgNodeSet.size(), cgEdgeSet.size()));
+                    graphBuilder.getNodeNum() + graphBuilder.getEdgeNum(),
+                    graphBuilder.getNodeNum(), graphBuilder.getEdgeNum()));
 
-            // Call graph
-            for (GNode n : cgNodeSet) {
-                GNode.updateNodeType(n);
-                GNode.addNodeClass(n);
-            }
-
-            allNodeList = new ArrayList<>();
-            allNodeList.addAll(cgNodeSet);
-            allEdgeList = new ArrayList<>();
-            allEdgeList.addAll(cgEdgeSet);
-
-            // move jimple files
+            // jimple is printed while the linking stages run
+            // the bodies of the app classes are built before the ui passes, so
+            // printing them does not change the links
             if (writeMinJimpleFiles) {
-                File jimpleFolder = new File(outDirJimple);
-                if (jimpleFolder.isDirectory()) {
-                    log.info("Remove folder: "+ outDirJimple);
-                    Util.rmDir(Paths.get(outDirJimple));
-                }
-
-                boolean mkdir = jimpleFolder.mkdir();
-                log.info(String.format("writing jimple in: %s", outDirJimple));
-                if (!mkdir) {
-                    log.warning(String.format("mkdir %s fails", jimpleFolder.getName()));
-                }
-
-                File srcFolder = new File("sootOutput");
-                File[] jimpleFiles = srcFolder.listFiles();
-                if (jimpleFiles != null) {
-                    for (File jimpleFile : jimpleFiles) {
-                        File dst = new File(String.valueOf(Paths.get(outDirJimple, jimpleFile.getName())));
-                        // the dst file not exists, so no need to delete it
-                        boolean rename = jimpleFile.renameTo(dst);
-                        if (!rename) {
-                            log.warning(String.format(String.format("rename %s to %s fails",
-                                    jimpleFile.getName(), dst.getName())));
-                        }
-                    }
-                    // add the finish mark
-                    if (finishMark.mkdir())
-                        log.info("jimple code printed");
-                } else {
-                    log.warning("sootOutput folder not accessed");
-                }
+                jimpleWriter = startJimpleWriter(outDirJimple, getJimpleClasses());
             }
 
             // UI graph
             AppendLayout layoutHandler;
             if (!cmd.hasOption(OPTION_NO_UI)) {
-                layoutHandler = new AppendLayout(currentOutPath, arscObject);
+                layoutHandler = new AppendLayout(currentOutPath, arscObject, graphBuilder);
                 layoutHandler.run();
                 // ArrayList<String> viewIds = layoutHandler.getViewIds();
 
@@ -438,31 +528,21 @@ public class Main {
                         layoutHandler.getNodeNum() + layoutHandler.getEdgeNum(),
                         layoutHandler.getNodeNum(), layoutHandler.getEdgeNum()));
 
-                layoutEdgeSet = layoutHandler.getLayoutEdgeSet();
-                layoutNodeSet = layoutHandler.getLayoutNodeSet();
-                allNodeList.addAll(layoutNodeSet);
-                allEdgeList.addAll(layoutEdgeSet);
-
-                Map<String, Integer> id2uuid = new HashMap<>();
-                for (GNode n: layoutNodeSet) {
-                    String id = n.getAttribute("id");
-                    if (id != null) {
-                        id = id.replace("android:", "");
-                        id = id.toUpperCase();
-                        id2uuid.put(id, n.getUuid());
-                    }
-                }
+                Map<String, Long> id2uuid = layoutHandler.getViewUuids();
 
                 // Add UI-code links (find, use)
-                CodeParser parser = new CodeParser(log, appClasses, arscJson);
-                parser.run();
+                CodeParser parser = uiParser;
+                if (parser == null) {
+                    parser = new CodeParser(log, appClasses, arscJson);
+                    parser.run(SOOT_CG_THREAD_NUM);
+                }
                 log.info(String.format("Class: %s", appClasses.size()));
                 String infoFile = Paths.get(currentOutPath, INFO_FILE_NAME).toAbsolutePath().toString();
                 findEdges = parser.getFindEdges();
-                useEdges = parser.getUseEdges();
                 long start = System.currentTimeMillis();
                 // dive into methods, handle branches and threads
-                parser.parseMethods(events);
+                parser.parseMethods(eventHandlers, SOOT_CG_THREAD_NUM);
+                useEdges = parser.getUseEdges();
                 switchEdges = parser.getSwitchEdges();
                 threadEdges = parser.getThreadEdges();
                 long end = System.currentTimeMillis();
@@ -477,7 +557,7 @@ public class Main {
                     Util.saveInCodeString(codeStrFile, hardcodeStrings);
                 }
 
-                ucEdgeSet = new IterableSet<>();
+                // repeated links, and links to methods out of the cg, are dropped by the builder
                 try {
                     for (Map.Entry<String, Set<String>> entry : findEdges.entrySet()) {
                         String id = entry.getKey();
@@ -485,16 +565,14 @@ public class Main {
                         for (String method: methods) {
                             log.finer(String.format("%s --> %s", id, method));
                             try {
-                                int uuid1 = id2uuid.get("@" + id.toUpperCase());
-                                int uuid2 = methodName2Uuid.get(method);
-                                ucEdgeSet.add(new GEdge(new GNode(uuid1), new GNode(uuid2),
-                                        GEdge.ApkRelationships.FIND.toString()));
+                                long uuid1 = id2uuid.get("@" + id.toUpperCase());
+                                graphBuilder.addEdge(uuid1, GNode.methodUuid(method),
+                                        GEdge.ApkRelationships.FIND);
                             } catch (NullPointerException ignored) {
                                 log.finest(String.format("cannot find uuid for ui (id=%s)", id));
                             }
                         }
                     }
-                    allEdgeList.addAll(ucEdgeSet);
                     // log.info(String.format("links between the two graphs: %d / %d", ucEdgeSet.size(), linkNum));
                 } catch (StackOverflowError ignored) {
                     log.warning("stack over flow when find links");
@@ -503,23 +581,310 @@ public class Main {
             } else {
                 log.warning("UI is excluded in the graph!");
             }
-            Map<Integer, Integer> nodeHashToId = Util.saveNodes(currentOutPath, allNodeList);
-            Util.saveEdges(currentOutPath, nodeHashToId, allEdgeList);
+            graph = graphBuilder.freeze();
+            log.info(String.format("graph size: %d = %d (node) + %d (edge)",
+                    graph.getNodeNum() + graph.getEdgeNum(), graph.getNodeNum(), graph.getEdgeNum()));
+            if (cmd.hasOption(OPTION_PRUNE)) {
+                pruneGraph();
+            }
+            Util.saveNodes(currentOutPath, graph.getNodes());
+            Util.saveEdges(currentOutPath, graph);
+            if (cmd.hasOption(OPTION_REACH_INDEX)) {
+                saveReachabilityIndex();
+            }
+            if (jimpleWriter != null) {
+                finishJimpleWriter(jimpleWriter, finishMark, jimpleOptions, dexHash);
+            }
             log.info("graph is ready");
+            if (classHashes != null) {
+                log.info(String.format("jimple cache: %d bodies read, %d classes saved",
+                        jimpleCache.getHitNum(), jimpleCache.store(classHashes)));
+            }
+            recordGraph(ResultManifest.STATUS_DONE, null,
+                    Util.sEncoding + "/" + Util.sNode + ".csv", Util.sEncoding + "/" + Util.sEdge + ".csv",
+                    "event.xml", INFO_FILE_NAME, STR_FILE_NAME,
+                    Util.sEncoding + "/" + ReachabilityIndex.FILE_NAME, Util.sEncoding + "/" + PRUNE_FILE_NAME);
         } catch (RuntimeException e) {
             log.severe("runtime error: " + e.getMessage());
             Util.createErrorPlaceHolder(Util.getTestFileName(currentOutPath),
                     "runtime error: " + Arrays.toString(e.getStackTrace()));
+            recordGraph(ResultManifest.STATUS_ERROR, "runtime error: " + e);
         } catch (IOException e) {
             log.severe("io error: " + e.getMessage());
             Util.createErrorPlaceHolder(Util.getTestFileName(currentOutPath),
                     "io error: " + Arrays.toString(e.getStackTrace()));
+            recordGraph(ResultManifest.STATUS_ERROR, "io error: " + e);
+        } finally {
+            // do not leave writes into this app behind
+            if (jimpleWriter != null) jimpleWriter.finish();
+        }
+    }
+
+    private static Map<String, String> getJimpleOptions() {
+        Map<String, String> options = new TreeMap<>();
+        boolean all = cmd.hasOption(OPTION_ALL_JIMPLE);
+        options.put("jimple", all ? "all" : "app");
+        options.put("jimple_gzip", String.valueOf(cmd.hasOption(OPTION_JIMPLE_GZIP)));
+        if (!all) {
+            // the classes printed
+            options.put("ui_closure", String.valueOf(UI_CLOSURE_HOPS));
+            if (libraryFilterHash != null) options.put("tpl_list", libraryFilterHash);
+        }
+        return options;
+    }
+
+    /**
+     * @return the app classes to print, with -j only the ones the analysis loads
+     * bodies for (the ui closure, no libraries)
+     */
+    private static List<SootClass> getJimpleClasses() {
+        boolean all = cmd.hasOption(OPTION_ALL_JIMPLE);
+        List<SootClass> classes = new ArrayList<>();
+        for (SootClass klass : new ArrayList<>(Scene.v().getApplicationClasses())) {
+            if (klass.isPhantom()) continue;
+            if (!all && uiClosure != null && !uiClosure.contains(klass.getName())) continue;
+            if (!all && libraryFilter != null && libraryFilter.isLibraryClass(klass.getName())) continue;
+            classes.add(klass);
+        }
+        return classes;
+    }
+
+    private static List<SootMethod> getMissingBodies(List<SootClass> classes) {
+        List<SootMethod> methods = new ArrayList<>();
+        for (SootClass klass : classes) {
+            for (SootMethod method : klass.getMethods()) {
+                if (method.isConcrete() && !method.hasActiveBody()) methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    private static JimpleWriter startJimpleWriter(String outDirJimple, List<SootClass> classes) throws IOException {
+        File jimpleFolder = new File(outDirJimple);
+        if (jimpleFolder.isDirectory()) {
+            log.info("Remove folder: " + outDirJimple);
+            Util.rmDir(Paths.get(outDirJimple));
+        }
+        if (!jimpleFolder.mkdirs()) {
+            log.warning(String.format("mkdir %s fails", jimpleFolder.getName()));
+        }
+        log.info(String.format("writing jimple of %d classes in: %s", classes.size(), outDirJimple));
+        JimpleWriter writer = new JimpleWriter(outDirJimple, cmd.hasOption(OPTION_JIMPLE_GZIP), SOOT_CG_THREAD_NUM);
+        for (SootClass klass : classes) {
+            writer.submit(klass);
+        }
+        return writer;
+    }
+
+    private static void finishJimpleWriter(JimpleWriter writer, File finishMark,
+                                           Map<String, String> jimpleOptions, String dexHash) {
+        int failed = writer.finish();
+        if (failed > 0) {
+            log.warning(String.format("jimple of %d / %d classes cannot be written",
+                    failed, writer.getSubmittedNum()));
+        }
+        // add the finish mark
+        if (finishMark.mkdir())
+            log.info("jimple code printed");
+        manifest.record(ResultManifest.STAGE_JIMPLE, jimpleOptions, dexHash,
+                ResultManifest.STATUS_DONE, failed > 0 ? failed + " classes not written" : null);
+        manifest.save();
+    }
+
+    /**
+     * Write the ui-code links read from the dex code (see LiteAnalyzer), without soot
+     */
+    private static void runLite(String apk) {
+        Map<String, String> options = Collections.singletonMap("lite", "true");
+        String reason = manifest.check(ResultManifest.STAGE_LITE, options, graphInput);
+        if (reason == null && !isForceWriteMode) {
+            log.info("no work to do with the lite links");
+            return;
+        }
+        String arscJson = Paths.get(currentOutPath, "arsc_string.json").toAbsolutePath().toString();
+        if (!new File(arscJson).exists()) {
+            log.severe("no arsc_string file found for apk: "+ apk);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        LiteAnalyzer analyzer = new LiteAnalyzer(apk, arscJson, log);
+        try {
+            analyzer.run();
+        } catch (IOException | RuntimeException e) {
+            log.severe("error when reading the dex: " + e.getMessage());
+            manifest.record(ResultManifest.STAGE_LITE, options, graphInput, ResultManifest.STATUS_ERROR, e.toString());
+            manifest.save();
+            return;
+        }
+        events = analyzer.getEvents();
+        Util.saveEventFile(events, currentOutPath);
+        findEdges = analyzer.getFindEdges();
+        useEdges = new HashMap<>();
+        switchEdges = new HashMap<>();
+        threadEdges = new HashMap<>();
+        cgAlgoUsed = null;
+        saveInfo(Paths.get(currentOutPath, INFO_FILE_NAME).toAbsolutePath().toString());
+        hardcodeStrings = analyzer.getHardcodeStrings();
+        Util.mergeCodeString(Paths.get(currentOutPath, CONT_FILE_NAME).toAbsolutePath().toString(), hardcodeStrings);
+        if (!cmd.hasOption(OPTION_NO_CODE_STR)) {
+            Util.saveInCodeString(Paths.get(currentOutPath, STR_FILE_NAME).toAbsolutePath().toString(), hardcodeStrings);
+        }
+        log.info(String.format("lite links ready (%d ms)", System.currentTimeMillis() - start));
+        manifest.record(ResultManifest.STAGE_LITE, options, graphInput, ResultManifest.STATUS_DONE, null,
+                "event.xml", INFO_FILE_NAME, STR_FILE_NAME);
+        manifest.save();
+    }
+
+    private static InfoflowConfiguration.CallgraphAlgorithm getCgAlgo() {
+        InfoflowConfiguration.CallgraphAlgorithm algo;
+        if (cmd.hasOption(OPTION_CG_ALGO)) {
+            String value = cmd.getOptionValue(OPTION_CG_ALGO).toLowerCase();
+            if (value.equals("cha")) {
+                algo = InfoflowConfiguration.CallgraphAlgorithm.CHA;
+            }
+            else if (value.equals("spark")) {
+                algo = InfoflowConfiguration.CallgraphAlgorithm.SPARK;
+                isSpark = true;
+            } else {
+                log.warning(String.format("unknown cg algo %s, use CHA", value));
+                algo = InfoflowConfiguration.CallgraphAlgorithm.CHA;
+            }
+        } else {
+            log.info("no cg algo specified, use CHA");
+            algo = InfoflowConfiguration.CallgraphAlgorithm.CHA;
+        }
+        return algo;
+    }
+
+    /**
+     * Options that change the cg (and the callbacks behind it)
+     */
+    private static Map<String, String> getCgOptions(InfoflowConfiguration.CallgraphAlgorithm algo) {
+        Map<String, String> options = new TreeMap<>();
+        options.put("cg_algo", algo.name());
+        options.put("profile", profile.name());
+        options.put("timeout_callback", String.valueOf(SOOT_CB_TIMEOUT));
+        options.put("timeout_dataflow", String.valueOf(SOOT_DF_TIMEOUT));
+        options.put("timeout_path", String.valueOf(SOOT_PR_TIMEOUT));
+        options.put("budget_cg_time", String.valueOf(CG_BUDGET_TIME));
+        options.put("budget_cg_heap", String.valueOf(CG_BUDGET_HEAP));
+        options.put("save_flow", String.valueOf(cmd.hasOption(OPTION_SAVE_FLOW)));
+        options.put("ui_closure", String.valueOf(UI_CLOSURE_HOPS));
+        options.put("ui_entry", String.valueOf(cmd.hasOption(OPTION_UI_ENTRY)));
+        options.put("tpl_list", libraryFilterHash == null ? "" : libraryFilterHash);
+        return options;
+    }
+
+    /**
+     * Options that change the graph files, including the ones of the cg
+     */
+    private static Map<String, String> getGraphOptions(Map<String, String> cgOptions) {
+        Map<String, String> options = new TreeMap<>(cgOptions);
+        options.put("no_ui", String.valueOf(cmd.hasOption(OPTION_NO_UI)));
+        options.put("no_code_str", String.valueOf(cmd.hasOption(OPTION_NO_CODE_STR)));
+        // the prescan may skip an app, which -np would analyze
+        options.put("no_prescan", String.valueOf(cmd.hasOption(OPTION_NO_PRESCAN)));
+        options.put("reach_index", String.valueOf(cmd.hasOption(OPTION_REACH_INDEX)));
+        options.put("prune", String.valueOf(cmd.hasOption(OPTION_PRUNE)));
+        options.put("mundane_lists", mundaneMatcher == null ? "" : mundaneMatcher.getHash());
+        return options;
+    }
+
+    private static void loadLibraryFilter() {
+        libraryFilter = null;
+        libraryFilterHash = null;
+        if (!cmd.hasOption(OPTION_TPL_LIST)) return;
+        String listFile = cmd.getOptionValue(OPTION_TPL_LIST);
+        String tplJson = Paths.get(currentOutPath, "tpl.json").toAbsolutePath().toString();
+        try {
+            libraryFilter = LibraryFilter.load(listFile, tplJson, log);
+            libraryFilterHash = Util.getFileHash(Arrays.asList(new File(listFile), new File(tplJson)));
+            log.info(String.format("%d tpl packages excluded", libraryFilter.getPackages().size()));
+        } catch (IOException | RuntimeException e) {
+            log.severe("cannot load tpl list, libraries are analyzed: " + e.getMessage());
         }
-        catch (URISyntaxException | XMLStreamException e) {
-            log.severe("xml error: " + e.getMessage());
+    }
+
+    /**
+     * @return cg stats of the last run without a tpl list but otherwise the same
+     * cg options, used to report what the exclusion saves
+     */
+    private static Map<String, Object> getLibraryBaseline(Map<String, String> cgOptions) {
+        if (libraryFilter == null) return null;
+        Map<String, String> options = manifest.getOptions(ResultManifest.STAGE_CG);
+        Map<String, Object> stats = manifest.getStats(ResultManifest.STAGE_CG);
+        if (options == null || stats == null || !"".equals(options.get("tpl_list"))) return null;
+        Map<String, String> current = new TreeMap<>(cgOptions);
+        current.remove("tpl_list");
+        options.remove("tpl_list");
+        return current.equals(options) ? stats : null;
+    }
+
+    /**
+     * Hash of the ui layer files written by the apk parser
+     */
+    private static String getUiHash() {
+        List<File> files = new ArrayList<>();
+        File[] layoutFiles = Paths.get(currentOutPath, "layout").toFile().listFiles();
+        if (layoutFiles != null) {
+            Arrays.sort(layoutFiles);
+            files.addAll(Arrays.asList(layoutFiles));
+        }
+        files.add(Paths.get(currentOutPath, "arsc_string.json").toFile());
+        files.add(Paths.get(currentOutPath, "values", "public.xml").toFile());
+        return Util.getFileHash(files);
+    }
+
+    /**
+     * Keep the part of the graph reachable from the ui and the methods linked to it
+     */
+    private static void pruneGraph() {
+        GraphPruner pruner = new GraphPruner(graph);
+        List<Map<String, ? extends Collection<?>>> links = Arrays.asList(findEdges, useEdges, switchEdges, threadEdges);
+        for (Map<String, ? extends Collection<?>> link : links) {
+            if (link == null) continue;
+            for (Collection<?> methods : link.values()) {
+                for (Object method : methods) pruner.addMethods(method.toString());
+            }
+        }
+        if (events != null) {
+            for (Map<String, HashSet<String>> views : events.values()) {
+                for (Set<String> handlers : views.values()) {
+                    for (String handler : handlers) pruner.addMethods(handler);
+                }
+            }
+        }
+        graph = pruner.prune();
+        Map<String, Object> stats = pruner.getStats();
+        log.info(String.format("graph pruned to %s nodes and %s edges (of %s and %s)", stats.get("nodesAfter"),
+                stats.get("edgesAfter"), stats.get("nodesBefore"), stats.get("edgesBefore")));
+        String jsonData = JSON.toJSONString(stats, JSONWriter.Feature.PrettyFormat);
+        try (FileWriter writer = new FileWriter(Paths.get(currentOutPath, Util.sEncoding, PRUNE_FILE_NAME).toFile(),
+                false)) {
+            writer.write(jsonData);
+        } catch (IOException e) {
+            log.warning("cannot write prune stats: " + e.getMessage());
         }
     }
 
+    private static void saveReachabilityIndex() {
+        long start = System.currentTimeMillis();
+        ReachabilityIndex index = ReachabilityIndex.build(graph, events);
+        File indexFile = Paths.get(currentOutPath, Util.sEncoding, ReachabilityIndex.FILE_NAME).toFile();
+        try {
+            index.save(indexFile);
+            log.info(String.format("reachability index of %d ui nodes saved (%d ms)",
+                    index.getControls().size(), System.currentTimeMillis() - start));
+        } catch (IOException e) {
+            log.warning("cannot save reachability index: " + e.getMessage());
+        }
+    }
+
+    private static void recordGraph(String status, String reason, String... artifacts) {
+        manifest.record(ResultManifest.STAGE_GRAPH, graphOptions, graphInput, status, reason, artifacts);
+        manifest.save();
+    }
+
     private static int initCmdOptions(String[] args) throws ParseException {
         CommandLineParser parser = new DefaultParser();
 
@@ -544,6 +909,41 @@ public class Main {
         if (cmd.hasOption(OPTION_SOOT_THREAD)) {
             SOOT_CG_THREAD_NUM = Integer.parseInt(cmd.getOptionValue(OPTION_SOOT_THREAD));
         }
+        if (cmd.hasOption(OPTION_BUDGET_CG_TIME)) {
+            CG_BUDGET_TIME = Integer.parseInt(cmd.getOptionValue(OPTION_BUDGET_CG_TIME));
+        }
+        if (cmd.hasOption(OPTION_BUDGET_CG_HEAP)) {
+            CG_BUDGET_HEAP = Integer.parseInt(cmd.getOptionValue(OPTION_BUDGET_CG_HEAP));
+        }
+        if (CG_BUDGET_TIME > 0 && CG_BUDGET_HEAP <= 0) {
+            // the child jvm building the cg would get as much heap as this one
+            System.out.println("A time budget (-bct) needs a heap budget (-bch) for the child jvm.");
+            return 1;
+        }
+        if (cmd.hasOption(OPTION_UI_CLOSURE)) {
+            UI_CLOSURE_HOPS = Integer.parseInt(cmd.getOptionValue(OPTION_UI_CLOSURE));
+        }
+        if (cmd.hasOption(OPTION_JIMPLE_CACHE_SIZE)) {
+            JIMPLE_CACHE_SIZE = Integer.parseInt(cmd.getOptionValue(OPTION_JIMPLE_CACHE_SIZE));
+        }
+        if (cmd.hasOption(OPTION_JIMPLE_CACHE)) {
+            jimpleCache = new JimpleCache(cmd.getOptionValue(OPTION_JIMPLE_CACHE), JIMPLE_CACHE_SIZE);
+        }
+        if (cmd.hasOption(OPTION_MUNDANE_LISTS)) {
+            try {
+                mundaneMatcher = MundaneMatcher.load(cmd.getOptionValue(OPTION_MUNDANE_LISTS));
+            } catch (IOException e) {
+                System.out.println("Cannot read mundane lists: " + e.getMessage());
+                return 1;
+            }
+        }
+        if (cmd.hasOption(OPTION_PROFILE)) {
+            profile = AnalysisProfile.parse(cmd.getOptionValue(OPTION_PROFILE));
+            if (profile == null) {
+                System.out.println("Unknown profile: " + cmd.getOptionValue(OPTION_PROFILE));
+                return 1;
+            }
+        }
         if (cmd.hasOption(OPTION_PLATFORM)) {
             ANDROID_JARS = cmd.getOptionValue(OPTION_PLATFORM);
         }
@@ -578,10 +978,37 @@ public class Main {
         options.addOption(OPTION_PLATFORM, "platforms", true, "Android platform jars");
         options.addOption(OPTION_JIMPLE, "jimple", false, "Print jimple codes for app codes");
         options.addOption(OPTION_ALL_JIMPLE, "all_jimple", false, "Print all jimple codes");
+        options.addOption(OPTION_JIMPLE_GZIP, "jimple_gzip", false, "Compress the printed jimple files (.jimple.gz)");
         options.addOption(OPTION_OPCODE_PATH, "op_path", true, "Path to save all op codes");
         options.addOption(OPTION_CG_ALGO, "cg_algo", true,
                 "Algo used for building cg (cha | spark)");
+        options.addOption(OPTION_PROFILE, "profile", true,
+                "Preset of flowdroid settings (fast | balanced | precise), default: precise");
+        options.addOption(OPTION_NO_CB_CACHE, "no_callback_cache", false,
+                "Do not save or load the callbacks found by flowdroid");
+        options.addOption(OPTION_REUSE_CG, "reuse_cg", false,
+                "Reuse the cg snapshot of an earlier run and rebuild the graph only (implies -f)");
+        options.addOption(OPTION_NO_PRESCAN, "no_prescan", false,
+                "Do not skip apps without listener registrations before building the cg");
+        options.addOption(OPTION_UI_CLOSURE, "ui_closure", true,
+                "Only load bodies for ui-relevant classes and the classes they refer to within the given hops");
+        options.addOption(OPTION_UI_ENTRY, "ui_entry", false,
+                "Build the cg from the ui event handlers and view accesses instead of the flowdroid dummy main");
+        options.addOption(OPTION_TPL_LIST, "tpl_list", true,
+                "Load the listed third-party packages (and those in <output>/tpl.json) as signatures only");
+        options.addOption(OPTION_JIMPLE_CACHE, "jimple_cache", true,
+                "Folder to cache jimple bodies across apps, keyed by the dex code of each class");
+        options.addOption(OPTION_JIMPLE_CACHE_SIZE, "jimple_cache_size", true,
+                "Size of the jimple cache, least recently used classes are evicted beyond it (unit: MB, default: 4096)");
+        options.addOption(OPTION_LITE, "lite", false,
+                "Only write the ui-code links (events, find links, strings) read from the dex, without soot and the kg");
         options.addOption(OPTION_NO_UI, "no_ui", false, "Exclude ui graph");
+        options.addOption(OPTION_PRUNE, "prune", false,
+                "Only write the nodes reachable from the ui and the methods linked to it, with stats");
+        options.addOption(OPTION_MUNDANE_LISTS, "mundane_lists", true,
+                "Folder with mundane_calls.txt and mundane_classes.txt, to mark noise methods in node.csv");
+        options.addOption(OPTION_REACH_INDEX, "reach_index", false,
+                "Save the android/java apis reachable from the handlers and finders of each ui");
         options.addOption(OPTION_NO_LOG, "no_log", false, "Do not write log to file");
         options.addOption(OPTION_LOGGING, "log_level", true, "Logging level, default: info");
         options.addOption(OPTION_NO_CODE_STR, "no_code_str", false,
@@ -598,7 +1025,13 @@ public class Main {
         options.addOption(OPTION_TIME_DF, "timeout_dataflow", true,
                 "Time out for soot track dataflow (unit: min, 0 to default)");
         options.addOption(OPTION_SOOT_THREAD, "soot_thread", true,
-                "Threads used for soot");
+                "Threads used for soot and the ui-code analysis");
+        options.addOption(OPTION_BUDGET_CG_TIME, "budget_cg_time", true,
+                "Time budget for building spark cg, fall back to cha when exceeded (unit: min, 0 to no limit, needs -bch)");
+        options.addOption(OPTION_BUDGET_CG_HEAP, "budget_cg_heap", true,
+                "Heap budget for building spark cg, fall back to cha when exceeded (unit: MB, 0 to no limit)");
+        options.addOption(OPTION_CG_ONLY, "cg_only", false,
+                "Only build the cg and save its snapshot (run by -bct and -bch in a child jvm)");
         return options;
     }
 
@@ -637,13 +1070,173 @@ public class Main {
     }
 
     private static void saveInfo(String outputFile) {
-        AdditionalInfo obj = new AdditionalInfo(findEdges, useEdges, switchEdges, threadEdges);
+        AdditionalInfo obj = new AdditionalInfo(findEdges, useEdges, switchEdges, threadEdges,
+                String.valueOf(cgAlgoUsed));
         String jsonData = JSON.toJSONString(obj, JSONWriter.Feature.PrettyFormat);
         try (FileWriter writer = new FileWriter(outputFile, false)) {
             writer.write(jsonData);
         } catch (IOException ignored) {}
     }
 
+    /**
+     * Build the call graph with the given algo
+     * @return the algo used
+     */
+    private static InfoflowConfiguration.CallgraphAlgorithm buildCallgraph(
+            String apk, InfoflowConfiguration.CallgraphAlgorithm algo)
+            throws URISyntaxException, XMLStreamException, IOException {
+        SetupApplication app = configApp(apk, algo);
+        printInfo();
+        app.constructCallgraph();
+        return algo;
+    }
+
+    /**
+     * Build the cg of the apk in a child jvm (this main with -cgo), which
+     * saves the cg snapshot and records the cg stage. When the child goes
+     * over the cg budget, it is killed and the caller rebuilds the cg with cha,
+     * unless the snapshot was saved before
+     * @return the snapshot of the child, null to fall back to cha
+     */
+    private static CGSnapshot buildBudgetedCallgraph(String apk, CallGraphBudget budget, File snapshotFile,
+                                                     String dexHash, Map<String, String> cgOptions) {
+        List<String> args = new ArrayList<>();
+        for (Option option : cmd.getOptions()) {
+            if (CG_CHILD_DROPPED_OPTIONS.contains(option.getOpt())) continue;
+            args.add("-" + option.getOpt());
+            if (option.hasArg()) args.add(option.getValue());
+        }
+        Collections.addAll(args, "-" + OPTION_INPUT, apk, "-" + OPTION_OUTPUT, currentOutPath,
+                "-" + OPTION_CG_ONLY, "-" + OPTION_FORCE_WRITE, "-" + OPTION_NO_LOG);
+        log.info("build the spark cg in a child jvm: " + String.join(" ", args));
+        // only a snapshot of the child counts
+        if (snapshotFile.exists() && !snapshotFile.delete()) {
+            log.warning("cannot remove the old cg snapshot: " + snapshotFile);
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        boolean inBudget = budget.run(Main.class.getName(), args);
+        // the snapshot is moved into place once complete, so a child killed
+        // after saving it still built the whole cg
+        CGSnapshot snapshot = CGSnapshot.load(snapshotFile);
+        if (snapshot == null || !snapshot.fits(dexHash, cgOptions)) {
+            log.warning(String.format("spark cg cancelled after %d ms (%s), fall back to cha",
+                    System.currentTimeMillis() - start,
+                    inBudget ? "no cg snapshot saved by the child jvm" : budget.getReason()));
+            return null;
+        }
+        if (!inBudget) log.info("cg snapshot saved before the child jvm is killed: " + budget.getReason());
+        // the child recorded the cg stage, unless it was killed before
+        manifest = ResultManifest.load(currentOutPath);
+        if (manifest.check(ResultManifest.STAGE_CG, cgOptions, dexHash) != null) {
+            manifest.record(ResultManifest.STAGE_CG, cgOptions, dexHash, ResultManifest.STATUS_DONE,
+                    null, "cache/" + CGSnapshot.FILE_NAME);
+            manifest.save();
+        }
+        log.info(String.format("spark cg built by the child jvm in %d ms", System.currentTimeMillis() - start));
+        return snapshot;
+    }
+
+    /**
+     * Run the event analysis and save event.xml. The ui-code links of the
+     * graph stage (uiParser) are read in the same walk of the bodies
+     * @return false if there is no event, then the graph is skipped
+     */
+    private static boolean parseEvents(String apk) {
+        String contextFile = Paths.get(currentOutPath, CONT_FILE_NAME).toAbsolutePath().toString();
+        Map<String, Set<String>> viewListFromLayouts = Util.getViewListFromLayouts(contextFile);
+        long start = System.currentTimeMillis();
+        EventAnalyzer eventAnalyzer = new EventAnalyzer(apk, log, viewListFromLayouts);
+        BodyVisitor visitor = new BodyVisitor(log, SOOT_CG_THREAD_NUM);
+        visitor.register(eventAnalyzer);
+        // without the ui graph, the links are only needed for the ui entry points
+        if (!cmd.hasOption(OPTION_NO_UI) || cmd.hasOption(OPTION_UI_ENTRY)) {
+            String arscJson = Paths.get(currentOutPath, "arsc_string.json").toAbsolutePath().toString();
+            uiParser = new CodeParser(log, Scene.v().getApplicationClasses(), arscJson);
+            visitor.register(uiParser);
+        }
+        visitor.run(Scene.v().getApplicationClasses());
+        eventAnalyzer.finish();
+        events = eventAnalyzer.getResults();
+        eventHandlers = eventAnalyzer.getHandlers();
+        long end = System.currentTimeMillis();
+        String timeSpan = String.valueOf(end - start);
+        log.info(String.format("event parse time: %s", timeSpan));
+        Util.saveEventFile(events, currentOutPath);
+        // if no event, no need to process
+        if (events.isEmpty()) {
+            recordGraph(ResultManifest.STATUS_SKIPPED, "no ui event", "event.xml");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The cg only builds the bodies of the methods it reaches, while the ui
+     * analysis reads all the application methods. They are built here in
+     * parallel before the cg (or after a reused one), so the passes only read them
+     */
+    private static void retrieveAppBodies() {
+        List<SootMethod> methods = new ArrayList<>();
+        for (SootClass klass : new ArrayList<>(Scene.v().getApplicationClasses())) {
+            if (klass.isPhantom()) continue;
+            for (SootMethod method : klass.getMethods()) {
+                if (method.isConcrete() && !method.hasActiveBody()) methods.add(method);
+            }
+        }
+        long start = System.currentTimeMillis();
+        int failed = Util.retrieveBodies(methods, SOOT_CG_THREAD_NUM);
+        log.info(String.format("%d method bodies built in %d ms", methods.size(),
+                System.currentTimeMillis() - start));
+        if (failed > 0) log.warning(String.format("%d method bodies cannot be built", failed));
+    }
+
+    /**
+     * Build the cg from the ui event handlers and the methods that find or
+     * hold views, instead of the lifecycle dummy main of flowdroid. Only the
+     * code reachable from the ui gets cg edges
+     * @return the algo used
+     */
+    private static InfoflowConfiguration.CallgraphAlgorithm buildUiEntryCallgraph(
+            InfoflowConfiguration.CallgraphAlgorithm algo, CodeParser parser) {
+        // handlers in signature order, as the sets are not ordered
+        Set<SootMethod> handlers = new TreeSet<>(Comparator.comparing(SootMethod::getSignature));
+        for (HashMap<String, HashSet<SootMethod>> id2Handlers : eventHandlers.values()) {
+            for (HashSet<SootMethod> methods : id2Handlers.values()) handlers.addAll(methods);
+        }
+        Set<SootMethod> entryPoints = new LinkedHashSet<>(handlers);
+        for (Set<String> methods : parser.getFindEdges().values()) {
+            for (String signature : methods) {
+                SootMethod method = Scene.v().grabMethod(signature);
+                if (method != null) entryPoints.add(method);
+            }
+        }
+        entryPoints.addAll(parser.getUiFieldMethods());
+        entryPoints.removeIf(m -> !m.isConcrete());
+        log.info(String.format("ui entry points: %d", entryPoints.size()));
+        Scene.v().setEntryPoints(new ArrayList<>(entryPoints));
+        long start = System.currentTimeMillis();
+        PackManager.v().getPack("cg").apply();
+        log.info(String.format("ui entry cg time: %d", System.currentTimeMillis() - start));
+        return algo;
+    }
+
+    private static void saveSnapshot(CGSnapshot snapshot, File snapshotFile) {
+        if (snapshot.dexHash == null) return;
+        File cacheDir = snapshotFile.getParentFile();
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            log.warning("cannot create cache folder: " + cacheDir);
+            return;
+        }
+        try {
+            snapshot.save(snapshotFile);
+            log.info(String.format("cg snapshot saved: %d methods, %d edges",
+                    snapshot.methods.size(), snapshot.edgeNum));
+        } catch (IOException e) {
+            log.warning("cannot save cg snapshot: " + e.getMessage());
+        }
+    }
+
     public static void printInfo() {
         log.info(String.format("API ver: %d (min:%d, tgt:%d)",
                 Scene.v().getAndroidAPIVersion(),
@@ -673,7 +1266,28 @@ public class Main {
         Options.v().set_app(true);
 
         Options.v().set_process_multiple_dex(true);
+        // threads soot uses to build bodies in runPacks (-jj)
+        Options.v().set_num_threads(SOOT_CG_THREAD_NUM);
         Options.v().set_no_bodies_for_excluded(false);
+        List<String> excluded = new ArrayList<>();
+        List<String> included = new ArrayList<>();
+        if (uiClosure != null) {
+            excluded.addAll(uiExcludedPackages);
+            for (String className : uiClosure) {
+                if (libraryFilter == null || !libraryFilter.isLibraryClass(className)) included.add(className);
+            }
+        }
+        if (libraryFilter != null) {
+            excluded.addAll(libraryFilter.getExcludedPackages());
+        }
+        if (!excluded.isEmpty()) {
+            // classes out of the ui closure or in libraries are kept as signatures (phantom),
+            // only the default exclusions are dropped so that the platform is loaded as before
+            Options.v().set_include_all(true);
+            Options.v().set_exclude(excluded);
+            Options.v().set_include(included);
+            Options.v().set_no_bodies_for_excluded(true);
+        }
 
         // spark options
         if (isSpark) {
@@ -685,18 +1299,10 @@ public class Main {
             Options.v().setPhaseOption(phase, "propagator:worklist");
         }
 
-        Options.v().setPhaseOption("cg", "all-reachable:true");
+        // in ui entry mode, only the code reachable from the entry points set later
+        Options.v().setPhaseOption("cg", "all-reachable:" + !cmd.hasOption(OPTION_UI_ENTRY));
         Options.v().setPhaseOption("cg", "safe-newinstance:false");
 
-        if (option_jimple) {
-            /*
-             Seems not work:
-             String outDirJimple = Paths.get(currentOutPath, "jimple").toAbsolutePath().toString();
-             Options.v().set_output_dir(outDirJimple);
-            */
-            Options.v().set_no_writeout_body_releasing(true);
-            Options.v().set_output_format(Options.output_format_jimple);
-        }
         if (cmd.hasOption(OPTION_OPCODE_PATH)) {
             Options.v().set_output_format(Options.output_format_force_dex);
             Options.v().set_no_writeout_body_releasing(true);
@@ -704,6 +1310,10 @@ public class Main {
 
         Scene.v().loadNecessaryClasses();
         Scene.v().loadBasicClasses();
+        if (classHashes != null) {
+            log.info(String.format("jimple cache: bodies of %d classes loaded from the cache",
+                    jimpleCache.attach(classHashes)));
+        }
         sootConfigReady = true;
         log.info("config soot ready");
     }
@@ -729,16 +1339,10 @@ public class Main {
         log.info(String.format("Using CG Algo %s", config.getCallgraphAlgorithm()));
         config.setMergeDexFiles(true);
 
-        // improve accuracy
-        config.setStaticFieldTrackingMode(InfoflowConfiguration.StaticFieldTrackingMode.ContextFlowSensitive);
-        config.setEnableReflection(true);
-        config.getAccessPathConfiguration().setAccessPathLength(500);
-        config.setAliasingAlgorithm(InfoflowConfiguration.AliasingAlgorithm.FlowSensitive);
-
-        // callback settings
+        // accuracy and callback settings
+        profile.apply(config);
+        log.info(String.format("Using profile %s", profile));
         config.getCallbackConfig().setEnableCallbacks(true);
-        config.getCallbackConfig().setMaxCallbacksPerComponent(500);
-        config.getCallbackConfig().setMaxAnalysisCallbackDepth(500);
         config.getCallbackConfig().setFilterThreadCallbacks(false);
         // config.getCallbackConfig().setCallbacksFile("lib/AndroidCallbacks.txt");
 
@@ -755,8 +1359,18 @@ public class Main {
         if (SOOT_PR_TIMEOUT > 0)
             config.getPathConfiguration().setPathReconstructionTimeout(SOOT_PR_TIMEOUT * 60L);
 
+        // callbacks and entry points found in an earlier run on the same dex
+        // are loaded by flowdroid, which then skips the iterative callback analysis
+        callbackCacheFile = cmd.hasOption(OPTION_NO_CB_CACHE) ? null : getCallbackCacheFile(apk, algo);
+        callbackCacheLoaded = callbackCacheFile != null && new File(callbackCacheFile).exists();
+        if (callbackCacheFile != null) {
+            config.getCallbackConfig().setSerializeCallbacks(true);
+            config.getCallbackConfig().setCallbacksFile(callbackCacheFile);
+            log.info(String.format("callback cache (%s): %s",
+                    callbackCacheLoaded ? "load" : "save", callbackCacheFile));
+        }
+
         SetupApplication analyzer = new SetupApplication(config);
-        analyzer.getConfig().setFlowSensitiveAliasing(true);
         analyzer.getConfig().setImplicitFlowMode(InfoflowConfiguration.ImplicitFlowMode.AllImplicitFlows);
         analyzer.getConfig().setCodeEliminationMode(InfoflowConfiguration.CodeEliminationMode.NoCodeElimination);
 
@@ -771,7 +1385,8 @@ public class Main {
 
         // disable exception tracking can make the analysis faster
         analyzer.getConfig().setEnableExceptionTracking(false);
-        analyzer.getConfig().setWriteOutputFiles(writeMinJimpleFiles);
+        // jimple is written by JimpleWriter
+        analyzer.getConfig().setWriteOutputFiles(false);
         analyzer.setCallbackFile("lib/AndroidCallbacks.txt");
 
         // inject StubDroid hierarchy
@@ -780,6 +1395,44 @@ public class Main {
         return analyzer;
     }
 
+    /**
+     * Callbacks depend on the code and on the settings of the callback analysis,
+     * so the cache file is keyed by the dex hash and the options of the cg stage
+     * (a timeout leaves a partial result, -tpl and -uc change the classes loaded)
+     * @return path of the cache file, or null if the dex cannot be hashed
+     */
+    private static String getCallbackCacheFile(String apk, InfoflowConfiguration.CallgraphAlgorithm algo) {
+        String dexHash = Util.getDexHash(apk);
+        if (dexHash == null) return null;
+        File cacheDir = Paths.get(currentOutPath, "cache").toFile();
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            log.warning("cannot create cache folder: " + cacheDir);
+            return null;
+        }
+        return new File(cacheDir, getCallbackCacheName(dexHash, getCgOptions(algo))).getAbsolutePath();
+    }
+
+    /**
+     * The budgets only decide whether spark is kept, and the algo used is
+     * one of the options, so they are left out of the key
+     */
+    static String getCallbackCacheName(String dexHash, Map<String, String> cgOptions) {
+        Map<String, String> options = new TreeMap<>(cgOptions);
+        options.remove("budget_cg_time");
+        options.remove("budget_cg_heap");
+        return String.format("callbacks_%s_%s.kryo", dexHash.substring(0, 16),
+                Util.getOptionHash(options).substring(0, 16));
+    }
+
+    private static void dropCallbackCache() {
+        // a broken cache file must not fail the next runs as well
+        if (!callbackCacheLoaded) return;
+        File cache = new File(callbackCacheFile);
+        if (cache.exists() && cache.delete()) {
+            log.info("callback cache removed: " + callbackCacheFile);
+        }
+    }
+
     @Deprecated
     public static void addAdditionalInfoFlowConfig(InfoflowAndroidConfiguration config) {
         config.getPathConfiguration().setPathBuildingAlgorithm(InfoflowConfiguration.PathBuildingAlgorithm.ContextSensitive);
@@ -7,6 +7,7 @@ public class MethodHelper {
     private final SootMethod method;
     private UnitPatchingChain units;
     private Value layout;
+    private DefUseIndex index;
     public MethodHelper(Logger log, SootMethod sootMethod) {
         this.method = sootMethod;
         this.log = log;
@@ -27,16 +28,21 @@ public class MethodHelper {
         return units;
     }
 
+    private DefUseIndex getIndex() {
+        if (index == null) index = new DefUseIndex(method.getActiveBody());
+        return index;
+    }
+
     public String getXmlIdFromUnit(Unit unit) {
         if (isEmpty()) return null;
         if (layout == null) {
             log.fine("layout val is null.");
             return null;
         }
-        Unit last = units.getPredOf(unit);
-        while (last != null) {
+        if (!(layout instanceof Local)) return null;
+        for (Unit use : getIndex().getUsesBefore((Local) layout, unit)) {
             // virtualinvoke $r2.<android.app.Dialog: void setContentView(int)>(xxx);
-            Stmt s = (Stmt) last;
+            Stmt s = (Stmt) use;
             if (s instanceof InvokeStmt) {
                 InvokeStmt invokeStmt = (InvokeStmt) s;
                 SootMethod invokeMethod = invokeStmt.getInvokeExpr().getMethod();
@@ -52,48 +58,45 @@ public class MethodHelper {
                     }
                 }
             }
-            last = units.getPredOf(last);
         }
         return null;
     }
 
     public String getStringFromUnit(Unit unit, Local val) {
         if (isEmpty()) return null;
-        Unit last = units.getPredOf(unit);
-        while (last != null) {
-            Stmt s = (Stmt) last;
-            if (s instanceof AssignStmt) {
-                AssignStmt assignStmt = (AssignStmt) s;
-                if (assignStmt.getLeftOp() == val) {
-                    log.finest("[get str]: "+ s);
-                    Value rightOp = assignStmt.getRightOp();
-                    if (rightOp instanceof StringConstant) {
-                        return ((StringConstant) rightOp).value;
-                    } else if (rightOp instanceof Local) {
-                        return getStringFromUnit(last, (Local) rightOp);
-                    } else if (rightOp instanceof InvokeExpr) {
-                        InvokeExpr invokeExprRight = ((InvokeExpr) rightOp);
-                        SootMethod m = invokeExprRight.getMethod();
-                        if (m.getName().contains("getString") && m.getParameterCount() == 2) {
-                            // SharedPreferences: getString("key", "default")
-                            return String.format("[p] %s %s",
-                                    invokeExprRight.getArg(0), invokeExprRight.getArg(1));
-                        }
-                        Value arg = invokeExprRight.getArg(0);
-                        if (arg instanceof StringConstant) {
-                            return ((StringConstant) arg).value;
-                        } else if (arg instanceof Local) {
-                            return getStringFromUnit(last, (Local) arg);
-                        }
-                    } else {
-                        log.fine(String.format("[get str] unknown right op: %s", rightOp.getClass()));
-                        return null;
-                    }
-                }
+        return getStringFromUnit(unit, val, 0);
+    }
+
+    private String getStringFromUnit(Unit unit, Local val, int hop) {
+        if (hop >= DefUseIndex.MAX_HOPS) return null;
+        AssignStmt assignStmt = getIndex().getAssign(val, unit);
+        if (assignStmt == null) return null;
+        log.finest("[get str]: "+ assignStmt);
+        Value rightOp = assignStmt.getRightOp();
+        if (rightOp instanceof StringConstant) {
+            return ((StringConstant) rightOp).value;
+        } else if (rightOp instanceof Local) {
+            return getStringFromUnit(assignStmt, (Local) rightOp, hop + 1);
+        } else if (rightOp instanceof InvokeExpr) {
+            InvokeExpr invokeExprRight = ((InvokeExpr) rightOp);
+            SootMethod m = invokeExprRight.getMethod();
+            if (m.getName().contains("getString") && m.getParameterCount() == 2) {
+                // SharedPreferences: getString("key", "default")
+                return String.format("[p] %s %s",
+                        invokeExprRight.getArg(0), invokeExprRight.getArg(1));
+            }
+            if (invokeExprRight.getArgCount() == 0) return null;
+            Value arg = invokeExprRight.getArg(0);
+            if (arg instanceof StringConstant) {
+                return ((StringConstant) arg).value;
+            } else if (arg instanceof Local) {
+                return getStringFromUnit(assignStmt, (Local) arg, hop + 1);
             }
-            last = units.getPredOf(last);
+            return null;
+        } else {
+            log.fine(String.format("[get str] unknown right op: %s", rightOp.getClass()));
+            return null;
         }
-        return null;
     }
 
     public String getUIIdFromUnit(Unit unit) {
@@ -108,23 +111,24 @@ public class MethodHelper {
             return value.toString();
         }
         // if not, search in local vars
-        Unit last = units.getPredOf(unit);
-        while (last != null) {
-            s = (Stmt) last;
-            if (s instanceof AssignStmt) {
-                AssignStmt assignStmt = (AssignStmt) s;
-                if (assignStmt.getLeftOp() == value) {
-                    Value rightOp = assignStmt.getRightOp();
-                    if (rightOp instanceof CastExpr) {
-                        value = ((CastExpr) rightOp).getOp();
-                    } else if (s.toString().contains("findViewById")) {
-                        // $r1 = virtualinvoke $r2.<android.app.Dialog: android.view.View findViewById(int)>(xxx);
-                        layout = rightOp.getUseBoxes().get(0).getValue();
-                        return s.getInvokeExpr().getArg(0).toString();
-                    }
-                }
+        Unit at = unit;
+        for (int hop = 0; hop < DefUseIndex.MAX_HOPS && value instanceof Local; hop++) {
+            AssignStmt assignStmt = getIndex().getAssign((Local) value, at);
+            if (assignStmt == null) return null;
+            at = assignStmt;
+            Value rightOp = assignStmt.getRightOp();
+            if (rightOp instanceof CastExpr) {
+                value = ((CastExpr) rightOp).getOp();
+            } else if (rightOp instanceof Local) {
+                value = rightOp;
+            } else if (assignStmt.containsInvokeExpr()
+                    && assignStmt.getInvokeExpr().getMethod().getName().equals("findViewById")) {
+                // $r1 = virtualinvoke $r2.<android.app.Dialog: android.view.View findViewById(int)>(xxx);
+                layout = rightOp.getUseBoxes().get(0).getValue();
+                return assignStmt.getInvokeExpr().getArg(0).toString();
+            } else {
+                return null;
             }
-            last = units.getPredOf(last);
         }
         return null;
     }
@@ -0,0 +1,134 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Tell mundane (noise) methods by the lists of Scripts/lists, as
+ * extract_uhg.py does: a method is noise if its name has any mundane call,
+ * or its class has any mundane class, as a substring. Each list is compiled
+ * into an Aho-Corasick automaton, so a name is scanned once for all entries
+ */
+public class MundaneMatcher {
+    static final String CALL_LIST = "mundane_calls.txt";
+    static final String CLASS_LIST = "mundane_classes.txt";
+    private final Automaton calls;
+    private final Automaton classes;
+    private final String hash;
+
+    private MundaneMatcher(List<String> calls, List<String> classes, String hash) {
+        this.calls = new Automaton(calls);
+        this.classes = new Automaton(classes);
+        this.hash = hash;
+    }
+
+    /**
+     * @param listDir folder with mundane_calls.txt and mundane_classes.txt
+     */
+    public static MundaneMatcher load(String listDir) throws IOException {
+        File callFile = new File(listDir, CALL_LIST);
+        File classFile = new File(listDir, CLASS_LIST);
+        return new MundaneMatcher(readList(callFile), readList(classFile),
+                Util.getFileHash(Arrays.asList(callFile, classFile)));
+    }
+
+    private static List<String> readList(File file) throws IOException {
+        List<String> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("//")) continue;
+                line = line.trim();
+                // an empty entry would match every name
+                if (!line.isEmpty()) entries.add(line);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return hash of the lists, to tell whether a graph used the same ones
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @param name method signature, e.g., <a.b.C: void f(int)>
+     * @return false for names that are not methods
+     */
+    public boolean isNoise(String name) {
+        int colon = name.indexOf(':');
+        int paren = name.indexOf('(');
+        if (colon < 0 || paren < colon) return false;
+        // class: "<a.b.C", call: " void f"
+        return classes.find(name, 0, colon) || calls.find(name, colon + 1, paren);
+    }
+
+    private static class Automaton {
+        private final List<Map<Character, Integer>> next = new ArrayList<>();
+        private final List<Integer> fail = new ArrayList<>();
+        // some entry ends here (or at a state on the failure chain)
+        private final List<Boolean> output = new ArrayList<>();
+
+        Automaton(List<String> entries) {
+            addState();
+            for (String entry : entries) {
+                int state = 0;
+                for (int i = 0; i < entry.length(); i++) {
+                    Integer to = next.get(state).get(entry.charAt(i));
+                    if (to == null) {
+                        to = addState();
+                        next.get(state).put(entry.charAt(i), to);
+                    }
+                    state = to;
+                }
+                output.set(state, true);
+            }
+            // failure links, breadth first
+            Deque<Integer> queue = new ArrayDeque<>();
+            for (int child : next.get(0).values()) {
+                fail.set(child, 0);
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                for (Map.Entry<Character, Integer> edge : next.get(state).entrySet()) {
+                    int child = edge.getValue();
+                    int f = fail.get(state);
+                    while (f > 0 && !next.get(f).containsKey(edge.getKey())) f = fail.get(f);
+                    Integer to = next.get(f).get(edge.getKey());
+                    int link = to != null && to != child ? to : 0;
+                    fail.set(child, link);
+                    if (output.get(link)) output.set(child, true);
+                    queue.add(child);
+                }
+            }
+        }
+
+        private int addState() {
+            next.add(new HashMap<>());
+            fail.add(0);
+            output.add(false);
+            return next.size() - 1;
+        }
+
+        boolean find(String text, int from, int to) {
+            if (next.get(0).isEmpty()) return false;
+            int state = 0;
+            for (int i = from; i < to; i++) {
+                char c = text.charAt(i);
+                Integer target = next.get(state).get(c);
+                while (target == null && state > 0) {
+                    state = fail.get(state);
+                    target = next.get(state).get(c);
+                }
+                state = target == null ? 0 : target;
+                if (output.get(state)) return true;
+            }
+            return false;
+        }
+    }
+}
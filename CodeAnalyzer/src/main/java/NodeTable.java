@@ -0,0 +1,202 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The graph nodes as columns instead of one object (and one attribute map)
+ * per node: the uuid, the type, and the name, class, xml, id, text and layout
+ * as ids in a string pool (-1 if missing). A row is the node index in
+ * node.csv, and rows are unique by uuid. The noise flags are optional, and
+ * only written when enabled
+ */
+public class NodeTable {
+    private static final GNode.ApkNodeLabels[] TYPES = GNode.ApkNodeLabels.values();
+    private final StringPool strings = new StringPool();
+    private long[] uuids;
+    private byte[] types;
+    private int[] names;
+    private int[] classes;
+    private int[] xmls;
+    private int[] ids;
+    private int[] texts;
+    private int[] layouts;
+    private int size;
+    // rows of mundane methods, null if not marked
+    private BitSet noise;
+    // open addressing, uuid -> row + 1
+    private int[] index;
+
+    public NodeTable() {
+        this(1024);
+    }
+
+    public NodeTable(int capacity) {
+        capacity = Math.max(capacity, 16);
+        uuids = new long[capacity];
+        types = new byte[capacity];
+        names = new int[capacity];
+        classes = new int[capacity];
+        xmls = new int[capacity];
+        ids = new int[capacity];
+        texts = new int[capacity];
+        layouts = new int[capacity];
+        index = new int[Integer.highestOneBit(capacity) * 4];
+    }
+
+    /**
+     * Add a node, the other columns are left empty
+     * @return row of the node, the existing one if the uuid is known
+     */
+    public int add(long uuid, String name, GNode.ApkNodeLabels type) {
+        int row = indexOf(uuid);
+        if (row >= 0) return row;
+        if (size == uuids.length) grow();
+        row = size++;
+        uuids[row] = uuid;
+        types[row] = (byte) type.ordinal();
+        names[row] = strings.intern(name);
+        classes[row] = -1;
+        xmls[row] = -1;
+        ids[row] = -1;
+        texts[row] = -1;
+        layouts[row] = -1;
+        if (size * 2 > index.length) rehash(index.length * 2);
+        else put(row);
+        return row;
+    }
+
+    /**
+     * Add a row of another table, with all its columns
+     * @return row of the node, the existing one if the uuid is known
+     */
+    public int addRow(NodeTable from, int fromRow) {
+        int row = indexOf(from.uuids[fromRow]);
+        if (row >= 0) return row;
+        row = add(from.uuids[fromRow], from.getName(fromRow), from.getType(fromRow));
+        setClassName(row, from.getClassName(fromRow));
+        setXml(row, from.getXml(fromRow));
+        setId(row, from.getId(fromRow));
+        setText(row, from.getText(fromRow));
+        setLayout(row, from.getLayout(fromRow));
+        if (from.hasNoise()) {
+            enableNoise();
+            setNoise(row, from.isNoise(fromRow));
+        }
+        return row;
+    }
+
+    /**
+     * @return row of the node, -1 if unknown
+     */
+    public int indexOf(long uuid) {
+        int mask = index.length - 1;
+        for (int i = slot(uuid, mask); index[i] != 0; i = (i + 1) & mask) {
+            if (uuids[index[i] - 1] == uuid) return index[i] - 1;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getUuid(int row) {
+        return uuids[row];
+    }
+
+    public GNode.ApkNodeLabels getType(int row) {
+        return TYPES[types[row]];
+    }
+
+    public int getTypeID(int row) {
+        return types[row];
+    }
+
+    public String getName(int row) {
+        return strings.get(names[row]);
+    }
+
+    public String getClassName(int row) {
+        return strings.get(classes[row]);
+    }
+
+    public void setClassName(int row, String value) {
+        classes[row] = strings.intern(value);
+    }
+
+    public String getXml(int row) {
+        return strings.get(xmls[row]);
+    }
+
+    public void setXml(int row, String value) {
+        xmls[row] = strings.intern(value);
+    }
+
+    public String getId(int row) {
+        return strings.get(ids[row]);
+    }
+
+    public void setId(int row, String value) {
+        ids[row] = strings.intern(value);
+    }
+
+    public String getText(int row) {
+        return strings.get(texts[row]);
+    }
+
+    public void setText(int row, String value) {
+        texts[row] = strings.intern(value);
+    }
+
+    public String getLayout(int row) {
+        return strings.get(layouts[row]);
+    }
+
+    public void setLayout(int row, String value) {
+        layouts[row] = strings.intern(value);
+    }
+
+    public void enableNoise() {
+        if (noise == null) noise = new BitSet();
+    }
+
+    public boolean hasNoise() {
+        return noise != null;
+    }
+
+    public boolean isNoise(int row) {
+        return noise != null && noise.get(row);
+    }
+
+    public void setNoise(int row, boolean value) {
+        enableNoise();
+        noise.set(row, value);
+    }
+
+    private void grow() {
+        int capacity = uuids.length * 2;
+        uuids = Arrays.copyOf(uuids, capacity);
+        types = Arrays.copyOf(types, capacity);
+        names = Arrays.copyOf(names, capacity);
+        classes = Arrays.copyOf(classes, capacity);
+        xmls = Arrays.copyOf(xmls, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        texts = Arrays.copyOf(texts, capacity);
+        layouts = Arrays.copyOf(layouts, capacity);
+    }
+
+    private void rehash(int length) {
+        index = new int[length];
+        for (int row = 0; row < size; row++) put(row);
+    }
+
+    private void put(int row) {
+        int mask = index.length - 1;
+        int i = slot(uuids[row], mask);
+        while (index[i] != 0) i = (i + 1) & mask;
+        index[i] = row + 1;
+    }
+
+    private static int slot(long uuid, int mask) {
+        return (int) (uuid ^ uuid >>> 32) & mask;
+    }
+}
@@ -0,0 +1,355 @@
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The android and java apis reachable (by call edges) from each ui node, as
+ * the behaviors of extract_uhg.py: from the event handlers of the control,
+ * the methods that find it, and the same for the controls it holds (at any
+ * depth). It is built on the scc condensation of the cg, so each method is
+ * visited once for all ui nodes, and a query is a bitmap lookup. Api bitmaps
+ * are saved either as bitmap words or as sorted deltas, whichever is smaller
+ */
+public class ReachabilityIndex {
+    static final String FILE_NAME = "reach_index.bin";
+    private static final int MAGIC = 0x55435249;
+    private static final int VERSION = 2;
+
+    // api number -> node id
+    private final int[] apiNodes;
+    // ui node id -> api numbers
+    private final Map<Integer, BitSet> controls;
+
+    private ReachabilityIndex(int[] apiNodes, Map<Integer, BitSet> controls) {
+        this.apiNodes = apiNodes;
+        this.controls = controls;
+    }
+
+    /**
+     * @param events xml -> view id (decimal) -> handler signatures, as in event.xml
+     */
+    public static ReachabilityIndex build(CsrGraph graph, Map<String, HashMap<String, HashSet<String>>> events) {
+        NodeTable nodes = graph.getNodes();
+        int n = nodes.size();
+        int[] apiOf = new int[n];
+        int apiNum = 0;
+        for (int node = 0; node < n; node++) {
+            GNode.ApkNodeLabels type = nodes.getType(node);
+            apiOf[node] = type == GNode.ApkNodeLabels.ANDROID || type == GNode.ApkNodeLabels.JAVA ? apiNum++ : -1;
+        }
+        int[] apiNodes = new int[apiNum];
+        for (int node = 0; node < n; node++) {
+            if (apiOf[node] >= 0) apiNodes[apiOf[node]] = node;
+        }
+
+        // view id -> handler nodes
+        Map<Integer, Set<Integer>> handlers = new HashMap<>();
+        if (events != null) {
+            for (Map<String, HashSet<String>> views : events.values()) {
+                for (Map.Entry<String, HashSet<String>> view : views.entrySet()) {
+                    Integer viewId = parseInt(view.getKey(), 10);
+                    if (viewId == null) continue;
+                    for (String event : view.getValue()) {
+                        String signature = event.replace("&lt;", "<").replace("&gt;", ">");
+                        int handler = nodes.indexOf(GNode.methodUuid(signature));
+                        if (handler >= 0) handlers.computeIfAbsent(viewId, k -> new HashSet<>()).add(handler);
+                    }
+                }
+            }
+        }
+        // ui node -> its handlers and the methods finding it
+        Map<Integer, Set<Integer>> uiSeeds = new HashMap<>();
+        for (int node = 0; node < n; node++) {
+            if (nodes.getTypeID(node) < GNode.ApkNodeLabels.CONTROL.ordinal()) continue;
+            Set<Integer> seeds = new HashSet<>();
+            Integer viewId = nodes.getId(node) == null ? null : parseViewId(nodes.getId(node));
+            if (viewId != null && handlers.containsKey(viewId)) seeds.addAll(handlers.get(viewId));
+            for (int e = graph.outBegin(node); e < graph.outEnd(node); e++) {
+                if (graph.getType(e) == GEdge.ApkRelationships.FIND) seeds.add(graph.getTarget(e));
+            }
+            if (!seeds.isEmpty()) uiSeeds.put(node, seeds);
+        }
+        // with the seeds of the ui nodes held, a layout may include another one more than once
+        Map<Integer, Set<Integer>> controlSeeds = new LinkedHashMap<>();
+        for (int node = 0; node < n; node++) {
+            if (nodes.getTypeID(node) < GNode.ApkNodeLabels.CONTROL.ordinal()) continue;
+            Set<Integer> seeds = new HashSet<>();
+            Set<Integer> held = new HashSet<>();
+            Deque<Integer> stack = new ArrayDeque<>();
+            stack.push(node);
+            held.add(node);
+            while (!stack.isEmpty()) {
+                int ui = stack.pop();
+                seeds.addAll(uiSeeds.getOrDefault(ui, Collections.emptySet()));
+                for (int e = graph.outBegin(ui); e < graph.outEnd(ui); e++) {
+                    if (graph.getType(e) == GEdge.ApkRelationships.HOLD && held.add(graph.getTarget(e))) {
+                        stack.push(graph.getTarget(e));
+                    }
+                }
+            }
+            if (!seeds.isEmpty()) controlSeeds.put(node, seeds);
+        }
+
+        int[] scc = getCallSccs(graph);
+        int sccNum = 0;
+        for (int c : scc) sccNum = Math.max(sccNum, c + 1);
+        // only the sccs reached from a seed get a bitmap
+        Set<Integer> seedSccs = new HashSet<>();
+        for (Set<Integer> set : controlSeeds.values()) {
+            for (int seed : set) seedSccs.add(scc[seed]);
+        }
+        int[][] members = groupBy(scc, sccNum);
+        boolean[] reached = new boolean[sccNum];
+        // the number of reached sccs calling each scc, to free its bitmap once they are done
+        int[] callers = new int[sccNum];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int c : seedSccs) {
+            reached[c] = true;
+            queue.add(c);
+        }
+        while (!queue.isEmpty()) {
+            int c = queue.poll();
+            for (int node : members[c]) {
+                for (int e = graph.outBegin(node); e < graph.outEnd(node); e++) {
+                    if (graph.getType(e) != GEdge.ApkRelationships.CALL) continue;
+                    int d = scc[graph.getTarget(e)];
+                    if (d == c) continue;
+                    callers[d]++;
+                    if (!reached[d]) {
+                        reached[d] = true;
+                        queue.add(d);
+                    }
+                }
+            }
+        }
+        // sccs are numbered callees first, so a callee is done before its callers
+        BitSet[] apis = new BitSet[sccNum];
+        Map<Integer, BitSet> seedApis = new HashMap<>();
+        for (int c = 0; c < sccNum; c++) {
+            if (!reached[c]) continue;
+            BitSet set = new BitSet();
+            for (int node : members[c]) {
+                if (apiOf[node] >= 0) set.set(apiOf[node]);
+                for (int e = graph.outBegin(node); e < graph.outEnd(node); e++) {
+                    if (graph.getType(e) != GEdge.ApkRelationships.CALL) continue;
+                    int d = scc[graph.getTarget(e)];
+                    if (d == c) continue;
+                    set.or(apis[d]);
+                    if (--callers[d] == 0 && !seedSccs.contains(d)) apis[d] = null;
+                }
+            }
+            apis[c] = set;
+            if (seedSccs.contains(c)) seedApis.put(c, set);
+        }
+
+        Map<Integer, BitSet> controls = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Set<Integer>> entry : controlSeeds.entrySet()) {
+            BitSet set = new BitSet();
+            for (int seed : entry.getValue()) set.or(seedApis.get(scc[seed]));
+            controls.put(entry.getKey(), set);
+        }
+        return new ReachabilityIndex(apiNodes, controls);
+    }
+
+    /**
+     * Tarjan's algorithm on the call edges, without recursion
+     * @return node id -> scc number, callee sccs have lower numbers
+     */
+    private static int[] getCallSccs(CsrGraph graph) {
+        int n = graph.getNodeNum();
+        int[] scc = new int[n];
+        int[] order = new int[n];
+        int[] low = new int[n];
+        Arrays.fill(order, -1);
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] callStack = new int[n];
+        // next edge to look at, per node on the call stack
+        int[] nextEdge = new int[n];
+        int top = 0, index = 0, sccNum = 0;
+        for (int root = 0; root < n; root++) {
+            if (order[root] >= 0) continue;
+            int depth = 0;
+            callStack[depth++] = root;
+            order[root] = low[root] = index++;
+            nextEdge[root] = graph.outBegin(root);
+            stack[top++] = root;
+            onStack[root] = true;
+            while (depth > 0) {
+                int node = callStack[depth - 1];
+                if (nextEdge[node] < graph.outEnd(node)) {
+                    int e = nextEdge[node]++;
+                    if (graph.getType(e) != GEdge.ApkRelationships.CALL) continue;
+                    int next = graph.getTarget(e);
+                    if (order[next] < 0) {
+                        order[next] = low[next] = index++;
+                        nextEdge[next] = graph.outBegin(next);
+                        stack[top++] = next;
+                        onStack[next] = true;
+                        callStack[depth++] = next;
+                    } else if (onStack[next]) {
+                        low[node] = Math.min(low[node], order[next]);
+                    }
+                    continue;
+                }
+                depth--;
+                if (depth > 0) {
+                    int parent = callStack[depth - 1];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+                if (low[node] == order[node]) {
+                    int member;
+                    do {
+                        member = stack[--top];
+                        onStack[member] = false;
+                        scc[member] = sccNum;
+                    } while (member != node);
+                    sccNum++;
+                }
+            }
+        }
+        return scc;
+    }
+
+    private static int[][] groupBy(int[] group, int groupNum) {
+        int[] sizes = new int[groupNum];
+        for (int g : group) sizes[g]++;
+        int[][] members = new int[groupNum][];
+        for (int g = 0; g < groupNum; g++) members[g] = new int[sizes[g]];
+        Arrays.fill(sizes, 0);
+        for (int i = 0; i < group.length; i++) members[group[i]][sizes[group[i]]++] = i;
+        return members;
+    }
+
+    /**
+     * @param id view id in layouts, e.g., @7F0A0001
+     */
+    private static Integer parseViewId(String id) {
+        id = id.replace("android:", "");
+        return parseInt(id.startsWith("@") ? id.substring(1) : id, 16);
+    }
+
+    private static Integer parseInt(String value, int radix) {
+        try {
+            return (int) Long.parseLong(value, radix);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return ui node ids with handlers or finders, held ones included
+     */
+    public Set<Integer> getControls() {
+        return controls.keySet();
+    }
+
+    /**
+     * @return node ids of the apis reachable from a ui node, empty if none
+     */
+    public int[] getApis(int uiNode) {
+        BitSet set = controls.get(uiNode);
+        if (set == null) return new int[0];
+        return set.stream().map(api -> apiNodes[api]).toArray();
+    }
+
+    public boolean reaches(int uiNode, int apiNode) {
+        BitSet set = controls.get(uiNode);
+        if (set == null) return false;
+        int api = Arrays.binarySearch(apiNodes, apiNode);
+        return api >= 0 && set.get(api);
+    }
+
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(apiNodes.length);
+            for (int node : apiNodes) out.writeInt(node);
+            out.writeInt(controls.size());
+            for (Map.Entry<Integer, BitSet> entry : controls.entrySet()) {
+                out.writeInt(entry.getKey());
+                writeBitmap(out, entry.getValue());
+            }
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("cannot move index to " + file);
+        }
+    }
+
+    /**
+     * @return the index, or null if the file is missing or not readable
+     */
+    public static ReachabilityIndex load(File file) {
+        if (!file.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            int[] apiNodes = new int[in.readInt()];
+            for (int i = 0; i < apiNodes.length; i++) apiNodes[i] = in.readInt();
+            int controlNum = in.readInt();
+            Map<Integer, BitSet> controls = new LinkedHashMap<>();
+            for (int i = 0; i < controlNum; i++) {
+                int node = in.readInt();
+                controls.put(node, readBitmap(in));
+            }
+            return new ReachabilityIndex(apiNodes, controls);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeBitmap(DataOutputStream out, BitSet set) throws IOException {
+        long[] words = set.toLongArray();
+        // a delta takes 1-2 bytes for most sets, a word 8 bytes
+        if (set.cardinality() * 2L < words.length * 8L) {
+            out.writeByte(0);
+            out.writeInt(set.cardinality());
+            int last = 0;
+            for (int api = set.nextSetBit(0); api >= 0; api = set.nextSetBit(api + 1)) {
+                writeVarInt(out, api - last);
+                last = api;
+            }
+        } else {
+            out.writeByte(1);
+            out.writeInt(words.length);
+            for (long word : words) out.writeLong(word);
+        }
+    }
+
+    private static BitSet readBitmap(DataInputStream in) throws IOException {
+        if (in.readByte() == 0) {
+            BitSet set = new BitSet();
+            int num = in.readInt();
+            int api = 0;
+            for (int i = 0; i < num; i++) {
+                api += readVarInt(in);
+                set.set(api);
+            }
+            return set;
+        }
+        long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++) words[i] = in.readLong();
+        return BitSet.valueOf(words);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.JSONWriter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Per-apk record of how each result stage was produced: the tool version,
+ * the options and the input hash the stage depends on, its status, and a
+ * checksum for each of its files. A stage is rerun only when one of them changes
+ */
+public class ResultManifest {
+    static final String FILE_NAME = "manifest.json";
+    // bump when the content of any output changes
+    static final String TOOL_VERSION = "1.5";
+    static final String STAGE_CG = "cg";
+    static final String STAGE_GRAPH = "graph";
+    static final String STAGE_JIMPLE = "jimple";
+    static final String STAGE_LITE = "lite";
+    static final String STATUS_DONE = "done";
+    static final String STATUS_SKIPPED = "skipped";
+    static final String STATUS_ERROR = "error";
+    // files the later scripts rewrite in place (merge_info.py adds the
+    // Package column and the links of add_link.txt), only their existence is checked
+    static final Set<String> REWRITTEN_ARTIFACTS = new HashSet<>(Arrays.asList(
+            Util.sEncoding + "/" + Util.sNode + ".csv",
+            Util.sEncoding + "/" + Util.sEdge + ".csv"));
+
+    private final String outPath;
+    private final boolean exists;
+    private final JSONObject stages;
+
+    private ResultManifest(String outPath, boolean exists, JSONObject stages) {
+        this.outPath = outPath;
+        this.exists = exists;
+        this.stages = stages;
+    }
+
+    /**
+     * @return the manifest of the output path, empty if there is none (or it is broken)
+     */
+    public static ResultManifest load(String outPath) {
+        File file = Paths.get(outPath, FILE_NAME).toFile();
+        if (file.isFile()) {
+            try {
+                JSONObject data = JSON.parseObject(new String(
+                        Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+                if (data != null && data.getJSONObject("stages") != null) {
+                    return new ResultManifest(outPath, true, data.getJSONObject("stages"));
+                }
+            } catch (IOException | RuntimeException ignored) {}
+        }
+        return new ResultManifest(outPath, false, new JSONObject());
+    }
+
+    /**
+     * @return false for results written before manifests exist
+     */
+    public boolean exists() {
+        return exists;
+    }
+
+    public boolean has(String stage) {
+        return stages.containsKey(stage);
+    }
+
+    public String getStatus(String stage) {
+        JSONObject record = stages.getJSONObject(stage);
+        return record == null ? null : record.getString("status");
+    }
+
+    /**
+     * @return null if the recorded stage is still valid for the given
+     * options and input, otherwise why it must be rerun
+     */
+    public String check(String stage, Map<String, String> options, String input) {
+        JSONObject record = stages.getJSONObject(stage);
+        if (record == null) return "no record";
+        if (!TOOL_VERSION.equals(record.getString("toolVersion"))) return "tool version changed";
+        if (input == null || !input.equals(record.getString("input"))) return "input changed";
+        JSONObject recorded = record.getJSONObject("options");
+        List<String> changed = new ArrayList<>();
+        Set<String> keys = new TreeSet<>(options.keySet());
+        if (recorded != null) keys.addAll(recorded.keySet());
+        for (String key : keys) {
+            String value = recorded == null ? null : recorded.getString(key);
+            if (!Objects.equals(options.get(key), value)) changed.add(key);
+        }
+        if (!changed.isEmpty()) return "options changed: " + String.join(", ", changed);
+        if (STATUS_ERROR.equals(record.getString("status"))) return "last run failed";
+        JSONObject artifacts = record.getJSONObject("artifacts");
+        if (artifacts != null) {
+            for (String name : artifacts.keySet()) {
+                File file = getFile(name);
+                if (!file.isFile() || !Objects.equals(artifacts.getString(name),
+                        Util.getFileHash(Collections.singletonList(file)))) {
+                    return "artifact changed: " + name;
+                }
+            }
+        }
+        JSONArray rewritten = record.getJSONArray("rewritten");
+        if (rewritten != null) {
+            for (String name : rewritten.toList(String.class)) {
+                if (!getFile(name).isFile()) return "artifact missing: " + name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Record a stage, and the checksums of its files (but the rewritten ones)
+     * @param artifacts paths relative to the output path, missing ones are left out
+     */
+    public void record(String stage, Map<String, String> options, String input,
+                       String status, String reason, String... artifacts) {
+        JSONObject record = new JSONObject();
+        record.put("toolVersion", TOOL_VERSION);
+        record.put("input", input);
+        record.put("options", new TreeMap<>(options));
+        record.put("status", status);
+        if (reason != null) record.put("reason", reason);
+        Map<String, String> checksums = new TreeMap<>();
+        Set<String> rewritten = new TreeSet<>();
+        for (String name : artifacts) {
+            File file = getFile(name);
+            if (!file.isFile()) continue;
+            if (REWRITTEN_ARTIFACTS.contains(name)) {
+                rewritten.add(name);
+            } else {
+                checksums.put(name, Util.getFileHash(Collections.singletonList(file)));
+            }
+        }
+        record.put("artifacts", checksums);
+        record.put("rewritten", rewritten);
+        stages.put(stage, record);
+    }
+
+    /**
+     * @return the recorded options of a stage, null if not recorded
+     */
+    public Map<String, String> getOptions(String stage) {
+        JSONObject record = stages.getJSONObject(stage);
+        if (record == null || record.getJSONObject("options") == null) return null;
+        Map<String, String> options = new TreeMap<>();
+        JSONObject recorded = record.getJSONObject("options");
+        for (String key : recorded.keySet()) options.put(key, recorded.getString(key));
+        return options;
+    }
+
+    /**
+     * Attach numbers (e.g., sizes, time) to a recorded stage
+     */
+    public void putStats(String stage, Map<String, Object> stats) {
+        JSONObject record = stages.getJSONObject(stage);
+        if (record != null) record.put("stats", stats);
+    }
+
+    public JSONObject getStats(String stage) {
+        JSONObject record = stages.getJSONObject(stage);
+        return record == null ? null : record.getJSONObject("stats");
+    }
+
+    public void save() {
+        JSONObject data = new JSONObject();
+        data.put("toolVersion", TOOL_VERSION);
+        data.put("stages", stages);
+        String jsonData = JSON.toJSONString(data, JSONWriter.Feature.PrettyFormat);
+        try (FileWriter writer = new FileWriter(Paths.get(outPath, FILE_NAME).toFile(), false)) {
+            writer.write(jsonData);
+        } catch (IOException e) {
+            Util.log.warning("cannot write manifest: " + e.getMessage());
+        }
+    }
+
+    private File getFile(String name) {
+        return Paths.get(outPath, name).toFile();
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Strings interned to dense int ids, so that a repeated class name or xml
+ * file is stored once however many nodes refer to it
+ */
+public class StringPool {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    /**
+     * @return id of the string, -1 for null
+     */
+    public int intern(String s) {
+        if (s == null) return -1;
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = strings.size();
+            strings.add(s);
+            ids.put(s, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return the string, null for -1
+     */
+    public String get(int id) {
+        return id < 0 ? null : strings.get(id);
+    }
+
+    public int size() {
+        return strings.size();
+    }
+}
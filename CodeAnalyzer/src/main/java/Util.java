@@ -1,11 +1,22 @@
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
 import com.alibaba.fastjson2.JSONWriter;
@@ -15,6 +26,7 @@ import org.dom4j.Element;
 import org.dom4j.io.SAXReader;
 import scala.Tuple4;
 import soot.SootClass;
+import soot.SootMethod;
 import soot.jimple.JasminClass;
 
 public class Util {
@@ -27,6 +39,8 @@ public class Util {
             "Class",                            // for code
             "XML", "UId"                        // for ui
     };
+    // only when the nodes are marked
+    static final String COLUMN_NOISE = "Noise";
 
     static final String[] COLUMN_HEADER_EDGE = {
             "From", "To", "Type"
@@ -59,8 +73,11 @@ public class Util {
         return results;
     }
 
-    public static Map<Integer, Integer> saveNodes(String outputPath,
-                                                 List<GNode> nodeList) throws IOException {
+    /**
+     * Write the nodes, the row in the table is the node index. A Noise
+     * column is added if the table has one
+     */
+    public static void saveNodes(String outputPath, NodeTable nodes) throws IOException {
         String fileName = outputPath + File.separator + sEncoding + File.separator + sNode + ".csv";
         File nodeFile = new File(fileName);
         if (!nodeFile.exists()) {
@@ -69,27 +86,25 @@ public class Util {
                 log.fine(sNode + " file created");
             }
         }
-        Map<Integer, Integer> nodeHashToId = new HashMap<>();
         try(FileWriter writer = new FileWriter(fileName, false)) {
             writer.write(",");
-            writer.write(join(COLUMN_HEADER_NODE, ",") + "\n");
-            int i = -1;
-            for (GNode node : nodeList) {
-                i += 1;
-                nodeHashToId.put(node.getUuid(), i);
-                StringBuilder builder = new StringBuilder();
+            writer.write(join(COLUMN_HEADER_NODE, ","));
+            writer.write(nodes.hasNoise() ? "," + COLUMN_NOISE + "\n" : "\n");
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < nodes.size(); i++) {
+                builder.setLength(0);
                 // node index
                 builder.append(i);
                 builder.append(",");
                 // node name
                 builder.append("\"");
-                builder.append(node.name);
+                builder.append(nodes.getName(i));
                 builder.append("\"");
                 builder.append(",");
                 // node hash
-                builder.append(node.getUuid());
+                builder.append(nodes.getUuid(i));
                 builder.append(",");
-                int typeId = node.getTypeID();
+                int typeId = nodes.getTypeID(i);
                 // node type: java
                 builder.append(typeId == GNode.ApkNodeLabels.JAVA.ordinal() ? 1 : 0);
                 builder.append(",");
@@ -100,7 +115,7 @@ public class Util {
                 builder.append(typeId >= GNode.ApkNodeLabels.CONTROL.ordinal() ? 1 : 0);
                 builder.append(",");
                 // class
-                String clazz = node.getAttribute("class");
+                String clazz = nodes.getClassName(i);
                 if (clazz != null) {
                     builder.append(clazz);
                 } else {
@@ -108,7 +123,7 @@ public class Util {
                 }
                 builder.append(",");
                 // xml
-                String xml = node.getAttribute("xml");
+                String xml = nodes.getXml(i);
                 if (xml != null) {
                     builder.append(xml);
                 } else {
@@ -116,24 +131,29 @@ public class Util {
                 }
                 builder.append(",");
                 // uid
-                String uid = node.getAttribute("id");
+                String uid = nodes.getId(i);
                 if (uid != null) {
                     builder.append(uid);
                 } else {
                     builder.append(-1);
                 }
+                if (nodes.hasNoise()) {
+                    // noise
+                    builder.append(",");
+                    builder.append(nodes.isNoise(i) ? 1 : 0);
+                }
                 builder.append("\n");
                 writer.write(builder.toString());
             }
         } catch (IOException e) {
             log.severe(String.format("error when writing node file: %s", e.getMessage()));
         }
-        return nodeHashToId;
     }
 
-    public static void saveEdges(String outputPath,
-                                 Map<Integer, Integer> nodeHashToId,
-                                 List<GEdge> edgeList) throws IOException {
+    /**
+     * Write the edges, grouped by their source node
+     */
+    public static void saveEdges(String outputPath, CsrGraph graph) throws IOException {
         String fileName = outputPath + File.separator + sEncoding + File.separator + sEdge + ".csv";
         File edgeFile = new File(fileName);
         if (!edgeFile.exists()) {
@@ -145,17 +165,12 @@ public class Util {
         try (FileWriter writer = new FileWriter(fileName, false)) {
             writer.write(",");
             writer.write(join(COLUMN_HEADER_EDGE, ",") + "\n");
-            int i = -1;
-            for (GEdge edge : edgeList) {
-                i += 1;
-                String builder = i + "," +
-                        nodeHashToId.get(edge.src.getUuid()) +
-                        "," +
-                        nodeHashToId.get(edge.tgt.getUuid()) +
-                        "," +
-                        GEdge.ApkRelationships.valueOf(edge.relation).ordinal() +
-                        "\n";
-                writer.write(builder);
+            for (int node = 0; node < graph.getNodeNum(); node++) {
+                for (int e = graph.outBegin(node); e < graph.outEnd(node); e++) {
+                    String builder = e + "," + node + "," + graph.getTarget(e) + "," +
+                            graph.getType(e).ordinal() + "\n";
+                    writer.write(builder);
+                }
             }
         } catch (IOException e) {
             log.severe(String.format("error when writing edge file: %s", e.getMessage()));
@@ -203,6 +218,171 @@ public class Util {
         }
     }
 
+    /**
+     * Hash all the dex files in an apk, so that results computed from the code
+     * stay valid when only resources or signatures of the apk change
+     * @return sha-256 in hex, or null if the apk cannot be read
+     */
+    public static String getDexHash(String apk) {
+        try (ZipFile zip = new ZipFile(apk)) {
+            List<String> dexNames = new ArrayList<>();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.matches("classes\\d*\\.dex")) dexNames.add(name);
+            }
+            Collections.sort(dexNames);
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[1 << 16];
+            for (String name : dexNames) {
+                digest.update(name.getBytes(StandardCharsets.UTF_8));
+                try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, n);
+                    }
+                }
+            }
+            return toHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.warning(String.format("cannot hash dex files of %s: %s", apk, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Hash the names and contents of the given files, missing files are skipped
+     * @return sha-256 in hex, or null if a file cannot be read
+     */
+    public static String getFileHash(List<File> files) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[1 << 16];
+            for (File file : files) {
+                if (!file.isFile()) continue;
+                digest.update(file.getName().getBytes(StandardCharsets.UTF_8));
+                try (InputStream in = Files.newInputStream(file.toPath())) {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, n);
+                    }
+                }
+            }
+            return toHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.warning(String.format("cannot hash files: %s", e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Hash the options in key order
+     * @return sha-256 in hex
+     */
+    public static String getOptionHash(Map<String, String> options) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> option : new TreeMap<>(options).entrySet()) {
+            builder.append(option.getKey()).append('=').append(option.getValue()).append('\n');
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return toHex(digest.digest(builder.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * @return sum of the peak usage of the heap pools since the last reset (unit: MB)
+     */
+    public static long getPeakHeapMB() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                used += pool.getPeakUsage().getUsed();
+            }
+        }
+        return used >> 20;
+    }
+
+    /**
+     * Build the bodies of the given methods with a thread pool. Soot builds
+     * bodies the same way in PackManager.retrieveAllBodies: each body is built
+     * under the lock of its method, and the shared scene state it touches
+     * (class resolution, refs, the hierarchy) is synchronized
+     * @return number of bodies that cannot be built
+     */
+    public static int retrieveBodies(List<SootMethod> methods, int threadNum) {
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threadNum, 1));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (SootMethod method : methods) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        method.retrieveActiveBody();
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // e.g., a stack overflow in a huge method
+                    failed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed.get();
+    }
+
+    /**
+     * Run task(0), ..., task(num - 1) on a fork-join pool, or in order with one
+     * thread. The tasks are split into ranges that idle threads steal, so
+     * methods of very different sizes are balanced. Exceptions of tasks are
+     * thrown to the caller
+     */
+    public static void forEachParallel(int num, int threadNum, IntConsumer task) {
+        if (threadNum <= 1 || num <= 1) {
+            for (int i = 0; i < num; i++) task.accept(i);
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threadNum);
+        try {
+            pool.submit(() -> IntStream.range(0, num).parallel().forEach(task)).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
     public static Object[] loadArscJson(String inputFile) {
         Object[] obj = null;
         StringBuilder jsonString = new StringBuilder();
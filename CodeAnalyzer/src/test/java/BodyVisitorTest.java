@@ -0,0 +1,39 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import soot.Scene;
+import soot.SootClass;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Resolving a ref to a phantom class adds a method to it, so no visit may
+ * resolve one while others read the class
+ */
+class BodyVisitorTest {
+    private static final String TRACKER = "com.example.missing.Tracker";
+
+    @Test
+    void resolvesPhantomRefsBeforeParallelVisits(@TempDir Path workDir) throws Exception {
+        UiFixture fixture = UiFixture.compile(workDir, 4);
+        fixture.load();
+        assertEquals(0, Util.retrieveBodies(fixture.getAppMethods(), 4));
+        SootClass tracker = Scene.v().getSootClass(TRACKER);
+        assertTrue(tracker.isPhantom());
+        Set<Integer> methodNums = ConcurrentHashMap.newKeySet();
+        BodyVisitor visitor = new BodyVisitor(UiFixture.LOG, 4);
+        visitor.register(method -> {
+            methodNums.add(tracker.getMethodCount());
+            return stmt -> {
+            };
+        });
+        visitor.run(Scene.v().getApplicationClasses());
+        // log, count, track and the constructor, all there before the first visit
+        assertEquals(4, tracker.getMethodCount());
+        assertEquals(Collections.singleton(4), methodNums);
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import soot.*;
+import soot.jimple.IfStmt;
+import soot.jimple.Stmt;
+import soot.jimple.StringConstant;
+
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The blocks of Branches.onClick in the fixture, by the strings it logs
+ */
+class BranchIndexTest {
+    private static final int ID_FIRST = 0x7f010031;
+    private static final int ID_SECOND = 0x7f010035;
+    private static final int ID_THIRD = 0x7f010039;
+
+    private static Body body;
+    private static BranchIndex index;
+
+    @BeforeAll
+    static void load(@TempDir Path workDir) throws Exception {
+        UiFixture.compile(workDir, 0).load();
+        body = Scene.v().getSootClass("com.example.Branches")
+                .getMethod("void onClick(android.view.View)").retrieveActiveBody();
+        index = new BranchIndex(body);
+    }
+
+    @Test
+    void mergesSwitchesOnSameIds() {
+        assertEquals(logs("first", "first again"), getLogs(ID_FIRST));
+        assertEquals(logs("second", "second again"), getLogs(ID_SECOND));
+    }
+
+    @Test
+    void stopsCaseAtDefaultTarget() {
+        // the last cases of a switch, followed by the default one
+        assertEquals(logs("hundred"), getLogs(100));
+        assertFalse(getLogs(ID_SECOND).contains("default"));
+    }
+
+    @Test
+    void indexesSwitchesAfterOtherSwitches() {
+        // the switch on a field comes first and is indexed too
+        assertEquals(logs("one"), getLogs(1));
+        assertFalse(getLogs(ID_FIRST).isEmpty());
+    }
+
+    @Test
+    void readsIfOnIdConstant() {
+        IfStmt ifStmt = null;
+        for (Unit unit : body.getUnits()) {
+            if (unit instanceof IfStmt) ifStmt = (IfStmt) unit;
+        }
+        assertNotNull(ifStmt);
+        Set<Unit> block = index.getBlock(String.valueOf(ID_THIRD));
+        // the if jumps over its body when the id differs, the block runs from the target
+        assertEquals(ifStmt.getTarget(), block.iterator().next());
+        assertEquals(logs("first again", "second again"), getLogs(ID_THIRD));
+    }
+
+    @Test
+    void noBlockForOtherIds() {
+        assertTrue(index.getBlock("2130772000").isEmpty());
+        assertTrue(index.getBlock("@7F010031").isEmpty());
+    }
+
+    private static Set<String> getLogs(int id) {
+        Set<String> logs = new TreeSet<>();
+        for (Unit unit : index.getBlock(String.valueOf(id))) {
+            Stmt s = (Stmt) unit;
+            if (s.containsInvokeExpr() && s.getInvokeExpr().getMethod().getName().equals("log")) {
+                logs.add(((StringConstant) s.getInvokeExpr().getArg(0)).value);
+            }
+        }
+        return logs;
+    }
+
+    private static Set<String> logs(String... values) {
+        return new TreeSet<>(Arrays.asList(values));
+    }
+}
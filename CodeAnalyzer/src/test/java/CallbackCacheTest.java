@@ -0,0 +1,65 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The callbacks found with some classes loaded are never reused by a run
+ * loading other ones
+ */
+class CallbackCacheTest {
+    private static final String DEX_HASH = "0123456789abcdef0123456789abcdef";
+
+    @Test
+    void tplListChangesCacheFile() {
+        String full = Main.getCallbackCacheName(DEX_HASH, getOptions());
+        Map<String, String> options = getOptions();
+        options.put("tpl_list", "fedcba98");
+        assertNotEquals(full, Main.getCallbackCacheName(DEX_HASH, options));
+    }
+
+    @Test
+    void uiClosureChangesCacheFile() {
+        String full = Main.getCallbackCacheName(DEX_HASH, getOptions());
+        Map<String, String> options = getOptions();
+        options.put("ui_closure", "2");
+        String closure = Main.getCallbackCacheName(DEX_HASH, options);
+        // neither a full run nor a -uc run loads the callbacks of the other
+        assertNotEquals(full, closure);
+        options.put("ui_closure", "1");
+        assertNotEquals(closure, Main.getCallbackCacheName(DEX_HASH, options));
+        options.put("ui_closure", "-1");
+        assertEquals(full, Main.getCallbackCacheName(DEX_HASH, options));
+    }
+
+    @Test
+    void budgetsKeepCacheFile() {
+        String name = Main.getCallbackCacheName(DEX_HASH, getOptions());
+        Map<String, String> options = getOptions();
+        options.put("budget_cg_time", "30");
+        options.put("budget_cg_heap", "8192");
+        assertEquals(name, Main.getCallbackCacheName(DEX_HASH, options));
+        assertTrue(name.startsWith("callbacks_0123456789abcdef_") && name.endsWith(".kryo"), name);
+    }
+
+    /**
+     * The options of a run without -tpl, -uc and budgets, as in getCgOptions
+     */
+    static Map<String, String> getOptions() {
+        Map<String, String> options = new TreeMap<>();
+        options.put("cg_algo", "SPARK");
+        options.put("profile", "PRECISE");
+        options.put("timeout_callback", "3");
+        options.put("timeout_dataflow", "3");
+        options.put("timeout_path", "0");
+        options.put("budget_cg_time", "0");
+        options.put("budget_cg_heap", "0");
+        options.put("save_flow", "false");
+        options.put("ui_closure", "-1");
+        options.put("ui_entry", "false");
+        options.put("tpl_list", "");
+        return options;
+    }
+}
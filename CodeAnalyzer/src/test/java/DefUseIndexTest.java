@@ -0,0 +1,91 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import soot.*;
+import soot.jimple.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The definitions of a local are the ones reaching the unit, not the
+ * nearest ones before it (see Flows in the fixture)
+ */
+class DefUseIndexTest {
+    private static final String FLOWS = "com.example.Flows";
+
+    @BeforeAll
+    static void load(@TempDir Path workDir) throws Exception {
+        UiFixture.compile(workDir, 0).load();
+    }
+
+    @Test
+    void skipsDefinitionInOtherBranch() {
+        Body body = getBody("java.lang.String pick(boolean)");
+        List<Stmt> shows = getInvokes(body, "show");
+        assertEquals(2, shows.size());
+        DefUseIndex index = new DefUseIndex(body);
+
+        // the else branch: "first" is nearer before it, but on the other branch
+        Local label = (Local) shows.get(0).getInvokeExpr().getArg(0);
+        List<Unit> defs = index.getDefs(label, shows.get(0));
+        assertEquals(1, defs.size());
+        assertInstanceOf(InvokeExpr.class, ((AssignStmt) defs.get(0)).getRightOp());
+
+        // after the branches, both reach, the nearest first
+        defs = index.getDefs(label, shows.get(1));
+        assertEquals(2, defs.size());
+        assertEquals(StringConstant.v("first"), ((AssignStmt) defs.get(0)).getRightOp());
+        assertInstanceOf(InvokeExpr.class, ((AssignStmt) defs.get(1)).getRightOp());
+        assertEquals(defs.get(0), index.getAssign(label, shows.get(1)));
+    }
+
+    @Test
+    void followsCopyAndCastChain() {
+        Body body = getBody("void chain(boolean)");
+        Stmt setText = getInvokes(body, "setText").get(0);
+        DefUseIndex index = new DefUseIndex(body);
+        Local shown = (Local) ((InstanceInvokeExpr) setText.getInvokeExpr()).getBase();
+        List<Unit> defs = index.getDefs(shown, setText);
+        assertEquals(2, defs.size());
+        List<Integer> ids = new ArrayList<>();
+        for (Unit def : defs) ids.add(findViewId(index, (AssignStmt) def));
+        // the cast in the if branch is the nearest
+        assertEquals(Arrays.asList(0x7f010022, 0x7f010021), ids);
+    }
+
+    /**
+     * Follow copies and casts back to findViewById, as the analyzers do
+     */
+    private static int findViewId(DefUseIndex index, AssignStmt def) {
+        for (int hop = 0; hop < DefUseIndex.MAX_HOPS; hop++) {
+            Value right = def.getRightOp();
+            if (right instanceof InvokeExpr) {
+                assertEquals("findViewById", ((InvokeExpr) right).getMethod().getName());
+                return ((IntConstant) ((InvokeExpr) right).getArg(0)).value;
+            }
+            Value op = right instanceof CastExpr ? ((CastExpr) right).getOp() : right;
+            assertInstanceOf(Local.class, op, "not a copy or cast: " + def);
+            def = index.getAssign((Local) op, def);
+            assertNotNull(def);
+        }
+        return fail("too many hops");
+    }
+
+    private static Body getBody(String subSignature) {
+        return Scene.v().getSootClass(FLOWS).getMethod(subSignature).retrieveActiveBody();
+    }
+
+    private static List<Stmt> getInvokes(Body body, String name) {
+        List<Stmt> invokes = new ArrayList<>();
+        for (Unit unit : body.getUnits()) {
+            Stmt s = (Stmt) unit;
+            if (s.containsInvokeExpr() && s.getInvokeExpr().getMethod().getName().equals(name)) invokes.add(s);
+        }
+        return invokes;
+    }
+}
@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The noise column is read by its name, before and after merge_info.py
+ * appends the package column
+ */
+class GContainerTest {
+    private static final String HEADER = ",Name,Hash,Java,Android,UI,Class,XML,UId";
+    private static final String[] ROWS = {
+            "0,\"<a.Main: void run(int,int)>\",11,0,0,0,a.Main,,,%s",
+            "1,<java.lang.Object: void <init>()>,12,1,0,0,java.lang.Object,,,%s",
+            "2,Button,13,0,0,1,,main.xml,@7F0A0001,%s",
+    };
+
+    @Test
+    void readsNoiseColumn(@TempDir Path outDir) throws IOException {
+        write(outDir, HEADER + ",Noise", "1", "0", "0");
+        GContainer container = GContainer.load(outDir.toString());
+        assertTrue(container.isNoise(container.findNodeByID(11)));
+        assertFalse(container.isNoise(container.findNodeByID(12)));
+    }
+
+    @Test
+    void readsNoiseColumnBeforePackage(@TempDir Path outDir) throws IOException {
+        write(outDir, HEADER + ",Noise,Package", "1,-", "0,java.lang", "0,-");
+        GContainer container = GContainer.load(outDir.toString());
+        assertTrue(container.isNoise(container.findNodeByID(11)));
+        assertFalse(container.isNoise(container.findNodeByID(12)));
+        assertTrue(container.isUi(container.findNodeByID(13)));
+    }
+
+    @Test
+    void readsNoNoiseWithPackageOnly(@TempDir Path outDir) throws IOException {
+        write(outDir, HEADER + ",Package", "1", "java.lang", "-");
+        GContainer container = GContainer.load(outDir.toString());
+        assertFalse(container.isNoise(container.findNodeByID(11)));
+    }
+
+    private static void write(Path outDir, String header, String... tails) throws IOException {
+        Path encoding = Files.createDirectories(outDir.resolve(Util.sEncoding));
+        StringBuilder nodes = new StringBuilder(header).append('\n');
+        for (int i = 0; i < ROWS.length; i++) nodes.append(String.format(ROWS[i], tails[i])).append('\n');
+        Files.write(encoding.resolve(Util.sNode + ".csv"), nodes.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(encoding.resolve(Util.sEdge + ".csv"), Arrays.asList(",From,To,Type", "0,0,1,0", "1,2,0,1"),
+                StandardCharsets.UTF_8);
+    }
+}
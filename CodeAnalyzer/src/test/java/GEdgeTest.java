@@ -0,0 +1,26 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GEdgeTest {
+    @Test
+    void keysOfDistinctEdgesDiffer() {
+        int max = GEdge.MAX_NODE_NUM - 1;
+        assertNotEquals(GEdge.key(max, 0, GEdge.ApkRelationships.CALL),
+                GEdge.key(0, max, GEdge.ApkRelationships.CALL));
+        assertNotEquals(GEdge.key(max, max, GEdge.ApkRelationships.CALL),
+                GEdge.key(max, max, GEdge.ApkRelationships.EVENT));
+        assertEquals(GEdge.key(1, 2, GEdge.ApkRelationships.USE),
+                GEdge.key(1, 2, GEdge.ApkRelationships.USE));
+    }
+
+    @Test
+    void indexesOver30BitsFail() {
+        assertThrows(IllegalArgumentException.class,
+                () -> GEdge.key(GEdge.MAX_NODE_NUM, 0, GEdge.ApkRelationships.CALL));
+        assertThrows(IllegalArgumentException.class,
+                () -> GEdge.key(0, GEdge.MAX_NODE_NUM, GEdge.ApkRelationships.CALL));
+        assertThrows(IllegalArgumentException.class,
+                () -> GEdge.key(-1, 0, GEdge.ApkRelationships.CALL));
+    }
+}
@@ -0,0 +1,144 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Nodes and edges added from several threads give the graph of a single one
+ */
+class GraphBuilderTest {
+    private static final String MAIN = "<com.example.Main: void onCreate(android.os.Bundle)>";
+    private static final int THREADS = 4;
+    // over 16 stripes, the seq array of each grows from 256 a few times
+    private static final int NODE_NUM = 20_000;
+    // over the 65536 edges of a chunk, so that threads race to add new chunks
+    private static final int EDGE_NUM = 150_000;
+
+    private static final String[] NAMES = new String[NODE_NUM];
+    private static final long[] EDGES = new long[EDGE_NUM * 3];
+
+    static {
+        for (int i = 0; i < NODE_NUM; i++) {
+            NAMES[i] = String.format("<com.example.C%d: void m%d()>", i / 10, i % 10);
+        }
+        Random random = new Random(42);
+        GEdge.ApkRelationships[] types = GEdge.ApkRelationships.values();
+        for (int e = 0; e < EDGE_NUM; e++) {
+            EDGES[e * 3] = GNode.methodUuid(NAMES[random.nextInt(NODE_NUM)]);
+            // some edges go to nodes never added, and some repeat others
+            EDGES[e * 3 + 1] = e % 50 == 0 ? random.nextLong()
+                    : GNode.methodUuid(NAMES[random.nextInt(NODE_NUM / 20)]);
+            EDGES[e * 3 + 2] = types[random.nextInt(types.length)].ordinal();
+        }
+    }
+
+    @Test
+    void repeatedNodeKeepsFirst() {
+        GraphBuilder builder = new GraphBuilder();
+        long uuid = GNode.methodUuid(MAIN);
+        assertTrue(builder.addNode(uuid, MAIN, GNode.ApkNodeLabels.METHOD, "com.example.Main",
+                null, null, null, null));
+        assertFalse(builder.addNode(uuid, MAIN, GNode.ApkNodeLabels.METHOD));
+        NodeTable nodes = builder.freeze().getNodes();
+        assertEquals(1, nodes.size());
+        assertEquals("com.example.Main", nodes.getClassName(0));
+    }
+
+    @Test
+    void uuidOfOtherNameFails() {
+        GraphBuilder builder = new GraphBuilder();
+        long uuid = GNode.methodUuid(MAIN);
+        builder.addNode(uuid, MAIN, GNode.ApkNodeLabels.METHOD);
+        // a hash collision, never dropped silently
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> builder.addNode(uuid, "Button", GNode.ApkNodeLabels.CONTROL));
+        assertTrue(e.getMessage().contains(MAIN), e.getMessage());
+    }
+
+    @Test
+    void sameAddsFromThreadsGiveSerialGraph() throws Exception {
+        CsrGraph serial = build(1, (builder, t) -> addAll(builder));
+        // every thread adds all, each node is first added in the serial order
+        CsrGraph parallel = build(THREADS, (builder, t) -> addAll(builder));
+        assertEquals(getNodes(serial), getNodes(parallel));
+        assertEquals(getEdges(serial), getEdges(parallel));
+        assertEquals(serial.getEdgeNum(), parallel.getEdgeNum());
+    }
+
+    @Test
+    void splitAddsFromThreadsGiveSerialGraph() throws Exception {
+        CsrGraph serial = build(1, (builder, t) -> addAll(builder));
+        // each thread adds its share, and a tenth of all on top
+        CsrGraph parallel = build(THREADS, (builder, t) -> {
+            for (int i = 0; i < NODE_NUM; i++) {
+                if (i % THREADS == t || i % 10 == 0) addNode(builder, i);
+            }
+            for (int e = 0; e < EDGE_NUM; e++) {
+                if (e % THREADS == t || e % 10 == 0) addEdge(builder, e);
+            }
+        });
+        assertEquals(new HashSet<>(getNodes(serial)), new HashSet<>(getNodes(parallel)));
+        assertEquals(getEdges(serial), getEdges(parallel));
+        assertEquals(serial.getEdgeNum(), parallel.getEdgeNum());
+    }
+
+    private interface Adder {
+        void add(GraphBuilder builder, int thread);
+    }
+
+    private static CsrGraph build(int threadNum, Adder adder) throws Exception {
+        GraphBuilder builder = new GraphBuilder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < threadNum; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    adder.add(builder, thread);
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        assertEquals(Collections.emptyList(), errors);
+        return builder.freeze();
+    }
+
+    private static void addAll(GraphBuilder builder) {
+        for (int i = 0; i < NODE_NUM; i++) addNode(builder, i);
+        for (int e = 0; e < EDGE_NUM; e++) addEdge(builder, e);
+    }
+
+    private static void addNode(GraphBuilder builder, int i) {
+        builder.addNode(GNode.methodUuid(NAMES[i]), NAMES[i], GNode.ApkNodeLabels.METHOD);
+    }
+
+    private static void addEdge(GraphBuilder builder, int e) {
+        builder.addEdge(EDGES[e * 3], EDGES[e * 3 + 1], GEdge.ApkRelationships.values()[(int) EDGES[e * 3 + 2]]);
+    }
+
+    private static List<String> getNodes(CsrGraph graph) {
+        NodeTable nodes = graph.getNodes();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) names.add(nodes.getName(i));
+        return names;
+    }
+
+    private static Set<String> getEdges(CsrGraph graph) {
+        NodeTable nodes = graph.getNodes();
+        Set<String> edges = new HashSet<>();
+        for (int n = 0; n < graph.getNodeNum(); n++) {
+            for (int e = graph.outBegin(n); e < graph.outEnd(n); e++) {
+                edges.add(nodes.getName(n) + " " + graph.getType(e) + " " + nodes.getName(graph.getTarget(e)));
+            }
+        }
+        return edges;
+    }
+}
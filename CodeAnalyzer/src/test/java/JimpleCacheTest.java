@@ -0,0 +1,89 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import soot.G;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.options.Options;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Bodies read from the jimple cache must be the bodies built from the dex.
+ * Needs the android platforms, run with -Dandroid.jars=/path/to/platforms
+ */
+class JimpleCacheTest {
+    private static final String APK = "../Data/DemoApk/demo.apk";
+    // classes sampled across the apk, all of them take minutes
+    private static final int SAMPLE_SIZE = 300;
+
+    @Test
+    void cachedBodiesMatchDex(@TempDir Path cacheDir) throws Exception {
+        String androidJars = System.getProperty("android.jars", "");
+        assumeTrue(!androidJars.isEmpty() && new File(APK).isFile(), "no android platforms or sample apk");
+        Util.setLogger(Logger.getLogger(JimpleCacheTest.class.getName()));
+        DexPrescan prescan = new DexPrescan(APK, false, true);
+        prescan.run();
+        Map<String, String> classHashes = sample(prescan.getClassHashes());
+        JimpleCache cache = new JimpleCache(cacheDir.toString(), 1024);
+
+        loadApk(androidJars);
+        Map<String, String> dexBodies = retrieveBodies(classHashes.keySet());
+        int stored = cache.store(classHashes);
+        assertTrue(stored > 0, "no class stored");
+
+        loadApk(androidJars);
+        assertEquals(stored, cache.attach(classHashes));
+        Map<String, String> cachedBodies = retrieveBodies(classHashes.keySet());
+        assertTrue(cache.getHitNum() > 0, "no body read from the cache");
+        assertEquals(dexBodies.keySet(), cachedBodies.keySet());
+        for (Map.Entry<String, String> body : dexBodies.entrySet()) {
+            assertEquals(body.getValue(), cachedBodies.get(body.getKey()), body.getKey());
+        }
+    }
+
+    private static Map<String, String> sample(Map<String, String> classHashes) {
+        List<String> names = new ArrayList<>(classHashes.keySet());
+        Collections.sort(names);
+        int step = Math.max(1, names.size() / SAMPLE_SIZE);
+        Map<String, String> sampled = new HashMap<>();
+        for (int i = 0; i < names.size(); i += step) {
+            sampled.put(names.get(i), classHashes.get(names.get(i)));
+        }
+        return sampled;
+    }
+
+    private static void loadApk(String androidJars) {
+        G.reset();
+        Options.v().set_src_prec(Options.src_prec_apk);
+        Options.v().set_process_dir(Collections.singletonList(APK));
+        Options.v().set_android_jars(androidJars);
+        Options.v().set_whole_program(true);
+        Options.v().set_allow_phantom_refs(true);
+        Options.v().set_process_multiple_dex(true);
+        Scene.v().loadNecessaryClasses();
+    }
+
+    /**
+     * @return method signature -> jimple of the body
+     */
+    private static Map<String, String> retrieveBodies(Set<String> classNames) {
+        Map<String, String> bodies = new TreeMap<>();
+        for (String name : classNames) {
+            SootClass klass = Scene.v().getSootClassUnsafe(name, false);
+            if (klass == null || klass.isPhantom()) continue;
+            for (SootMethod method : klass.getMethods()) {
+                if (method.isConcrete()) {
+                    bodies.put(method.getSignature(), method.retrieveActiveBody().toString());
+                }
+            }
+        }
+        return bodies;
+    }
+}
@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The apis of a ui node come from its handlers, the methods finding it, and
+ * the ui nodes it holds
+ */
+class ReachabilityIndexTest {
+    private static final String ON_CLICK = "<com.example.Main: void onClick(android.view.View)>";
+    private static final String REFRESH = "<com.example.Main: void refresh()>";
+    private static final String SHOW = "<com.example.Main: void show()>";
+    private static final String SET_TEXT = "<android.widget.TextView: void setText(java.lang.CharSequence)>";
+    private static final String APPEND = "<java.lang.StringBuilder: java.lang.StringBuilder append(java.lang.String)>";
+    private static final String FINISH = "<android.app.Activity: void finish()>";
+
+    private final GraphBuilder builder = new GraphBuilder();
+
+    @Test
+    void seedsFromHandlersFindersAndHeldControls() {
+        long layout = ui("LinearLayout", GNode.ApkNodeLabels.CONTAINER, null);
+        long button = ui("Button", GNode.ApkNodeLabels.CONTROL, "@7F0A0001");
+        long text = ui("TextView", GNode.ApkNodeLabels.CONTROL, "@7F0A0002");
+        long image = ui("ImageView", GNode.ApkNodeLabels.CONTROL, "@7F0A0003");
+        long onClick = method(ON_CLICK, GNode.ApkNodeLabels.METHOD);
+        long refresh = method(REFRESH, GNode.ApkNodeLabels.METHOD);
+        long show = method(SHOW, GNode.ApkNodeLabels.METHOD);
+        long setText = method(SET_TEXT, GNode.ApkNodeLabels.ANDROID);
+        long append = method(APPEND, GNode.ApkNodeLabels.JAVA);
+        method(FINISH, GNode.ApkNodeLabels.ANDROID);
+        builder.addEdge(layout, button, GEdge.ApkRelationships.HOLD);
+        builder.addEdge(layout, text, GEdge.ApkRelationships.HOLD);
+        builder.addEdge(layout, image, GEdge.ApkRelationships.HOLD);
+        // refresh and show call each other, one scc
+        builder.addEdge(onClick, refresh, GEdge.ApkRelationships.CALL);
+        builder.addEdge(refresh, show, GEdge.ApkRelationships.CALL);
+        builder.addEdge(show, refresh, GEdge.ApkRelationships.CALL);
+        builder.addEdge(show, setText, GEdge.ApkRelationships.CALL);
+        builder.addEdge(text, show, GEdge.ApkRelationships.FIND);
+        builder.addEdge(text, append, GEdge.ApkRelationships.FIND);
+        CsrGraph graph = builder.freeze();
+        NodeTable nodes = graph.getNodes();
+
+        Map<String, HashMap<String, HashSet<String>>> events = new HashMap<>();
+        events.computeIfAbsent("main.xml", k -> new HashMap<>())
+                .put(String.valueOf(0x7F0A0001), new HashSet<>(Collections.singleton(ON_CLICK)));
+        ReachabilityIndex index = ReachabilityIndex.build(graph, events);
+
+        assertEquals(apis(nodes, SET_TEXT), apis(nodes, index.getApis(nodes.indexOf(button))));
+        assertEquals(apis(nodes, SET_TEXT, APPEND), apis(nodes, index.getApis(nodes.indexOf(text))));
+        assertEquals(apis(nodes, SET_TEXT, APPEND), apis(nodes, index.getApis(nodes.indexOf(layout))));
+        assertFalse(index.getControls().contains(nodes.indexOf(image)));
+        assertFalse(index.reaches(nodes.indexOf(layout), nodes.indexOf(GNode.methodUuid(FINISH))));
+    }
+
+    private long ui(String name, GNode.ApkNodeLabels type, String id) {
+        long uuid = GNode.uiUuid(name, "main.xml");
+        builder.addNode(uuid, name, type, null, "main.xml", id, null, null);
+        return uuid;
+    }
+
+    private long method(String signature, GNode.ApkNodeLabels type) {
+        long uuid = GNode.methodUuid(signature);
+        builder.addNode(uuid, signature, type);
+        return uuid;
+    }
+
+    private static Set<Integer> apis(NodeTable nodes, String... signatures) {
+        Set<Integer> set = new TreeSet<>();
+        for (String signature : signatures) set.add(nodes.indexOf(GNode.methodUuid(signature)));
+        return set;
+    }
+
+    private static Set<Integer> apis(NodeTable nodes, int[] apis) {
+        Set<Integer> set = new TreeSet<>();
+        for (int api : apis) set.add(api);
+        return set;
+    }
+}
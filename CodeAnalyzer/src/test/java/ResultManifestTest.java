@@ -0,0 +1,37 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A stage is only reused when its input could be hashed in both runs
+ */
+class ResultManifestTest {
+    private static final Map<String, String> OPTIONS = Collections.singletonMap("cg_algo", "CHA");
+
+    @Test
+    void reusesStageWithSameInput(@TempDir Path outPath) {
+        save(outPath, "dex:ui");
+        ResultManifest manifest = ResultManifest.load(outPath.toString());
+        assertNull(manifest.check(ResultManifest.STAGE_GRAPH, OPTIONS, "dex:ui"));
+        assertEquals("input changed", manifest.check(ResultManifest.STAGE_GRAPH, OPTIONS, "dex:other"));
+    }
+
+    @Test
+    void neverReusesStageWithoutInput(@TempDir Path outPath) {
+        // an earlier run that could not hash the dex either
+        save(outPath, null);
+        ResultManifest manifest = ResultManifest.load(outPath.toString());
+        assertEquals("input changed", manifest.check(ResultManifest.STAGE_GRAPH, OPTIONS, null));
+    }
+
+    private static void save(Path outPath, String input) {
+        ResultManifest manifest = ResultManifest.load(outPath.toString());
+        manifest.record(ResultManifest.STAGE_GRAPH, OPTIONS, input, ResultManifest.STATUS_DONE, null);
+        manifest.save();
+    }
+}
@@ -0,0 +1,156 @@
+import soot.G;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.options.Options;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A small app for the tests of the ui passes: the android stubs and the app
+ * classes in src/test/resources/fixture are compiled to class files, which
+ * soot loads instead of a dex. The classes in fixture/missing are only used
+ * to compile the app, so soot sees them as phantom
+ */
+class UiFixture {
+    static final Logger LOG = Logger.getLogger(UiFixture.class.getName());
+    static {
+        // the analyzers read the level of their logger
+        LOG.setLevel(Level.WARNING);
+    }
+    // the class copied under numbered names for more classes
+    private static final String SCREEN = "Screen";
+
+    private final Path stubDir;
+    private final Path appDir;
+    private final Path arscJson;
+
+    private UiFixture(Path stubDir, Path appDir, Path arscJson) {
+        this.stubDir = stubDir;
+        this.appDir = appDir;
+        this.arscJson = arscJson;
+    }
+
+    /**
+     * @param workDir where the class files are written
+     * @param screenCopies copies of Screen added to the app
+     */
+    static UiFixture compile(Path workDir, int screenCopies) throws IOException, URISyntaxException {
+        Util.setLogger(LOG);
+        Path root = Paths.get(UiFixture.class.getResource("/fixture").toURI());
+        Path stubDir = workDir.resolve("android");
+        Path appDir = workDir.resolve("app");
+        Path missingDir = workDir.resolve("missing");
+        Path srcDir = workDir.resolve("src");
+        compile(listSources(root.resolve("android")), stubDir, null);
+        compile(listSources(root.resolve("missing")), missingDir, null);
+        List<Path> appSources = listSources(root.resolve("app"));
+        Path screen = appSources.stream().filter(p -> p.endsWith(SCREEN + ".java")).findFirst()
+                .orElseThrow(() -> new IOException("no " + SCREEN + ".java"));
+        String screenSource = new String(Files.readAllBytes(screen), StandardCharsets.UTF_8);
+        Files.createDirectories(srcDir);
+        for (int i = 1; i <= screenCopies; i++) {
+            Path copy = srcDir.resolve(SCREEN + i + ".java");
+            Files.write(copy, screenSource.replace(SCREEN, SCREEN + i).getBytes(StandardCharsets.UTF_8));
+            appSources.add(copy);
+        }
+        compile(appSources, appDir, stubDir + File.pathSeparator + missingDir);
+        Path arscJson = workDir.resolve("arsc_string.json");
+        Files.write(arscJson, ("[{\"resourceID\":2131427329,\"resourceName\":\"welcome\",\"value\":\"Welcome\"}," +
+                "{\"resourceID\":2131427330,\"resourceName\":\"label\",\"value\":\"Label\"}]")
+                .getBytes(StandardCharsets.UTF_8));
+        return new UiFixture(stubDir, appDir, arscJson);
+    }
+
+    private static List<Path> listSources(Path dir) throws IOException {
+        try (Stream<Path> walker = Files.walk(dir)) {
+            return walker.filter(p -> p.toString().endsWith(".java")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static void compile(List<Path> sources, Path outDir, String classPath) throws IOException {
+        Files.createDirectories(outDir);
+        List<String> args = new ArrayList<>();
+        // java 8 class files, without invokedynamic string concatenation
+        if (System.getProperty("java.specification.version").startsWith("1.")) {
+            Collections.addAll(args, "-source", "8", "-target", "8");
+        } else {
+            Collections.addAll(args, "--release", "8");
+        }
+        Collections.addAll(args, "-nowarn", "-d", outDir.toString());
+        if (classPath != null) Collections.addAll(args, "-cp", classPath);
+        for (Path source : sources) args.add(source.toString());
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        if (compiler.run(null, null, err, args.toArray(new String[0])) != 0) {
+            throw new IOException("cannot compile the fixture: " + err);
+        }
+    }
+
+    /**
+     * Load the app into a fresh scene, without bodies
+     */
+    void load() {
+        G.reset();
+        Options.v().set_src_prec(Options.src_prec_only_class);
+        Options.v().set_process_dir(Collections.singletonList(appDir.toString()));
+        Options.v().set_soot_classpath(stubDir.toString());
+        Options.v().set_prepend_classpath(true);
+        Options.v().set_whole_program(true);
+        Options.v().set_allow_phantom_refs(true);
+        Scene.v().loadNecessaryClasses();
+    }
+
+    List<SootMethod> getAppMethods() {
+        List<SootMethod> methods = new ArrayList<>();
+        for (SootClass klass : Scene.v().getApplicationClasses()) {
+            for (SootMethod method : klass.getMethods()) {
+                if (method.isConcrete()) methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * Load the app, build its bodies and run the ui passes as Main does
+     * @return the results of the passes, sorted
+     */
+    String runPasses(int threadNum) {
+        load();
+        int failed = Util.retrieveBodies(getAppMethods(), threadNum);
+        if (failed > 0) throw new IllegalStateException(failed + " bodies not built");
+        EventAnalyzer eventAnalyzer = new EventAnalyzer(appDir.toString(), LOG, Collections.emptyMap());
+        CodeParser parser = new CodeParser(LOG, Scene.v().getApplicationClasses(), arscJson.toString());
+        BodyVisitor visitor = new BodyVisitor(LOG, threadNum);
+        visitor.register(eventAnalyzer);
+        visitor.register(parser);
+        visitor.run(Scene.v().getApplicationClasses());
+        eventAnalyzer.finish();
+        parser.parseMethods(eventAnalyzer.getHandlers(), threadNum);
+        StringBuilder out = new StringBuilder();
+        Map<String, Map<String, Set<String>>> events = new TreeMap<>();
+        eventAnalyzer.getResults().forEach((xml, ids) -> ids.forEach((id, handlers) ->
+                events.computeIfAbsent(xml, k -> new TreeMap<>()).put(id, new TreeSet<>(handlers))));
+        out.append("events: ").append(events).append('\n');
+        out.append("find: ").append(parser.getFindEdges()).append('\n');
+        out.append("use: ").append(parser.getUseEdges()).append('\n');
+        out.append("switch: ").append(parser.getSwitchEdges()).append('\n');
+        out.append("thread: ").append(parser.getThreadEdges()).append('\n');
+        out.append("strings: ").append(new TreeMap<>(parser.getHardcodeStrings())).append('\n');
+        return out.toString();
+    }
+}
@@ -0,0 +1,50 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import soot.SootMethod;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The bodies and the ui passes run on many threads must give what they give
+ * on one thread, in every run
+ */
+class UiPassesStressTest {
+    private static final int SCREEN_COPIES = 40;
+    private static final int ROUNDS = 5;
+    private static final int THREADS = 8;
+
+    @Test
+    void parallelBodiesMatchSerialOnes(@TempDir Path workDir) throws Exception {
+        UiFixture fixture = UiFixture.compile(workDir, SCREEN_COPIES);
+        Map<String, String> expected = retrieveBodies(fixture, 1);
+        for (int round = 0; round < ROUNDS; round++) {
+            assertEquals(expected, retrieveBodies(fixture, THREADS), "round " + round);
+        }
+    }
+
+    @Test
+    void parallelPassesMatchSerialOnes(@TempDir Path workDir) throws Exception {
+        UiFixture fixture = UiFixture.compile(workDir, SCREEN_COPIES);
+        String expected = fixture.runPasses(1);
+        assertTrue(expected.contains("onClick"), "no event found:\n" + expected);
+        // the strings are resolved in commit(), in the order of the methods
+        assertTrue(expected.contains("setText,Welcome"), "no string found:\n" + expected);
+        for (int round = 0; round < ROUNDS; round++) {
+            assertEquals(expected, fixture.runPasses(THREADS), "round " + round);
+        }
+    }
+
+    private static Map<String, String> retrieveBodies(UiFixture fixture, int threadNum) {
+        fixture.load();
+        assertEquals(0, Util.retrieveBodies(fixture.getAppMethods(), threadNum));
+        Map<String, String> bodies = new TreeMap<>();
+        for (SootMethod method : fixture.getAppMethods()) {
+            bodies.put(method.getSignature(), method.getActiveBody().toString());
+        }
+        return bodies;
+    }
+}
@@ -0,0 +1,15 @@
+package android.app;
+
+import android.view.View;
+
+public class Activity {
+    public void setContentView(int layoutResId) {
+    }
+
+    public View findViewById(int id) {
+        return null;
+    }
+
+    public void setTitle(CharSequence title) {
+    }
+}
@@ -0,0 +1,12 @@
+package android.app;
+
+import android.view.View;
+
+public class Dialog {
+    public void setContentView(int layoutResId) {
+    }
+
+    public View findViewById(int id) {
+        return null;
+    }
+}
@@ -0,0 +1,7 @@
+package android.view;
+
+public class LayoutInflater {
+    public View inflate(int resource, ViewGroup root) {
+        return null;
+    }
+}
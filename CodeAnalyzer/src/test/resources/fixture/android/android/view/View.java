@@ -0,0 +1,18 @@
+package android.view;
+
+public class View {
+    public interface OnClickListener {
+        void onClick(View v);
+    }
+
+    public int getId() {
+        return 0;
+    }
+
+    public void setOnClickListener(OnClickListener listener) {
+    }
+
+    public View findViewById(int id) {
+        return null;
+    }
+}
@@ -0,0 +1,14 @@
+package android.widget;
+
+import android.view.View;
+
+public class TextView extends View {
+    public void setText(CharSequence text) {
+    }
+
+    public void setText(int resId) {
+    }
+
+    public void setHint(CharSequence hint) {
+    }
+}
@@ -0,0 +1,47 @@
+package com.example;
+
+import android.view.View;
+
+public class Branches implements View.OnClickListener {
+    static final int ID_FIRST = 0x7f010031;
+    static final int ID_SECOND = 0x7f010035;
+    static final int ID_THIRD = 0x7f010039;
+
+    private int mode;
+
+    @Override
+    public void onClick(View v) {
+        switch (mode) {
+            case 1:
+                log("one");
+                break;
+            case 100:
+                log("hundred");
+                break;
+        }
+        switch (v.getId()) {
+            case ID_FIRST:
+                log("first");
+                break;
+            case ID_SECOND:
+                log("second");
+                break;
+            default:
+                log("default");
+        }
+        if (v.getId() == ID_THIRD) {
+            log("third");
+        }
+        switch (v.getId()) {
+            case ID_FIRST:
+                log("first again");
+                break;
+            case ID_SECOND:
+                log("second again");
+                break;
+        }
+    }
+
+    void log(String text) {
+    }
+}
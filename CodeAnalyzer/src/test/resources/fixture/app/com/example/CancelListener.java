@@ -0,0 +1,16 @@
+package com.example;
+
+import android.view.View;
+
+class CancelListener implements View.OnClickListener {
+    private final MainActivity activity;
+
+    CancelListener(MainActivity activity) {
+        this.activity = activity;
+    }
+
+    @Override
+    public void onClick(View v) {
+        activity.reset();
+    }
+}
@@ -0,0 +1,34 @@
+package com.example;
+
+import android.app.Activity;
+import android.view.View;
+import android.widget.TextView;
+
+public class Flows extends Activity {
+    static final int ID_LABEL = 0x7f010021;
+    static final int ID_OTHER = 0x7f010022;
+
+    String pick(boolean first) {
+        String label = String.valueOf(first);
+        if (first) {
+            label = "first";
+        } else {
+            show(label);
+        }
+        show(label);
+        return label;
+    }
+
+    void show(String text) {
+    }
+
+    void chain(boolean other) {
+        View view = findViewById(ID_LABEL);
+        TextView text = (TextView) view;
+        TextView shown = text;
+        if (other) {
+            shown = (TextView) findViewById(ID_OTHER);
+        }
+        shown.setText("chain");
+    }
+}
@@ -0,0 +1,62 @@
+package com.example;
+
+import android.app.Activity;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+
+public class MainActivity extends Activity implements View.OnClickListener {
+    static final int LAYOUT_MAIN = 0x7f030001;
+    static final int ID_OK = 0x7f010001;
+    static final int ID_TITLE = 0x7f010002;
+    static final int ID_CANCEL = 0x7f010003;
+    static final int ID_HINT = 0x7f010004;
+    static final int STRING_WELCOME = 0x7f0b0001;
+
+    private Button ok;
+    private TextView title;
+    private Button cancel;
+    private int clicks;
+
+    protected void onCreate() {
+        setContentView(LAYOUT_MAIN);
+        ok = (Button) findViewById(ID_OK);
+        title = (TextView) findViewById(ID_TITLE);
+        cancel = (Button) findViewById(ID_CANCEL);
+        ok.setOnClickListener(this);
+        cancel.setOnClickListener(new CancelListener(this));
+        TextView hint = (TextView) findViewById(ID_HINT);
+        hint.setText(STRING_WELCOME);
+        title.setText("Main");
+        setTitle("Welcome");
+    }
+
+    @Override
+    public void onClick(View v) {
+        switch (v.getId()) {
+            case ID_OK:
+                clicks++;
+                title.setText("ok");
+                new Thread(new Worker(this)).start();
+                break;
+            case ID_CANCEL:
+                cancel.setText("cancelled");
+                reset();
+                break;
+            default:
+                break;
+        }
+        if (v.getId() == ID_TITLE) {
+            title.setHint("title");
+        }
+    }
+
+    void reset() {
+        clicks = 0;
+        title.setText("reset");
+    }
+
+    void done(String message) {
+        title.setText(message);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example;
+
+import android.app.Activity;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+import com.example.missing.Tracker;
+
+/**
+ * Copied under numbered names by the tests that need many classes
+ */
+public class Screen extends Activity {
+    private Button next;
+    private Button back;
+    private TextView label;
+
+    protected void onCreate() {
+        setContentView(0x7f030002);
+        next = (Button) findViewById(0x7f010011);
+        back = (Button) findViewById(0x7f010012);
+        label = (TextView) findViewById(0x7f010013);
+        View.OnClickListener listener = new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int id = v.getId();
+                new Tracker().track(v);
+                if (id == 0x7f010011) {
+                    label.setText("next");
+                    Tracker.log("next");
+                    next.setText("...");
+                } else if (id == 0x7f010012) {
+                    label.setText("back");
+                    Tracker.log("back" + Tracker.count("back"));
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            back.setText("done");
+                        }
+                    }).start();
+                }
+                switch (id) {
+                    case 0x7f010011:
+                        label.setHint("next");
+                        break;
+                    case 0x7f010012:
+                        label.setHint("back");
+                        break;
+                    default:
+                        break;
+                }
+            }
+        };
+        next.setOnClickListener(listener);
+        back.setOnClickListener(listener);
+        label.setText(0x7f0b0002);
+    }
+}
@@ -0,0 +1,14 @@
+package com.example;
+
+class Worker implements Runnable {
+    private final MainActivity activity;
+
+    Worker(MainActivity activity) {
+        this.activity = activity;
+    }
+
+    @Override
+    public void run() {
+        activity.done("done");
+    }
+}
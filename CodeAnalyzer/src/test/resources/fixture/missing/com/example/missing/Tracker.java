@@ -0,0 +1,16 @@
+package com.example.missing;
+
+/**
+ * Compiled against, but left out of the soot class path, so its refs are phantom
+ */
+public class Tracker {
+    public static void log(String event) {
+    }
+
+    public static int count(String event) {
+        return 0;
+    }
+
+    public void track(Object view) {
+    }
+}
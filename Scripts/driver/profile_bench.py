@@ -0,0 +1,119 @@
+"""Compare throughput and graph size of the analysis profiles on a benchmark set"""
+from subprocess import Popen
+from os.path import join, dirname, abspath, exists
+from os import listdir
+import sys
+import csv
+import argparse
+from tqdm import tqdm
+from time import time, sleep
+
+
+def parse_arg_bench(input_args: list):
+    parser = argparse.ArgumentParser(description="Benchmark analysis profiles of CodeAnalyzer")
+    parser.add_argument("apk_path", help="path that holds the apk files", type=str)
+    parser.add_argument("out_path", help="output path", type=str)
+    parser.add_argument("platform_path", help="Android SDK platform path", type=str)
+    parser.add_argument("--profiles", "-p", type=str, default="fast,balanced,precise",
+                        help="profiles to compare (default: fast,balanced,precise)")
+    parser.add_argument("--cg_algo", "-a", type=str, default="cha",
+                        help="cg algo (default: cha)")
+    parser.add_argument("--xmx", "-xx", type=str, default="40g",
+                        help="xmx for java vm. (default: 40g)")
+    parser.add_argument("--timeout", "-tt", type=int, default="10",
+                        help="timeout in minutes for each app. (default: 10)")
+    parser.add_argument("--app_num", "-n", type=int, default=0,
+                        help="only use the first n apps (default: 0 - all)")
+    parser.add_argument("--thread", "-t", type=int, default=8,
+                        help="thread to use")
+    _args = parser.parse_args(input_args)
+    return _args
+
+
+def count_graph(work_path: str):
+    """Return (node number, call edge number), or None if no graph"""
+    node_csv = join(work_path, "encoding", "node.csv")
+    edge_csv = join(work_path, "encoding", "edge.csv")
+    if not exists(edge_csv) or not exists(node_csv):
+        return None
+    with open(edge_csv, encoding="utf-8") as f:
+        if not f.readline().startswith(",From"):
+            return None
+        # type 0: call
+        call_num = sum(1 for line in f if line.rstrip().endswith(",0"))
+    with open(node_csv, encoding="utf-8") as f:
+        node_num = sum(1 for _ in f) - 1
+    return node_num, call_num
+
+
+def run_one(jar: str, apk: str, out: str, profile: str, args) -> (float, bool):
+    cmd = ["java", f"-Xmx{args.xmx}", "-jar", jar,
+           "-i", apk, "-p", args.platform_path, "-o", out,
+           "-a", args.cg_algo, "-pf", profile,
+           "-t", str(args.thread), "-f", "-nl"]
+    ran = Popen(cmd)
+    start = time()
+    while ran.poll() is None:
+        if time() - start >= 60 * args.timeout:
+            ran.kill()
+            ran.wait()
+            return time() - start, True
+        sleep(0.5)
+    return time() - start, False
+
+
+if __name__ == '__main__':
+    args = parse_arg_bench(sys.argv[1:])
+    apks = [a for a in listdir(args.apk_path) if a.endswith(".apk")]
+    apks.sort()
+    if args.app_num > 0:
+        apks = apks[:args.app_num]
+    profiles = args.profiles.split(",")
+
+    work_path = dirname(dirname(dirname(abspath(__file__))))
+    jar = join(work_path, "CodeAnalyzer", "target",
+               "CodeAnalyzer-1.0-SNAPSHOT-jar-with-dependencies.jar")
+
+    # out_path/<apk> must hold the apk parser output (ui layer),
+    # each profile overwrites the code-layer results there (-f)
+    rows = []
+    with tqdm(total=len(apks) * len(profiles)) as bar:
+        for apk in apks:
+            for profile in profiles:
+                bar.set_description_str(f"{profile} {apk}")
+                out = join(args.out_path, apk[:-4])
+                cost, timeout = run_one(jar, join(args.apk_path, apk), out, profile, args)
+                size = None if timeout else count_graph(out)
+                rows.append({
+                    "apk": apk, "profile": profile, "time": round(cost, 2),
+                    "timeout": int(timeout),
+                    "node": size[0] if size else -1,
+                    "call": size[1] if size else -1,
+                })
+                bar.update()
+
+    result_csv = join(args.out_path, "profile_bench.csv")
+    with open(result_csv, mode="w", encoding="utf-8", newline="") as f:
+        writer = csv.DictWriter(f, fieldnames=list(rows[0].keys()))
+        writer.writeheader()
+        writer.writerows(rows)
+
+    # summary: only apps finished by all profiles are compared for size
+    done = {}
+    for r in rows:
+        if r["call"] >= 0:
+            done.setdefault(r["apk"], {})[r["profile"]] = r
+    common = [a for a in done if len(done[a]) == len(profiles)]
+    print(f"{'profile':<10}{'apps/h':>10}{'timeout':>10}{'node':>12}{'call':>12}{'call %':>10}")
+    base = profiles[-1]
+    base_call = sum(done[a][base]["call"] for a in common) or 1
+    for profile in profiles:
+        rs = [r for r in rows if r["profile"] == profile]
+        total_time = sum(r["time"] for r in rs) or 1
+        node = sum(done[a][profile]["node"] for a in common)
+        call = sum(done[a][profile]["call"] for a in common)
+        print(f"{profile:<10}{len(rs) * 3600 / total_time:>10.1f}"
+              f"{sum(r['timeout'] for r in rs):>10}{node:>12}{call:>12}"
+              f"{100 * call / base_call:>9.1f}%")
+    print(f"sizes over {len(common)} apps finished by all profiles, "
+          f"call % relative to {base}; details in {result_csv}")
@@ -110,10 +110,15 @@ class BehaviorProcessor:
             self._nodes = nodes
         else:
             csv_path = join(self._work_path, "encoding", "node.csv")
+            # Noise is only written when the graph is built with -ml
             self._nodes: pd.DataFrame = pd.read_csv(
-                csv_path, usecols=["Name", "Package", "UId", "XML"],
+                csv_path, usecols=lambda c: c in {"Name", "Package", "UId", "XML", "Noise"},
                 encoding="utf-8", dtype={"Package": str}
             )
+        # noise marked by the code analyzer, None to match the lists here
+        self._noise = None
+        if "Noise" in self._nodes.columns:
+            self._noise = self._nodes["Noise"].to_numpy(dtype=bool)
         not_self_ids = self._nodes[self._nodes["Package"] != "-"]
         not_self_ids = not_self_ids.index.tolist()
         self.not_self_ids = list(map(str, not_self_ids))
@@ -298,7 +303,7 @@ class BehaviorProcessor:
             name = self._nodes.iloc[child_node]["Name"]
             # stop at noise nodes
             if not self.debug_mode:
-                if self._is_noise(name):
+                if self._is_noise(name, child_node):
                     continue
             # apply reduction according to native api
             if native_hop > -1 and relation == self.relation_call:
@@ -328,7 +333,7 @@ class BehaviorProcessor:
         with open(join(dirname(__file__), "lists", "mundane_calls.txt"),
                   encoding="utf-8", mode="r") as f:
             for line in f:
-                if line.startswith("//"):
+                if line.startswith("//") or not line.strip():
                     continue
                 results.append(line.strip())
         self._mundane_calls = results
@@ -342,15 +347,17 @@ class BehaviorProcessor:
         with open(join(dirname(__file__), "lists", "mundane_classes.txt"),
                   encoding="utf-8", mode="r") as f:
             for line in f:
-                if line.startswith("//"):
+                if line.startswith("//") or not line.strip():
                     continue
                 results.append(line.strip())
         self._mundane_classes = results
         return self._mundane_classes
 
-    def _is_noise(self, name: str) -> bool:
+    def _is_noise(self, name: str, node_id: int = None) -> bool:
         if "(" not in name:
             return True
+        if self._noise is not None and node_id is not None:
+            return bool(self._noise[node_id])
         # to avoid mistakes, judge by both class name and function name
         class_name, fun_name = name.split(":")
         fun_name = fun_name.split("(")[0]